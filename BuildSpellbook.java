@@ -4,345 +4,1101 @@ package student;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class BuildSpellbook {
 
+   // Receives every output line as soon as it is produced, a Vector<String> can be
+   // passed as output::add
+   public interface OutputSink {
+      void add(String line);
+   }
+
+   // The cycle handling of the four execNSpecs variants
+   public enum CycleCheck {
+      NONE,      // execNSpecs: no checks, an unknown command ends the run
+      DETECT,    // execNSpecswCheck
+      LONGEST,   // execNSpecswCheckRecLarge
+      SHORTEST   // execNSpecswCheckRecSmall
+   }
+
    public final Integer                  MAXCOMS = 1000;
-   private ArrayList<LinkedList<String>> prerequisiteSpells;
-   private Map<String, Boolean>          spellsLearned;
+   private final PrereqGraph             graph;
+   private final SpellTable              spellNames;
+   private PrereqGraph.View              prerequisiteSpells;
+   private LearnedSet                    spellsLearned;
+   private EnumRenderer                  enumOutput;
+   private int[]                         learnedDependents;
+   private boolean                       closureBroken;
    private LinkedList<String>            longestCycle;
+   private boolean                       longestCycleOptimal;
+   private long                          longestSearchNodes;
+   private long                          longestSearchNanos;
    private LinkedList<String>            shortestCycle;
+   private CommandLog                    commandLog;
+   private SpellbookMetrics              metrics;
+   private long                          traversalNodes;
+   private ForkJoinPool                  cyclePool;
+   private boolean                       readViews;
+   private volatile LearnedView          readView;
 
    public BuildSpellbook() {
-      prerequisiteSpells = new ArrayList<LinkedList<String>>();
-      spellsLearned = new LinkedHashMap<>();
+      this(new PrereqGraph());
+   }
+
+   private BuildSpellbook(PrereqGraph graph) {
+      this.graph = graph;
+      spellNames = graph.spells();
+      // Nothing is learned yet, so the lines already in the graph need no counting
+      prerequisiteSpells = graph.view();
+      spellsLearned = new LearnedSet();
+      enumOutput = new EnumRenderer();
+      learnedDependents = new int[0];
+      closureBroken = false;
       longestCycle = new LinkedList<String>();
+      longestCycleOptimal = true;
+      longestSearchNodes = Long.MAX_VALUE;
+      longestSearchNanos = Long.MAX_VALUE;
       shortestCycle = new LinkedList<String>();
-
+      commandLog = null;
+      metrics = null;
+      traversalNodes = 0;
+      cyclePool = null;
+      readViews = false;
+      readView = null;
    }
 
+   // Starts another session on the same PREREQ rules. The sessions share one prerequisite
+   // graph, so a PREREQ run in any of them is seen by all, but each has its own learned
+   // spells. Every session may run on its own thread at the same time as the others;
+   // one session must not be used by two threads at once.
+   public BuildSpellbook newSession() {
+	    BuildSpellbook session = new BuildSpellbook(graph);
+	    session.metrics = metrics;
+	    session.cyclePool = cyclePool;
+	    return session;
+	}
+
+
+
+   // Records the latency of every command and more in the given metrics, null turns
+   // recording off again. Sessions started afterwards with newSession record into the
+   // same metrics.
+   public void setMetrics(SpellbookMetrics metrics) {
+	    this.metrics = metrics;
+	}
+
+
+
+   public SpellbookMetrics getMetrics() {
+	    return metrics;
+	}
+
+
+
+   // Runs the cycle analysis of checkForCycle, LongestCSearcher, ShortesCycleSearcher and
+   // of END on the given pool, splitting the graph into its components with all of the
+   // pool's workers. The answers are the same as on one thread. null, the default, keeps
+   // it on the calling thread; sessions started afterwards with newSession use the same pool.
+   public void setCycleAnalysisPool(ForkJoinPool pool) {
+	    cyclePool = pool;
+	}
+
+
+
+   public ForkJoinPool getCycleAnalysisPool() {
+	    return cyclePool;
+	}
+
+
+
+   // While read views are on, the learned spells are published as a LearnedView after
+   // every command and every other call that learns or forgets, and readView hands out
+   // the latest one to any thread. A change then copies the few pages of the learned set
+   // it touches first, so they are off by default.
+   public void setReadViews(boolean enabled) {
+	    readViews = enabled;
+	    readView = null;
+	    publish();
+	}
+
+
+
+   // The learned spells as of the last command finished on this session. Unlike the rest
+   // of the session this may be called from any thread at any time, also while a command
+   // runs; the view does not lock the session and the session does not wait for readers.
+   public LearnedView readView() {
+	    LearnedView view = readView;
+	    if (view == null) {
+	        throw new IllegalStateException("Read views are off, see setReadViews");
+	    }
+	    return view;
+	}
+
+
+
+   // Called on the session's thread once a command is complete
+   private void publish() {
+	    if (!readViews) {
+	        return;
+	    }
+	    // The same Version comes back while nothing changed, and then so does the view
+	    LearnedSet.Version version = spellsLearned.snapshot();
+	    if (readView == null || readView.learned() != version || readView.prerequisites() != prerequisiteSpells) {
+	        readView = new LearnedView(version, spellNames, graph, prerequisiteSpells);
+	    }
+	}
+
+
+
+   // Bounds the cache of learning plans shared by all sessions on this spellbook's
+   // PREREQ rules, in plans and in spells over all plans. 0 plans turns it off.
+   public void setPlanCache(int maxPlans, int maxSpells) {
+	    graph.plans().setLimits(maxPlans, maxSpells);
+	}
+
+
+
+   // With merging on, every spell has one PREREQ rule at most: a PREREQ for a spell that
+   // has a rule adds the prerequisites it does not list yet to that rule, and a spell is
+   // never listed twice on a rule. REPLACE PREREQ main p... then sets a spell's rule to
+   // exactly the given prerequisites, and REMOVE PREREQ main [p...] takes the given ones
+   // off it, or all of them. Without merging, the default, every line is kept as it came
+   // and REPLACE and REMOVE are unknown commands. The setting belongs to the PREREQ rules,
+   // so it holds for every session on them, and it can only be changed before the first
+   // PREREQ line.
+   public void setMergePrereqs(boolean enabled) {
+	    graph.setMerging(enabled);
+	}
+
+
+
+   public boolean isMergePrereqs() {
+	    return graph.isMerging();
+	}
+
+
+
+   // In delta mode ENUM lists only the spells learned ("   + name") and forgotten
+   // ("   - name") since the previous ENUM instead of every learned spell. Off by default.
+   public void setDeltaEnum(boolean enabled) {
+	    enumOutput.setDelta(enabled, spellsLearned);
+	}
+
+
+
+   public boolean isDeltaEnum() {
+	    return enumOutput.isDelta();
+	}
+
+
+
    public Vector<String> execNSpecs(Vector<String> specs, Integer N) {
-	    // Initialize the output vector to store results and a counter for processed commands
+	    // Collect the streamed output into a vector for callers that want the whole run
 	    Vector<String> output = new Vector<String>();
-	    int processedCount = 0;
-
-	    // Iterate through each specification provided in the specs vector
-	    for (String spec : specs) {
-	        // Check if the number of processed specifications has reached the limit N
-	        if (processedCount >= N) {
-	            // If the limit is reached, return the current output vector
-	            return output;
-	        }
-
-	        // Add the current specification to the output vector
-	        output.add(spec);
-	        // Increment the count of processed specifications
-	        processedCount++;
-
-	        // Split the current specification string into arguments using space as the delimiter
-	        String[] arguments = spec.split(" ");
-	        // The first argument is the command (e.g., PREREQ, LEARN, FORGET, ENUM)
-	        String cmd = arguments[0];
-
-	        // Process the command using a switch statement
-	        switch (cmd) {
-	            case "PREREQ":
-	                // If the command is PREREQ, call the preReqadd method to add the prerequisite spells
-	                preReqadd(arguments);
-	                break;
-	            case "LEARN":
-	                // If the command is LEARN, call the learnExp method to learn the specified spell
-	                learnExp(arguments[1], output);
-	                break;
-	            case "FORGET":
-	                // If the command is FORGET, call the forget method to forget the specified spell
-	                forget(arguments[1], output);
+	    execSpecs(specs.iterator(), N, CycleCheck.NONE, output::add);
+	    return output;
+	}
+
+
+
+   // Executes the commands read from the reader one line at a time and hands every output
+   // line to the sink as it is produced, so memory is bounded by the spellbook rather than
+   // by the length of the command log. Returns the number of commands processed.
+   public long execStream(Reader specs, long N, CycleCheck check, OutputSink output) throws IOException {
+	    BufferedReader reader = specs instanceof BufferedReader ? (BufferedReader) specs : new BufferedReader(specs);
+	    SpecRun run = new SpecRun(check);
+
+	    String spec;
+	    boolean completed = false;
+	    try {
+	        while (run.processedCount < N && (spec = reader.readLine()) != null) {
+	            if (!execSpec(spec, run, output)) {
 	                break;
-	            case "ENUM":
-	                // If the command is ENUM, enumerate all learned spells
-	                // Iterate through the spellsLearned map and add each spell to the output vector
-	                for (Entry<String, Boolean> entry : spellsLearned.entrySet()) {
-	                    output.add("   " + entry.getKey());
-	                }
+	            }
+	        }
+	        completed = true;
+	    } finally {
+	        endRun(run, completed ? output : null);
+	    }
+	    return run.processedCount;
+	}
+
+
+
+   public long execStream(Path specFile, long N, CycleCheck check, OutputSink output) throws IOException {
+	    // Read with the platform charset, the same way readSpecsFromFile does
+	    try (BufferedReader reader = Files.newBufferedReader(specFile, Charset.defaultCharset())) {
+	        return execStream(reader, N, check, output);
+	    }
+	}
+
+
+
+   // Loads a rules file of PREREQ lines as one batch: the lines are added without any
+   // cycle check in between, then the whole graph is checked once and every cycle is
+   // reported to the output as END reports it. Blank lines are skipped; when merging is on
+   // REPLACE PREREQ and REMOVE PREREQ lines are applied too, any other command is an error.
+   // Returns the number of lines loaded.
+   public long loadPrereqs(Reader rules, OutputSink output) throws IOException {
+	    refresh();
+	    BufferedReader reader = rules instanceof BufferedReader ? (BufferedReader) rules : new BufferedReader(rules);
+	    SpecRun run = new SpecRun(CycleCheck.DETECT);
+	    run.inBatch = true;
+
+	    boolean completed = false;
+	    try {
+	        String line;
+	        while ((line = reader.readLine()) != null) {
+	            if (line.isEmpty()) {
+	                continue;
+	            }
+	            int opcode = run.tokens.reset(line);
+	            if (opcode == SpecTokenizer.PREREQ) {
+	                preReqadd(run.tokens, true);
+	            } else if (isRewrite(opcode, run.tokens)) {
+	                rewritePrereqs(opcode, run.tokens, true);
+	            } else {
+	                throw new IllegalArgumentException("Not a PREREQ line: " + line);
+	            }
+	            run.batchLines++;
+	        }
+	        completed = true;
+	    } finally {
+	        endBatch(run, completed ? output : null);
+	    }
+	    return run.batchLines;
+	}
+
+
+
+   public long loadPrereqs(Path rulesFile, OutputSink output) throws IOException {
+	    try (BufferedReader reader = Files.newBufferedReader(rulesFile, Charset.defaultCharset())) {
+	        return loadPrereqs(reader, output);
+	    }
+	}
+
+
+
+   private long execSpecs(Iterator<String> specs, long N, CycleCheck check, OutputSink output) {
+	    SpecRun run = new SpecRun(check);
+
+	    // Process specifications until the input runs out, the limit N is reached or a command ends the run
+	    boolean completed = false;
+	    try {
+	        while (run.processedCount < N && specs.hasNext()) {
+	            if (!execSpec(specs.next(), run, output)) {
 	                break;
-	            default:
-	                // If the command is unrecognized, return the current output vector
-	                return output;
+	            }
 	        }
+	        completed = true;
+	    } finally {
+	        endRun(run, completed ? output : null);
 	    }
+	    return run.processedCount;
+	}
 
-	    // Return the output vector after processing all specifications or reaching the limit N
-	    return output;
+
+
+   // Starts a run that is fed one specification at a time, for callers that receive the
+   // commands as they come instead of as a list or a reader
+   public Run startRun(CycleCheck check) {
+	    return new Run(check);
+	}
+
+
+
+   // A run of execNSpecs that the caller drives: every exec is one more specification
+   // of the run, and end must be called once no more will come. Like the session it
+   // belongs to, a run must not be used by two threads at once.
+   public final class Run {
+      private final SpecRun run;
+
+      Run(CycleCheck check) {
+         run = new SpecRun(check);
+      }
+
+      // Executes one specification and returns false if the run should stop
+      public boolean exec(String spec, OutputSink output) {
+	       return execSpec(spec, run, output);
+	   }
+
+      // Ends a batch still open, reporting it to the output unless that is null
+      public void end(OutputSink output) {
+	       endRun(run, output);
+	   }
+
+      public long processedCount() {
+	       return run.processedCount;
+	   }
+   }
+
+
+
+   // A batch still open when the run ends is ended with it; if the run failed the batch
+   // is only closed so the cycle detector takes in its lines, without a report
+   private void endRun(SpecRun run, OutputSink output) {
+	    if (run.inBatch) {
+	        endBatch(run, output);
+	    }
+	}
+
+
+
+   // State of one pass over a list of specifications
+   private static class SpecRun {
+      final CycleCheck    check;
+      final SpecTokenizer tokens = new SpecTokenizer();
+      long                processedCount;
+      boolean             cycleDetected;
+      boolean             inBatch;
+      long                batchLines;
+
+      SpecRun(CycleCheck check) {
+         this.check = check;
+      }
+   }
+
+
+
+   // Executes a single specification and returns false if the run should stop
+   private boolean execSpec(String spec, SpecRun run, OutputSink output) {
+	    // Pick up PREREQ lines other sessions added since the last command
+	    refresh();
+	    // Add the current specification to the output
+	    output.add(spec);
+	    // Increment the count of processed specifications
+	    run.processedCount++;
+
+	    // Tokenize the specification in place, the first token is the command
+	    // (e.g., PREREQ, LEARN, FORGET, ENUM) and comes back as an opcode, the
+	    // spell names come back as ids
+	    SpecTokenizer tokens = run.tokens;
+	    int opcode = tokens.reset(spec);
+
+	    // Without metrics nothing is timed. A sink may throw to stop the run part way
+	    // through a command, such as SolutionComparator at the first mismatch; what the
+	    // command did so far is still published and recorded.
+	    SpellbookMetrics metrics = this.metrics;
+	    if (metrics == null) {
+	        try {
+	            return execCommand(opcode, run, output);
+	        } finally {
+	            publish();
+	        }
+	    }
+	    SpellbookCommandEvent event = metrics.beginEvent();
+	    long start = System.nanoTime();
+	    traversalNodes = 0;
+	    try {
+	        return execCommand(opcode, run, output);
+	    } finally {
+	        publish();
+	        metrics.command(opcode, System.nanoTime() - start, traversalNodes, event, spec);
+	        metrics.gauges(prerequisiteSpells.size(), spellNames.size(), spellsLearned.size());
+	    }
+	}
+
+
+
+   private boolean execCommand(int opcode, SpecRun run, OutputSink output) {
+	    SpecTokenizer tokens = run.tokens;
+
+	    // PREREQ lines are always added, the other commands are skipped once a cycle was found
+	    switch (opcode) {
+	        case SpecTokenizer.PREREQ:
+	            // Add the prerequisite spells straight from the tokens, inside a batch the
+	            // cycle check waits for END
+	            preReqadd(tokens, run.inBatch);
+	            if (run.inBatch) {
+	                run.batchLines++;
+	            } else if (run.check != CycleCheck.NONE) {
+	                checkPrereqs(run, output);
+	            }
+	            break;
+	        case SpecTokenizer.REPLACE:
+	        case SpecTokenizer.REMOVE:
+	            // REPLACE PREREQ and REMOVE PREREQ rewrite a rule when merging is on and are
+	            // unknown commands otherwise; they are checked for cycles like PREREQ
+	            if (!isRewrite(opcode, tokens)) {
+	                return run.check != CycleCheck.NONE;
+	            }
+	            rewritePrereqs(opcode, tokens, run.inBatch);
+	            if (run.inBatch) {
+	                run.batchLines++;
+	            } else if (run.check != CycleCheck.NONE) {
+	                checkPrereqs(run, output);
+	            }
+	            break;
+	        case SpecTokenizer.BEGIN:
+	            // Start a batch of PREREQ lines, a BEGIN inside a batch changes nothing
+	            if (!run.inBatch) {
+	                run.inBatch = true;
+	                run.batchLines = 0;
+	            }
+	            break;
+	        case SpecTokenizer.END:
+	            // Check the whole batch for cycles at once, an END without BEGIN changes nothing
+	            if (run.inBatch) {
+	                endBatch(run, output);
+	            }
+	            break;
+	        case SpecTokenizer.LEARN:
+	            // Call the learnExp method to learn the specified spell
+	            if (!run.cycleDetected) {
+	                learn(tokens.id(1, spellNames), output);
+	            }
+	            break;
+	        case SpecTokenizer.FORGET:
+	            // Call the forget method to forget the specified spell
+	            if (!run.cycleDetected) {
+	                forget(tokens.id(1, spellNames), output);
+	            }
+	            break;
+	        case SpecTokenizer.ENUM:
+	            // Enumerate all learned spells, or only the changes in delta mode
+	            if (!run.cycleDetected) {
+	                enumOutput.render(spellsLearned, spellNames, output);
+	            }
+	            break;
+	        case SpecTokenizer.REQUIRES:
+	            // List every spell the specified spell ultimately requires
+	            if (!run.cycleDetected) {
+	                requires(tokens.lookup(1, spellNames), tokens.text(1), output);
+	            }
+	            break;
+	        case SpecTokenizer.DEPENDENTS:
+	            // List every learned spell that ultimately requires the specified spell
+	            if (!run.cycleDetected) {
+	                dependents(graph, prerequisiteSpells, spellsLearned, tokens.lookup(1, spellNames), tokens.text(1), output);
+	            }
+	            break;
+	        default:
+	            // execNSpecs stops at an unrecognized command, the checked variants skip it
+	            return run.check != CycleCheck.NONE;
+	    }
+	    return true;
+	}
+
+
+
+   // Ends the batch of the run, brings the cycle state of the graph up to date in one pass
+   // and, unless output is null, reports the lines loaded and, for the checked variants,
+   // every component of the graph that contains a cycle together with the rule that
+   // closed its first cycle. Later commands are skipped as after any other cycle.
+   private void endBatch(SpecRun run, OutputSink output) {
+	    run.inBatch = false;
+	    catchUp(graph.endBatch());
+	    if (output == null) {
+	        return;
+	    }
+	    output.add("   Loaded " + run.batchLines + " PREREQ lines");
+	    if (run.check == CycleCheck.NONE || !prerequisiteSpells.hasCycle()) {
+	        return;
+	    }
+
+	    long start = metrics != null ? System.nanoTime() : 0;
+	    // One pass finds every component, each is then searched for the line that closed it
+	    CycleSearch search = new CycleSearch(prereqEdges(), cyclePool);
+	    List<int[]> components = search.cyclicComponents();
+	    int[] closing = search.closingPositions(components, cyclePool);
+	    int[][] closed = new int[components.size()][];
+	    for (int i = 0; i < closed.length; i++) {
+	        closed[i] = new int[] { closing[i], components.get(i).length };
+	    }
+	    Arrays.sort(closed, (a, b) -> Integer.compare(a[0], b[0]));
+	    for (int[] component : closed) {
+	        output.add("   Found cycle in prereqs: " + component[1] + (component[1] == 1 ? " rule" : " rules")
+	                + ", closed by " + lineText(component[0]));
+	    }
+	    run.cycleDetected = !components.isEmpty();
+	    recordCycleCheck(start, run.cycleDetected);
+	}
+
+
+
+   // The PREREQ line at a position as it was given
+   private String lineText(int position) {
+	    StringBuilder text = new StringBuilder("PREREQ ");
+	    text.append(spellNames.name(prerequisiteSpells.main(position)));
+	    for (int index = 0; index < prerequisiteSpells.prereqCount(position); index++) {
+	        text.append(" ").append(spellNames.name(prerequisiteSpells.prereq(position, index)));
+	    }
+	    return text.toString();
+	}
+
+
+
+   private void checkPrereqs(SpecRun run, OutputSink output) {
+	    // Nothing to check until there are at least two prerequisite lists and the
+	    // incremental detector has seen a cycle
+	    if (prerequisiteSpells.size() < 2 || !prerequisiteSpells.hasCycle()) {
+	        return;
+	    }
+
+	    long start = metrics != null ? System.nanoTime() : 0;
+	    String suggestion = "";
+	    switch (run.check) {
+	        case LONGEST:
+	            // Find the longest cycle in the prerequisite spells
+	            longestCycle = LongestCSearcher();
+	            if (longestCycle == null) {
+	                recordCycleCheck(start, false);
+	                return;
+	            }
+	            suggestion = identifyLong();
+	            break;
+	        case SHORTEST:
+	            // Find the shortest cycle in the prerequisite spells
+	            shortestCycle = ShortesCycleSearcher();
+	            if (shortestCycle == null) {
+	                recordCycleCheck(start, false);
+	                return;
+	            }
+	            suggestion = TheShort();
+	            break;
+	        default:
+	            break;
+	    }
+
+	    // Report the cycle and suggest the PREREQ line to forget, then stop further processing
+	    output.add("   Found cycle in prereqs");
+	    if (!suggestion.isEmpty()) {
+	        output.add("   Suggest forgetting PREREQ" + suggestion);
+	    }
+	    run.cycleDetected = true;
+	    recordCycleCheck(start, true);
+	}
+
+
+
+   private void recordCycleCheck(long start, boolean found) {
+	    if (metrics != null) {
+	        metrics.cycleCheck(System.nanoTime() - start, found);
+	    }
 	}
 
 
 
    public void preReqadd(String[] args) {
-	    // The first argument after the command is the main spell which requires prerequisites
-	    String mainSpell = args[1];
+	    refresh();
+	    // Initialize a new line to store the main spell and its prerequisites as ids
+	    int[] prerequisites = new int[args.length - 1];
+
+	    // The first argument after the command is the main spell, the remaining arguments
+	    // (starting from index 2) are the prerequisite spells for the main spell
+	    for (int index = 1; index < args.length; index++) {
+	        prerequisites[index - 1] = spellNames.id(args[index]);
+	    }
+	    addPrereqLine(prerequisites, false);
+	}
 
-	    // Initialize a new linked list to store the main spell and its prerequisites
-	    LinkedList<String> prerequisites = new LinkedList<>();
-	    
-	    // Add the main spell to the prerequisites list
-	    prerequisites.add(mainSpell);
-	    
-	    // Iterate through the remaining arguments, starting from the second index (index 2)
-	    // These arguments represent the prerequisite spells for the main spell
-	    for (int index = 2; index < args.length; index++) {
-	        // Add each prerequisite spell to the prerequisites list
-	        prerequisites.add(args[index]);
+
+
+   private void preReqadd(SpecTokenizer tokens, boolean batched) {
+	    // Same as above but the names come straight from the tokenized line
+	    int[] prerequisites = new int[tokens.count() - 1];
+	    for (int index = 1; index < tokens.count(); index++) {
+	        prerequisites[index - 1] = tokens.id(index, spellNames);
+	    }
+	    addPrereqLine(prerequisites, batched);
+	}
+
+
+
+   // A batched line is left out of cycle detection until this session's batch ends
+   private void addPrereqLine(int[] prerequisites, boolean batched) {
+	    if (commandLog != null) {
+	        StringBuilder spec = new StringBuilder("PREREQ");
+	        for (int spell : prerequisites) {
+	            spec.append(' ').append(spellNames.name(spell));
+	        }
+	        log(spec.toString());
+	    }
+	    // Add the complete prerequisites line to the shared graph, then count it in this
+	    // session together with any line another session added in the meantime
+	    catchUp(graph.add(prerequisites, batched));
+	}
+
+
+
+   // REPLACE PREREQ main p... or REMOVE PREREQ main p... on a graph that merges
+   private boolean isRewrite(int opcode, SpecTokenizer tokens) {
+	    return (opcode == SpecTokenizer.REPLACE || opcode == SpecTokenizer.REMOVE) && graph.isMerging()
+	            && tokens.count() >= 3 && tokens.matches(1, "PREREQ");
+	}
+
+
+
+   public void replacePrereq(String spell, String... prerequisites) {
+	    refresh();
+	    rewritePrereqs(SpecTokenizer.REPLACE, ids(spell, prerequisites), false);
+	}
+
+
+
+   // Takes the prerequisites off the spell's rule, every one if none are given
+   public void removePrereq(String spell, String... prerequisites) {
+	    refresh();
+	    rewritePrereqs(SpecTokenizer.REMOVE, ids(spell, prerequisites), false);
+	}
+
+
+
+   private int[] ids(String spell, String[] prerequisites) {
+	    int[] line = new int[prerequisites.length + 1];
+	    line[0] = spellNames.id(spell);
+	    for (int index = 0; index < prerequisites.length; index++) {
+	        line[index + 1] = spellNames.id(prerequisites[index]);
+	    }
+	    return line;
+	}
+
+
+
+   private void rewritePrereqs(int opcode, SpecTokenizer tokens, boolean batched) {
+	    // The main spell and its prerequisites follow the PREREQ token
+	    int[] line = new int[tokens.count() - 2];
+	    for (int index = 2; index < tokens.count(); index++) {
+	        line[index - 2] = tokens.id(index, spellNames);
+	    }
+	    rewritePrereqs(opcode, line, batched);
+	}
+
+
+
+   private void rewritePrereqs(int opcode, int[] line, boolean batched) {
+	    if (commandLog != null) {
+	        StringBuilder spec = new StringBuilder(opcode == SpecTokenizer.REPLACE ? "REPLACE PREREQ" : "REMOVE PREREQ");
+	        for (int spell : line) {
+	            spec.append(' ').append(spellNames.name(spell));
+	        }
+	        log(spec.toString());
+	    }
+	    catchUp(opcode == SpecTokenizer.REPLACE ? graph.replace(line, batched) : graph.remove(line, batched));
+	}
+
+
+
+   // Moves this session to the newest lines of the shared graph
+   private void refresh() {
+	    catchUp(graph.view());
+	}
+
+
+
+   private void catchUp(PrereqGraph.View view) {
+	    PrereqGraph.View seen = prerequisiteSpells;
+	    prerequisiteSpells = view;
+	    if (view.rewrites() != seen.rewrites() && !recountRewritten(seen, view)) {
+	        recountAll();
+	        return;
+	    }
+	    for (int position = seen.size(); position < view.size(); position++) {
+	        countLine(position);
+	    }
+	}
+
+
+
+   // A rule rewritten since the session last looked makes a learned main spell a dependent
+   // of its new prerequisites instead of its old ones. Returns false, changing nothing, if
+   // the graph no longer has the rewrites that far back.
+   private boolean recountRewritten(PrereqGraph.View seen, PrereqGraph.View view) {
+	    if (view.rewritten(seen.rewrites()) == -1) {
+	        return false;
+	    }
+	    BitSet done = new BitSet();
+	    for (long number = seen.rewrites(); number < view.rewrites(); number++) {
+	        int position = view.rewritten(number);
+	        // Lines new to the session are counted as they are now by countLine
+	        if (position >= seen.size() || done.get(position)) {
+	            continue;
+	        }
+	        done.set(position);
+	        if (!spellsLearned.contains(view.main(position))) {
+	            continue;
+	        }
+	        for (int index = 0; index < seen.prereqCount(position); index++) {
+	            adjustDependents(seen.prereq(position, index), -1);
+	        }
+	        countLine(position);
+	    }
+	    return true;
+	}
+
+
+
+   // Counts the learned dependents of every spell again from the rules as they are now
+   private void recountAll() {
+	    learnedDependents = new int[learnedDependents.length];
+	    spellsLearned.forEach(spell -> {
+	        adjustLearnedPrereqs(spell, 1);
+	        int position = firstLine(spell);
+	        for (int index = 0; position != -1 && index < prerequisiteSpells.prereqCount(position); index++) {
+	            if (!spellsLearned.contains(prerequisiteSpells.prereq(position, index))) {
+	                closureBroken = true;
+	            }
+	        }
+	    });
+	}
+
+
+
+   private void countLine(int position) {
+	    int mainSpell = prerequisiteSpells.main(position);
+
+	    // A rule for a spell that is already learned makes it a learned dependent of its prerequisites
+	    if (spellsLearned.contains(mainSpell)) {
+	        for (int index = 0; index < prerequisiteSpells.prereqCount(position); index++) {
+	            int prereq = prerequisiteSpells.prereq(position, index);
+	            adjustDependents(prereq, 1);
+	            // A learned spell whose first rule names an unlearned prerequisite means forgetting can
+	            // no longer assume every prerequisite of a learned spell is learned too
+	            if (firstLine(mainSpell) == position && !spellsLearned.contains(prereq)) {
+	                closureBroken = true;
+	            }
+	        }
 	    }
-	    
-	    // Add the complete prerequisites list to the prerequisiteSpells list
-	    prerequisiteSpells.add(prerequisites);
 	}
 
    
    
 
    public void learnExp(String spell, Vector<String> output) {
-	    // Check if the spell is already learned by looking it up in the spellsLearned map
-	    if (spellsLearned.containsKey(spell)) {
+	    learnExp(spell, (OutputSink) output::add);
+	}
+
+
+
+   public void learnExp(String spell, OutputSink output) {
+	    refresh();
+	    learn(spellNames.id(spell), output);
+	    publish();
+	}
+
+
+
+   private void learn(int spell, OutputSink output) {
+	    log("LEARN", spell);
+	    // Check if the spell is already learned by looking it up in the spellsLearned set
+	    if (spellsLearned.contains(spell)) {
 	        // If the spell is already learned, add a message to the output and return
-	        output.add("   " + spell + " is already learned");
+	        output.add("   " + spellNames.name(spell) + " is already learned");
 	        return;
 	    }
 	    
 	    // Check if the spell has any prerequisites by calling the hasPrereq method
-	    int prereqIndex = hasPrereq(spell);
+	    int prereqIndex = firstLine(spell);
 	    if (prereqIndex != -1) {
 	        // If the spell has prerequisites, learn those prerequisites first
-	        learnImp(prereqIndex, output);
-	        // Get the main spell from the prerequisites list
-	        String prereqSpell = prerequisiteSpells.get(prereqIndex).get(0);
-	        // Mark the main spell as learned but not explicitly by adding it to spellsLearned with a value of false
-	        spellsLearned.put(prereqSpell, false);
+	        learnPrereqs(prereqIndex, output);
+	        // Get the main spell from the prerequisites line
+	        int prereqSpell = prerequisiteSpells.main(prereqIndex);
+	        // Mark the main spell as learned explicitly
+	        markLearned(prereqSpell, false);
 	        // Add a message to the output indicating that the main spell is being learned
-	        output.add("   Learning " + prereqSpell);
+	        output.add("   Learning " + spellNames.name(prereqSpell));
 	        return;
 	    }
 	    
-	    // If the spell has no prerequisites, mark it as learned explicitly by adding it to spellsLearned with a value of false
-	    spellsLearned.put(spell, false);
+	    // If the spell has no prerequisites, mark it as learned explicitly
+	    markLearned(spell, false);
 	    // Add a message to the output indicating that the spell is being learned
-	    output.add("   Learning " + spell);
+	    output.add("   Learning " + spellNames.name(spell));
 	}
 
 
 
+   // Returns the position in prerequisiteSpells of the first PREREQ line whose main
+   // spell is exactly equal to the given spell, or -1 if there is none. Lookups go
+   // through a hash index of the graph so they take constant time. Names are compared with equals,
+   // so "Fire" no longer resolves to a line for "Fireball" the way the old substring
+   // scan did.
    public int hasPrereq(String spell) {
-	    // Iterate through the prerequisiteSpells list
-	    for (int index = 0; index < prerequisiteSpells.size(); index++) {
-	        // Check if the main spell in the current prerequisites list matches the provided spell
-	        if (prerequisiteSpells.get(index).get(0).contains(spell)) {
-	            // If a match is found, return the index of the prerequisites list
-	            return index;
-	        }
-	    }
-	    // If no match is found after checking all prerequisites lists, return -1
-	    return -1;
+	    refresh();
+	    int id = spellNames.lookup(spell);
+	    return id == -1 ? -1 : firstLine(id);
+	}
+
+
+
+   private int firstLine(int spell) {
+	    // Look up the position of the first prerequisites list for this spell, -1 if
+	    // no PREREQ line names the spell as its main spell
+	    return prerequisiteSpells.firstLine(spell);
 	}
 
 
 
    public void learnImp(int position, Vector<String> output) {
-	    // Retrieve the list of prerequisites for the given position in prerequisiteSpells
-	    LinkedList<String> prerequisites = prerequisiteSpells.get(position);
-
-	    // Iterate through the prerequisites list, starting from index 1 (skipping the main spell at index 0)
-	    for (int index = 1; index < prerequisites.size(); index++) {
-	        // Get the current spell from the prerequisites list
-	        String currentSpell = prerequisites.get(index);
-	        
-	        // Check if the current spell has its own prerequisites by calling hasPrereq
-	        if (hasPrereq(currentSpell) != -1) {
-	            // Recursively learn the prerequisites of the current spell
-	            learnImp(hasPrereq(currentSpell), output);
-	        }
-	        
+	    learnImp(position, (OutputSink) output::add);
+	}
+
+
+
+   public void learnImp(int position, OutputSink output) {
+	    refresh();
+	    learnPrereqs(position, output);
+	    publish();
+	}
+
+
+
+   private void learnPrereqs(int position, OutputSink output) {
+	    // The spells the prerequisite walk learns, in the order it learns them, come from
+	    // the plan cache of the graph, so a repeated LEARN is a single sweep
+	    LearningPlans.Plan plan = graph.plans().plan(prerequisiteSpells, position);
+	    traversalNodes += plan.spells.length;
+	    for (int currentSpell : plan.spells) {
 	        // Check if the current spell is not already learned
-	        if (!spellsLearned.containsKey(currentSpell)) {
-	            // Mark the current spell as learned and explicitly by adding it to spellsLearned with a value of true
-	            spellsLearned.put(currentSpell, true);
+	        if (!spellsLearned.contains(currentSpell)) {
+	            // Mark the current spell as learned implicitly
+	            markLearned(currentSpell, true);
 	            // Add a message to the output indicating that the current spell is being learned
-	            output.add("   Learning " + currentSpell);
+	            output.add("   Learning " + spellNames.name(currentSpell));
 	        }
 	    }
 	}
 
 
-    	 
-   		//CHECK THIS ONE !! !!!  ! ! ! ! ! ! ! ! ! ! ! ! ! !  ! ! ! ! ! !  ! ! !  ! ! ! !  ! ! ! ! ! 1 ! 1 ! 1 
+
    public boolean learnedSpell(String spell) {
-	    return spellsLearned.containsKey(spell);
+	    refresh();
+	    int id = spellNames.lookup(spell);
+	    return id != -1 && spellsLearned.contains(id);
 	}
-   
 
+
+
+   // Returns true if the spell is named as a prerequisite on any PREREQ line whose main
+   // spell is learned. learnedDependents holds that count for every spell and is kept up
+   // to date by markLearned, unmarkLearned and preReqadd, so this is a single lookup.
+   // Names are matched exactly, like hasPrereq.
    public boolean isPre(String targetSpell) {
-	    // Iterate through each list of prerequisite spells in prerequisiteSpells
-	    for (int i = 0; i < prerequisiteSpells.size(); i++) {
-	        // Retrieve the current list of spells, where the first element is the main spell and the rest are its prerequisites
-	        LinkedList<String> spellList = prerequisiteSpells.get(i);
-	        // The main spell is the first element in the list
-	        String mainSpell = spellList.get(0);
-	        
-	        // Iterate through the prerequisite spells, starting from index 1 (skipping the main spell)
-	        for (int j = 1; j < spellList.size(); j++) {
-	            // Get the current prerequisite spell
-	            String currentPrereq = spellList.get(j);
-	            
-	            // Check if the current prerequisite spell contains the target spell
-	            // and if the main spell has already been learned
-	            if (currentPrereq.contains(targetSpell) && learnedSpell(mainSpell)) {
-	                // If both conditions are true, return true indicating that the target spell is a prerequisite
-	                return true;
-	            }
+	    refresh();
+	    int id = spellNames.lookup(targetSpell);
+	    return id != -1 && needed(id);
+	}
+
+
+
+   private boolean needed(int spell) {
+	    return spell < learnedDependents.length && learnedDependents[spell] > 0;
+	}
+
+
+
+   private void markLearned(int spell, boolean implicit) {
+	    // Only a spell that was not learned before adds to the counts of its prerequisites
+	    if (spellsLearned.add(spell, implicit)) {
+	        adjustLearnedPrereqs(spell, 1);
+	        enumOutput.changed(spell, spellsLearned);
+	    }
+	}
+
+
+
+   private void unmarkLearned(int spell) {
+	    if (spellsLearned.remove(spell)) {
+	        adjustLearnedPrereqs(spell, -1);
+	        enumOutput.changed(spell, spellsLearned);
+	    }
+	}
+
+
+
+   private void adjustLearnedPrereqs(int spell, int delta) {
+	    // Walk every PREREQ line of the spell this session has seen and update each prerequisite on it
+	    for (int position = firstLine(spell); position != -1; position = prerequisiteSpells.nextLine(position)) {
+	        for (int index = 0; index < prerequisiteSpells.prereqCount(position); index++) {
+	            adjustDependents(prerequisiteSpells.prereq(position, index), delta);
 	        }
 	    }
-	    // If no matching prerequisite is found, return false
-	    return false;
+	}
+
+
+
+   private void adjustDependents(int spell, int delta) {
+	    if (spell >= learnedDependents.length) {
+	        learnedDependents = Arrays.copyOf(learnedDependents, Math.max(spell + 1, learnedDependents.length * 2));
+	    }
+	    learnedDependents[spell] += delta;
 	}
 
 
    public void forget(String spell, Vector<String> output) {
+	    forget(spell, (OutputSink) output::add);
+	}
+
+
+
+   public void forget(String spell, OutputSink output) {
+	    refresh();
+	    forget(spellNames.id(spell), output);
+	    publish();
+	}
+
+
+
+   private void forget(int spell, OutputSink output) {
+	    log("FORGET", spell);
 	    // Check if the spell has been learned
-	    if (learnedSpell(spell)) {
+	    if (spellsLearned.contains(spell)) {
 	        // If the spell is still needed as a prerequisite for other spells, add a message and return
-	        if (isPre(spell)) {
-	            output.add("   " + spell + " is still needed");
+	        if (needed(spell)) {
+	            output.add("   " + spellNames.name(spell) + " is still needed");
 	            return;
 	        }
 
 	        // Check if the spell itself has prerequisites
-	        int prereqPosition = hasPrereq(spell);
+	        int prereqPosition = firstLine(spell);
 	        if (prereqPosition != -1) {
-	            // If the spell has prerequisites, retrieve the main spell from the prerequisites list
-	            String mainSpell = prerequisiteSpells.get(prereqPosition).get(0);
+	            // If the spell has prerequisites, retrieve the main spell from the prerequisites line
+	            int mainSpell = prerequisiteSpells.main(prereqPosition);
 	            // Add a message indicating that the main spell is being forgotten
-	            output.add("   Forgetting " + mainSpell);
-	            // Remove the main spell from the spellsLearned map
-	            spellsLearned.remove(mainSpell);
-	            // Call DropHelp to recursively forget all prerequisite spells
-	            DropHelp(prereqPosition, output);
+	            output.add("   Forgetting " + spellNames.name(mainSpell));
+	            // Remove the main spell from the spellsLearned set
+	            unmarkLearned(mainSpell);
+	            // Call dropPrereqs to forget all prerequisite spells
+	            dropPrereqs(prereqPosition, output);
 	        } else {
 	            // If the spell has no prerequisites, add a message indicating that the spell is being forgotten
-	            output.add("   Forgetting " + spell);
-	            // Remove the spell from the spellsLearned map
-	            spellsLearned.remove(spell);
+	            output.add("   Forgetting " + spellNames.name(spell));
+	            // Remove the spell from the spellsLearned set
+	            unmarkLearned(spell);
 	        }
 	    } else {
 	        // If the spell has not been learned, add a message indicating that the spell is not learned
-	        output.add("   " + spell + " is not learned");
+	        output.add("   " + spellNames.name(spell) + " is not learned");
 	    }
 	}
 
 
 
    public void DropHelp(int position, Vector<String> output) {
-	    // Retrieve the list of spells for the given position in prerequisiteSpells
-	    LinkedList<String> spells = prerequisiteSpells.get(position);
+	    DropHelp(position, (OutputSink) output::add);
+	}
 
-	    // Iterate through the spells list in reverse order, starting from the last spell
-	    for (int index = spells.size() - 1; index > 0; index--) {
-	        // Get the current spell from the spells list
-	        String currentSpell = spells.get(index);
 
-	        // Check if the current spell is not a prerequisite for other learned spells
-	        // and if it is currently marked as learned in spellsLearned
-	        if (!isPre(currentSpell) && spellsLearned.getOrDefault(currentSpell, false)) {
-	            // Add a message to the output indicating that the current spell is being forgotten
-	            output.add("   Forgetting " + currentSpell);
-	            // Remove the current spell from the spellsLearned map
-	            spellsLearned.remove(currentSpell);
+
+   public void DropHelp(int position, OutputSink output) {
+	    refresh();
+	    dropPrereqs(position, output);
+	    publish();
+	}
+
+
+
+   private void dropPrereqs(int position, OutputSink output) {
+	    // Walk the prerequisite tree with an explicit stack, visiting each list in reverse order
+	    traversalNodes += new PrereqTraversal(prerequisiteSpells.size()) {
+	        int edgeCount(int node) {
+	            return prerequisiteSpells.prereqCount(node);
 	        }
 
-	        // Check if the current spell itself has prerequisites
-	        int prereqIndex = hasPrereq(currentSpell);
-	        if (prereqIndex != -1) {
-	            // If the current spell has prerequisites, recursively call DropHelp to forget them
-	            DropHelp(prereqIndex, output);
+	        boolean reverseOrder() {
+	            return true;
 	        }
-	    }
+
+	        int beforeEdge(int node, int edge) {
+	            // Get the current spell from the prerequisites line
+	            int currentSpell = prerequisiteSpells.prereq(node, edge);
+
+	            // Check if the current spell is not a prerequisite for other learned spells
+	            // and if it was learned implicitly
+	            if (!needed(currentSpell) && spellsLearned.isImplicit(currentSpell)) {
+	                // Add a message to the output indicating that the current spell is being forgotten
+	                output.add("   Forgetting " + spellNames.name(currentSpell));
+	                // Remove the current spell from the spellsLearned set
+	                unmarkLearned(currentSpell);
+	            }
+
+	            // A spell that is still learned keeps its whole prerequisite tree learned and
+	            // needed, so only descend below spells that were just forgotten (or not learned)
+	            if (!closureBroken && spellsLearned.contains(currentSpell)) {
+	                return -1;
+	            }
+	            // If the current spell itself has prerequisites, descend to forget them
+	            return firstLine(currentSpell);
+	        }
+	    }.run(position);
 	}
 
 
 
-   public Vector<String> execNSpecswCheck(Vector<String> specs, Integer N) {
-	    // Initialize the output vector to store results and a counter for processed commands
-	    Vector<String> output = new Vector<>();
-	    int processedCount = 0;
-	    boolean cycleDetected = false;
-
-	    // Iterate through each specification provided in the specs vector
-	    for (String spec : specs) {
-	        // Check if the number of processed specifications has reached the limit N
-	        if (processedCount >= N) {
-	            // If the limit is reached, return the current output vector
-	            return output;
-	        }
-
-	        // Add the current specification to the output vector
-	        output.add(spec);
-	        // Increment the count of processed specifications
-	        processedCount++;
-
-	        // Split the current specification string into arguments using space as the delimiter
-	        String[] arguments = spec.split(" ");
-	        // The first argument is the command (e.g., PREREQ, LEARN, FORGET, ENUM)
-	        String command = arguments[0];
-
-	        // Process the command using a switch statement
-	        switch (command) {
-	            case "PREREQ":
-	                // If the command is PREREQ, call the preReqadd method to add the prerequisite spells
-	                preReqadd(arguments);
-	                // Check for cycles if there are at least two prerequisite lists
-	                if (prerequisiteSpells.size() >= 2 && checkForCycle()) {
-	                    // If a cycle is detected, add a message to the output and set cycleDetected to true
-	                    output.add("   Found cycle in prereqs");
-	                    cycleDetected = true;
-	                }
-	                break;
+   // Lists every spell the spell ultimately requires, that is every spell LEARN would
+   // learn along with it, one "   name" line each in the order the names were first
+   // seen. Nothing is learned; the answer comes from the reachability index of the graph.
+   public void requires(String spell, OutputSink output) {
+	    refresh();
+	    requires(spellNames.lookup(spell), spell, output);
+	}
 
-	            case "LEARN":
-	                // If no cycle is detected, call the learnExp method to learn the specified spell
-	                if (!cycleDetected) {
-	                    learnExp(arguments[1], output);
-	                }
-	                break;
 
-	            case "FORGET":
-	                // If no cycle is detected, call the forget method to forget the specified spell
-	                if (!cycleDetected) {
-	                    forget(arguments[1], output);
-	                }
-	                break;
 
-	            case "ENUM":
-	                // If no cycle is detected, enumerate all learned spells
-	                if (!cycleDetected) {
-	                    for (Entry<String, Boolean> entry : spellsLearned.entrySet()) {
-	                        output.add("   " + entry.getKey());
-	                    }
-	                }
-	                break;
+   private void requires(int spell, String name, OutputSink output) {
+	    int[] count = { 0 };
+	    if (spell != -1) {
+	        graph.reachability().forEachRequired(prerequisiteSpells, spell, required -> {
+	            output.add("   " + spellNames.name(required));
+	            count[0]++;
+	        });
+	    }
+	    if (count[0] == 0) {
+	        output.add("   " + name + " requires nothing");
+	    }
+	}
 
-	            default:
-	                // Handle unexpected commands or end of specifications
-	                break;
-	        }
+
+
+   // Lists every learned spell that ultimately requires the spell, one "   name" line
+   // each in the order the names were first seen
+   public void dependents(String spell, OutputSink output) {
+	    refresh();
+	    dependents(graph, prerequisiteSpells, spellsLearned, spellNames.lookup(spell), spell, output);
+	}
+
+
+
+   // DEPENDENTS over the given learned spells and lines, also used by LearnedView
+   static void dependents(PrereqGraph graph, PrereqGraph.View lines, LearnedSpells learned, int spell, String name,
+                          OutputSink output) {
+	    SpellTable spellNames = graph.spells();
+	    int[] count = { 0 };
+	    if (spell != -1) {
+	        graph.reachability().forEachDependent(lines, spell, learned, dependent -> {
+	            output.add("   " + spellNames.name(dependent));
+	            count[0]++;
+	        });
+	    }
+	    if (count[0] == 0) {
+	        output.add("   No learned spell depends on " + name);
 	    }
+	}
+
 
-	    // Return the output vector after processing all specifications or reaching the limit N
+
+   public Vector<String> execNSpecswCheck(Vector<String> specs, Integer N) {
+	    Vector<String> output = new Vector<>();
+	    execSpecs(specs.iterator(), N, CycleCheck.DETECT, output::add);
 	    return output;
 	}
 
 
 
    public boolean checkForCycle() {
+	    refresh();
+	    if (cyclePool != null) {
+	        return checkForCycleOnPool();
+	    }
 	    // Get the number of spells in the prerequisiteSpells list
 	    int numSpells = prerequisiteSpells.size();
 	    // Initialize visited and recStack arrays to keep track of visited nodes and the recursion stack
@@ -361,361 +1117,384 @@ public class BuildSpellbook {
 	}
 
 	private boolean UtilCycleChecker(int spellIndex, boolean[] visited, boolean[] recStack) {
-	    // Mark the current node as visited and add it to the recursion stack
-	    visited[spellIndex] = true;
-	    recStack[spellIndex] = true;
-
-	    // Retrieve the list of prerequisites for the current spell
-	    LinkedList<String> prerequisites = prerequisiteSpells.get(spellIndex);
-	    // Iterate through the prerequisites in reverse order
-	    for (int i = prerequisites.size() - 1; i > 0; i--) {
-	        // Get the current prerequisite spell and its index in the prerequisiteSpells list
-	        String prereqSpell = prerequisites.get(i);
-	        int prereqIndex = hasPrereq(prereqSpell);
-
-	        // If the prerequisite spell is not visited and a cycle is detected, return true
-	        if (prereqIndex != -1 && !visited[prereqIndex] && UtilCycleChecker(prereqIndex, visited, recStack)) {
+	    PrereqTraversal checker = new PrereqTraversal(prerequisiteSpells.size()) {
+	        int edgeCount(int node) {
+	            return prerequisiteSpells.prereqCount(node);
+	        }
+
+	        boolean reverseOrder() {
 	            return true;
-	        // If the prerequisite spell is already in the recursion stack, return true indicating a cycle
-	        } else if (prereqIndex != -1 && recStack[prereqIndex]) {
+	        }
+
+	        void enter(int node) {
+	            // Mark the current node as visited and add it to the recursion stack
+	            visited[node] = true;
+	            recStack[node] = true;
+	        }
+
+	        int beforeEdge(int node, int edge) {
+	            // Get the current prerequisite spell and its index in the prerequisiteSpells list
+	            int prereqSpell = prerequisiteSpells.prereq(node, edge);
+	            int prereqIndex = firstLine(prereqSpell);
+
+	            // If the prerequisite spell is not visited, descend into it
+	            if (prereqIndex != -1 && !visited[prereqIndex]) {
+	                return prereqIndex;
+	            }
+	            // If the prerequisite spell is already in the recursion stack, stop and report a cycle
+	            if (prereqIndex != -1 && recStack[prereqIndex]) {
+	                stop();
+	            }
+	            return -1;
+	        }
+
+	        void exit(int node) {
+	            // Remove the current node from the recursion stack
+	            recStack[node] = false;
+	        }
+	    };
+	    checker.run(spellIndex);
+
+	    // The walk only stops early when a cycle was found
+	    return checker.isStopped();
+	}
+
+
+
+	// checkForCycle from the components of the graph. The walks start at every position but
+	// the first, and a cycle is found once a walk reaches it, so the answer is whether there is
+	// a cycle other than a lone line at position 0 that requires its own spell and that no
+	// other line leads to.
+	private boolean checkForCycleOnPool() {
+	    int[][] edges = prereqEdges();
+	    CycleSearch search = new CycleSearch(edges, cyclePool);
+	    for (int position = 1; position < edges.length; position++) {
+	        if (search.onCycle(position)) {
 	            return true;
 	        }
 	    }
-
-	    // Remove the current node from the recursion stack
-	    recStack[spellIndex] = false;
-	    // Return false if no cycle is detected
+	    if (edges.length == 0 || !search.onCycle(0)) {
+	        return false;
+	    }
+	    for (int position = 1; position < edges.length; position++) {
+	        for (int next : edges[position]) {
+	            if (next == 0) {
+	                return true;
+	            }
+	        }
+	    }
 	    return false;
 	}
 
-   
 
-	public Vector<String> execNSpecswCheckRecLarge(Vector<String> specs, Integer N) {
-	    // Initialize the output vector to store results and a counter for processed commands
+
+   public Vector<String> execNSpecswCheckRecLarge(Vector<String> specs, Integer N) {
 	    Vector<String> output = new Vector<>();
-	    int processedCount = 0;
-	    boolean cycleDetected = false;
-
-	    // Iterate through each specification provided in the specs vector
-	    for (String spec : specs) {
-	        // Check if the number of processed specifications has reached the limit N
-	        if (processedCount >= N) {
-	            // If the limit is reached, return the current output vector
-	            return output;
-	        }
-
-	        // Add the current specification to the output vector
-	        output.add(spec);
-	        // Increment the count of processed specifications
-	        processedCount++;
-
-	        // Split the current specification string into arguments using space as the delimiter
-	        String[] arguments = spec.split(" ");
-	        // The first argument is the command (e.g., PREREQ, LEARN, FORGET, ENUM)
-	        String command = arguments[0];
-
-	        // Process the command using a switch statement
-	        switch (command) {
-	            case "PREREQ":
-	                // If the command is PREREQ, call the preReqadd method to add the prerequisite spells
-	                preReqadd(arguments);
-	                // Check for cycles if there are at least two prerequisite lists
-	                if (prerequisiteSpells.size() >= 2) {
-	                    // Find the longest cycle in the prerequisite spells
-	                    longestCycle = LongestCSearcher();
-	                    if (longestCycle != null) {
-	                        // If a cycle is detected, identify the long cycle and suggest forgetting it
-	                        String preReqWithShortCycle = identifyLong();
-	                        output.add("   Found cycle in prereqs");
-	                        if (!preReqWithShortCycle.isEmpty()) {
-	                            output.add("   Suggest forgetting PREREQ" + preReqWithShortCycle);
-	                        }
-	                        // Set cycleDetected to true to stop further processing
-	                        cycleDetected = true;
-	                    }
-	                }
-	                break;
+	    execSpecs(specs.iterator(), N, CycleCheck.LONGEST, output::add);
+	    return output;
+	}
 
-	            case "LEARN":
-	                // If no cycle is detected, call the learnExp method to learn the specified spell
-	                if (!cycleDetected) {
-	                    learnExp(arguments[1], output);
-	                }
-	                break;
 
-	            case "FORGET":
-	                // If no cycle is detected, call the forget method to forget the specified spell
-	                if (!cycleDetected) {
-	                    forget(arguments[1], output);
-	                }
-	                break;
 
-	            case "ENUM":
-	                // If no cycle is detected, enumerate all learned spells
-	                if (!cycleDetected) {
-	                    for (Entry<String, Boolean> entry : spellsLearned.entrySet()) {
-	                        output.add("   " + entry.getKey());
-	                    }
-	                }
-	                break;
+   public String identifyLong() {
+	    refresh();
+	    StringBuilder result = new StringBuilder();
 
-	            default:
-	                // Handle unexpected command or end of specifications
-	                break;
+	    if (longestCycle != null) {
+	        // Every line of the first spell on the cycle, in the order they were added
+	        int mainSpell = spellNames.lookup(longestCycle.get(0));
+	        for (int position = firstLine(mainSpell); position != -1; position = prerequisiteSpells.nextLine(position)) {
+	            result.append(" ").append(longestCycle.get(0));
+	            for (int index = 0; index < prerequisiteSpells.prereqCount(position); index++) {
+	                result.append(" ").append(spellNames.name(prerequisiteSpells.prereq(position, index)));
+	            }
 	        }
 	    }
 
-	    // Return the output vector after processing all specifications or reaching the limit N
+	    return result.toString();
+	}
+
+
+
+   // Limits the work LongestCSearcher may do for one search, in positions visited and in
+   // milliseconds. Once either runs out the longest cycle found so far is used and
+   // isLongestCycleOptimal returns false. Both are unlimited by default.
+   public void setLongestCycleBudget(long maxNodes, long maxMillis) {
+	    longestSearchNodes = maxNodes;
+	    longestSearchNanos = maxMillis >= Long.MAX_VALUE / 1_000_000 ? Long.MAX_VALUE : maxMillis * 1_000_000;
+	}
+
+
+
+   // True if the last LongestCSearcher call searched everything it had to
+   public boolean isLongestCycleOptimal() {
+	    return longestCycleOptimal;
+	}
+
+
+
+   public LinkedList<String> LongestCSearcher() {
+	    refresh();
+	    // Initialize the longest cycle as null
+	    longestCycle = null;
+
+	    // Split the graph into strongly connected components, only they can hold a cycle
+	    CycleSearch search = new CycleSearch(prereqEdges(), cyclePool);
+	    // Try each spell in reverse order, like the original search did
+	    int[] starts = new int[prerequisiteSpells.size()];
+	    for (int spellIndex = 0; spellIndex < starts.length; spellIndex++) {
+	        starts[spellIndex] = starts.length - 1 - spellIndex;
+	    }
+
+	    // Stop at the budget, if there is one
+	    CycleSearch.Result result = search.longestCycle(starts, longestSearchNodes, longestSearchNanos);
+	    longestCycleOptimal = result.optimal;
+
+	    // Return the longest cycle found as the main spells along it
+	    return result.cycle == null ? null : cycleNames(result.cycle);
+	}
+
+
+
+   public String TheShort() {
+	    refresh();
+	    // Initialize a StringBuilder to build the result string
+	    StringBuilder result = new StringBuilder();
+
+	    // Check if the shortestCycle is not null
+	    if (shortestCycle != null) {
+	        // Iterate through each line whose main spell is the first spell in the shortestCycle
+	        int mainSpell = spellNames.lookup(shortestCycle.get(0));
+	        for (int position = firstLine(mainSpell); position != -1; position = prerequisiteSpells.nextLine(position)) {
+	            // Append each spell on the line to the result string, prefixed with a space
+	            result.append(" ").append(shortestCycle.get(0));
+	            for (int index = 0; index < prerequisiteSpells.prereqCount(position); index++) {
+	                result.append(" ").append(spellNames.name(prerequisiteSpells.prereq(position, index)));
+	            }
+	        }
+	    }
+
+	    // Convert the StringBuilder to a string and return it
+	    return result.toString();
+	}
+
+
+
+   public Vector<String> execNSpecswCheckRecSmall(Vector<String> specs, Integer N) {
+	    Vector<String> output = new Vector<>();
+	    execSpecs(specs.iterator(), N, CycleCheck.SHORTEST, output::add);
 	    return output;
 	}
 
 
 
-public String identifyLong() {
-    StringBuilder result = new StringBuilder();
+   public LinkedList<String> ShortesCycleSearcher() {
+	    refresh();
+	    // Initialize the shortestCycle variable to null
+	    shortestCycle = null;
+	    // Split the graph into strongly connected components, only they can hold a cycle
+	    CycleSearch search = new CycleSearch(prereqEdges(), cyclePool);
+	    // Variable to store the shortest cycle found, as positions in prerequisiteSpells
+	    int[] shortest = null;
+
+	    // Iterate over each spell in reverse order; a later spell only replaces the cycle found
+	    // so far if its own shortest cycle is strictly shorter, so ties go to the last rule
+	    for (int spellIndex = prerequisiteSpells.size() - 1; spellIndex >= 0; spellIndex--) {
+	        int limit = shortest == null ? Integer.MAX_VALUE : shortest.length;
+	        int[] cycle = search.shortestCycleThrough(spellIndex, limit);
+	        if (cycle != null) {
+	            shortest = cycle;
+	            // Nothing is shorter than a spell that requires itself
+	            if (shortest.length == 1) {
+	                break;
+	            }
+	        }
+	    }
 
-    if (longestCycle != null) {
-        for (LinkedList<String> prereqList : prerequisiteSpells) {
-            if (prereqList.get(0).equals(longestCycle.get(0))) {
-                for (String spell : prereqList) {
-                    result.append(" ").append(spell);
-                }
-            }
-        }
-    }
+	    // Return the shortest cycle found as the main spells along it
+	    return shortest == null ? null : cycleNames(shortest);
+	}
 
-    return result.toString();
-}
 
 
-public LinkedList<String> LongestCSearcher() {
-    // Initialize the longest cycle as null
-    longestCycle = null;
-
-    // Array to keep track of visited nodes
-    boolean[] visitedNodes = new boolean[prerequisiteSpells.size()];
-    // List to keep track of the current path during traversal
-    LinkedList<String> currentTraversalPath = new LinkedList<>();
-    // Variable to store the longest cycle found
-    LinkedList<String> detectedLongestCycle = null;
-
-    // Iterate over each spell in reverse order
-    for (int spellIndex = prerequisiteSpells.size() - 1; spellIndex > 0; spellIndex--) {
-        // If the current spell has not been visited
-        if (!visitedNodes[spellIndex]) {
-            // Call the helper function to find the longest cycle starting from this spell
-            LongestCycle(spellIndex, visitedNodes, currentTraversalPath);
-            // Update the detectedLongestCycle if a longer cycle is found
-            if (detectedLongestCycle == null || (longestCycle != null && longestCycle.size() > detectedLongestCycle.size())) {
-                detectedLongestCycle = longestCycle;
-            }
-        }
-    }
-
-    // Return the longest cycle found
-    return detectedLongestCycle;
-}
+   // Snapshot of the prerequisite graph for CycleSearch: for every position the positions its
+   // prerequisites resolve to, in the reverse order the recursive searches walked them
+   private int[][] prereqEdges() {
+	    int[][] edges = new int[prerequisiteSpells.size()][];
+	    if (cyclePool == null) {
+	        for (int position = 0; position < edges.length; position++) {
+	            edges[position] = prereqEdges(position);
+	        }
+	    } else {
+	        // Every position is read from the same immutable view, so they can be done in parallel
+	        cyclePool.submit(() -> IntStream.range(0, edges.length).parallel()
+	                .forEach(position -> edges[position] = prereqEdges(position))).join();
+	    }
+	    return edges;
+	}
 
 
-private void LongestCycle(int v, boolean[] visited, LinkedList<String> currentPath) {
-    // Mark the current node as visited and add it to the current path
-    visited[v] = true;
-    currentPath.addLast(prerequisiteSpells.get(v).get(0));
-    
-    // Iterate through the prerequisites of the current spell in reverse order
-    for (int i = prerequisiteSpells.get(v).size() - 1; i > 0; i--) {
-        int index = hasPrereq(prerequisiteSpells.get(v).get(i));
-        
-        // If the prerequisite has not been visited, recursively call LongestCycle
-        if (index != -1 && !visited[index]) {
-            LongestCycle(index, visited, currentPath);
-        }
-        // Check if the current path forms a cycle
-        else if (currentPath.contains(prerequisiteSpells.get(v).get(i)) 
-                 && prerequisiteSpells.get(v).get(i).equals(currentPath.getFirst())) {
-            int cycleStartIndex = currentPath.indexOf(prerequisiteSpells.get(v).get(i));
-            LinkedList<String> cycle = new LinkedList<>(currentPath.subList(cycleStartIndex, currentPath.size()));
-            
-            // Update the longest cycle if the found cycle is longer
-            if (longestCycle == null || (cycle.size() > longestCycle.size() && cycle.size() > 2)) {
-                longestCycle = cycle;
-            }
-        }
-    }
-    
-    // Backtrack: remove the last spell from the current path and mark the node as unvisited
-    currentPath.removeLast();
-    visited[v] = false;
-}
 
-   
-   
-public String TheShort() {
-    // Initialize a StringBuilder to build the result string
-    StringBuilder result = new StringBuilder();
-
-    // Check if the shortestCycle is not null
-    if (shortestCycle != null) {
-        // Iterate through each list of prerequisite spells in prerequisiteSpells
-        for (int spellIndex = 0; spellIndex < prerequisiteSpells.size(); spellIndex++) {
-            // Check if the first spell in the current prereqList matches the first spell in the shortestCycle
-            if (prerequisiteSpells.get(spellIndex).get(0).equals(shortestCycle.get(0))) {
-                // If a match is found, iterate through all spells in the prereqList
-                for (String spell : prerequisiteSpells.get(spellIndex)) {
-                    // Append each spell to the result string, prefixed with a space
-                    result.append(" ").append(spell);
-                }
-            }
-        }
-    }
-
-    // Convert the StringBuilder to a string and return it
-    return result.toString();
-}
+   private int[] prereqEdges(int position) {
+	    int[] targets = new int[prerequisiteSpells.prereqCount(position)];
+	    int count = 0;
+	    for (int i = targets.length - 1; i >= 0; i--) {
+	        int target = firstLine(prerequisiteSpells.prereq(position, i));
+	        if (target != -1) {
+	            targets[count++] = target;
+	        }
+	    }
+	    return count == targets.length ? targets : Arrays.copyOf(targets, count);
+	}
 
 
-public Vector<String> execNSpecswCheckRecSmall(Vector<String> specs, Integer N) {
-    // Initialize the output vector to store results and a counter for processed commands
-    Vector<String> output = new Vector<>();
-    int size = 0;
-    boolean cycleDetected = false;
-
-    // Iterate through each specification provided in the specs vector
-    for (String line : specs) {
-        // Check if the number of processed specifications has reached the limit N
-        if (size >= N) {
-            break;
-        }
-
-        // Add the current specification to the output vector
-        output.add(line);
-        // Increment the count of processed specifications
-        size++;
-
-        // Split the current specification string into arguments using space as the delimiter
-        String[] args = line.split(" ");
-        // The first argument is the command (e.g., PREREQ, LEARN, FORGET, ENUM)
-        String command = args[0];
-
-        // Process the command using a switch statement
-        if (command.equals("PREREQ")) {
-            // If the command is PREREQ, call the preReqadd method to add the prerequisite spells
-            preReqadd(args);
-            // Check for cycles if there are at least two prerequisite lists
-            if (prerequisiteSpells.size() >= 2) {
-                // Find the shortest cycle in the prerequisite spells
-                shortestCycle = ShortesCycleSearcher();
-                if (shortestCycle != null) {
-                    // If a cycle is detected, identify the short cycle and suggest forgetting it
-                    String preReqWithSmallCycle = TheShort();
-                    output.add("   Found cycle in prereqs");
-                    if (!preReqWithSmallCycle.isEmpty()) {
-                        output.add("   Suggest forgetting PREREQ" + preReqWithSmallCycle);
-                    }
-                    // Set cycleDetected to true to stop further processing
-                    cycleDetected = true;
-                }
-            }
-        } else if (!cycleDetected) {
-            switch (command) {
-                case "LEARN":
-                    // If no cycle is detected, call the learnExp method to learn the specified spell
-                    learnExp(args[1], output);
-                    break;
-                case "FORGET":
-                    // If no cycle is detected, call the forget method to forget the specified spell
-                    forget(args[1], output);
-                    break;
-                case "ENUM":
-                    // If no cycle is detected, enumerate all learned spells
-                    for (Entry<String, Boolean> entry : spellsLearned.entrySet()) {
-                        output.add("   " + entry.getKey());
-                    }
-                    break;
-                default:
-                    // Handle unexpected command or end of specifications
-                    break;
-            }
-        }
-    }
-
-    // Return the output vector after processing all specifications or reaching the limit N
-    return output;
-}
 
+   private LinkedList<String> cycleNames(int[] positions) {
+	    LinkedList<String> names = new LinkedList<>();
+	    for (int position : positions) {
+	        names.add(spellNames.name(prerequisiteSpells.main(position)));
+	    }
+	    return names;
+	}
 
 
 
-public LinkedList<String> ShortesCycleSearcher() {
-    // Initialize the variable to store the shortest cycle found
-    LinkedList<String> shortest = null;
-    // Initialize the shortestCycle variable to null
-    shortestCycle = null;
-    // Array to keep track of visited nodes
-    boolean[] visitedNodes = new boolean[prerequisiteSpells.size()];
-    // List to keep track of the current path during traversal
-    LinkedList<String> currentPath = new LinkedList<>();
-
-    // Iterate over each spell in reverse order
-    for (int spellIndex = prerequisiteSpells.size() - 1; spellIndex > 0; spellIndex--) {
-        // If the current spell has not been visited
-        if (!visitedNodes[spellIndex]) {
-            // Call the helper function to find the shortest cycle starting from this spell
-            _ShortestCycle_Utility(spellIndex, visitedNodes, currentPath);
-            // Update the shortest cycle if a shorter cycle is found
-            switch (spellIndex) {
-                default:
-                    if (shortest == null || (shortestCycle != null && shortestCycle.size() < shortest.size())) {
-                        shortest = shortestCycle;
-                    }
-                    break;
-            }
-        }
-    }
-
-    // Return the shortest cycle found
-    return shortest;
-}
+   // From now on appends every PREREQ, REPLACE, REMOVE, LEARN and FORGET run on this
+   // spellbook to the log before it is applied. Lines other sessions add to a shared graph
+   // are not logged here.
+   public void openLog(Path logFile) throws IOException {
+	    closeLog();
+	    commandLog = new CommandLog(logFile);
+	}
 
 
 
-private void _ShortestCycle_Utility(int vertex, boolean[] visitedNodes, LinkedList<String> path) {
-    // Mark the current vertex as visited
-    visitedNodes[vertex] = true;
-    // Add the main spell at the current vertex to the current path
-    path.addLast(prerequisiteSpells.get(vertex).get(0));
-
-    // Iterate through the prerequisites of the current spell in reverse order
-    for (int i = prerequisiteSpells.get(vertex).size() - 1; i > 0; i--) {
-        // Get the index of the prerequisite spell
-        int prereqIndex = hasPrereq(prerequisiteSpells.get(vertex).get(i));
-
-        // If the prerequisite spell is valid and not yet visited, recurse
-        if (prereqIndex != -1 && !visitedNodes[prereqIndex]) {
-            _ShortestCycle_Utility(prereqIndex, visitedNodes, path);
-        } 
-        // Check if the current path forms a cycle with the starting spell
-        else if (path.contains(prerequisiteSpells.get(vertex).get(i)) && 
-                 prerequisiteSpells.get(vertex).get(i).equals(path.getFirst())) {
-            // Identify the starting index of the cycle in the current path
-            int cycleStart = path.indexOf(prerequisiteSpells.get(vertex).get(i));
-            // Extract the sublist that forms the current cycle
-            LinkedList<String> currentCycle = new LinkedList<>(path.subList(cycleStart, path.size()));
-
-            // Update the shortest cycle if the current cycle is shorter
-            if (shortestCycle == null || currentCycle.size() < shortestCycle.size()) {
-                shortestCycle = currentCycle;
-            }
-        }
-    }
-
-    // Backtrack: remove the last spell from the current path and mark the vertex as unvisited
-    path.removeLast();
-    visitedNodes[vertex] = false;
-}
+   public void closeLog() throws IOException {
+	    if (commandLog != null) {
+	        commandLog.close();
+	        commandLog = null;
+	    }
+	}
+
+
+
+   // Forces the logged commands to the disk
+   public void syncLog() throws IOException {
+	    if (commandLog != null) {
+	        commandLog.sync();
+	    }
+	}
+
+
+
+   // Writes the PREREQ lines and the learned spells to a binary snapshot, together with
+   // the length of the open log so a restore only replays the commands logged after it
+   public void checkpoint(Path snapshotFile) throws IOException {
+	    refresh();
+	    long logOffset = commandLog == null ? 0 : commandLog.size();
+	    SpellbookSnapshot.write(snapshotFile, prerequisiteSpells, spellsLearned, closureBroken, graph.isMerging(),
+	            logOffset);
+	}
+
+
+
+   // Rebuilds a spellbook from a snapshot and the commands logged after it, instead of
+   // replaying the whole spec. Either file may be missing; the log is left open so the
+   // restored spellbook keeps appending to it.
+   public static BuildSpellbook restore(Path snapshotFile, Path logFile) throws IOException {
+	    return restore(snapshotFile, logFile, false);
+	}
+
+
+
+   // Same as above for a spellbook that merges PREREQ rules, which a snapshot remembers
+   // but a log on its own does not
+   public static BuildSpellbook restore(Path snapshotFile, Path logFile, boolean mergePrereqs) throws IOException {
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.setMergePrereqs(mergePrereqs);
+	    long logOffset = 0;
+
+	    if (snapshotFile != null && Files.exists(snapshotFile)) {
+	        SpellbookSnapshot snapshot = SpellbookSnapshot.read(snapshotFile);
+	        book.setMergePrereqs(mergePrereqs || snapshot.merging);
+	        // The snapshot numbers its names itself, map them to ids of this spellbook
+	        int[] ids = new int[snapshot.names.length];
+	        for (int i = 0; i < ids.length; i++) {
+	            ids[i] = book.spellNames.id(snapshot.names[i]);
+	        }
+	        for (int[] line : snapshot.lines) {
+	            for (int i = 0; i < line.length; i++) {
+	                line[i] = ids[line[i]];
+	            }
+	            book.addPrereqLine(line, false);
+	        }
+	        // Learning in the saved order restores the ENUM order and the dependent counts
+	        for (int i = 0; i < snapshot.learned.length; i++) {
+	            book.markLearned(ids[snapshot.learned[i]], snapshot.implicit[i]);
+	        }
+	        book.closureBroken = snapshot.closureBroken;
+	        logOffset = snapshot.logOffset;
+	    }
+
+	    if (logFile != null) {
+	        if (Files.exists(logFile)) {
+	            SpecTokenizer tokens = new SpecTokenizer();
+	            CommandLog.replay(logFile, logOffset, spec -> book.replay(spec, tokens));
+	        }
+	        book.openLog(logFile);
+	    }
+	    return book;
+	}
+
+
+
+   // Applies a logged command again, its output was already produced the first time
+   private void replay(String spec, SpecTokenizer tokens) {
+	    OutputSink discard = line -> { };
+	    int opcode = tokens.reset(spec);
+	    switch (opcode) {
+	        case SpecTokenizer.PREREQ:
+	            preReqadd(tokens, false);
+	            break;
+	        case SpecTokenizer.REPLACE:
+	        case SpecTokenizer.REMOVE:
+	            if (isRewrite(opcode, tokens)) {
+	                rewritePrereqs(opcode, tokens, false);
+	            }
+	            break;
+	        case SpecTokenizer.LEARN:
+	            learn(tokens.id(1, spellNames), discard);
+	            break;
+	        case SpecTokenizer.FORGET:
+	            forget(tokens.id(1, spellNames), discard);
+	            break;
+	        default:
+	            break;
+	    }
+	}
+
+
+
+   private void log(String command, int spell) {
+	    if (commandLog != null) {
+	        log(command + " " + spellNames.name(spell));
+	    }
+	}
+
+
+
+   private void log(String spec) {
+	    if (commandLog == null) {
+	        return;
+	    }
+	    try {
+	        commandLog.append(spec);
+	    } catch (IOException e) {
+	        throw new UncheckedIOException(e);
+	    }
+	}
 
 
-   
 
    public Vector<String> readSpecsFromFile(String filePath) throws IOException {
 	    Vector<String> lines = new Vector<>();
@@ -732,26 +1511,26 @@ private void _ShortestCycle_Utility(int vertex, boolean[] visitedNodes, LinkedLi
 
 
    public Vector<String> readSolnFromFile(String fileName, Integer limit) throws IOException {
-	    // Create a BufferedReader to read from the specified file
-	    BufferedReader reader = new BufferedReader(new FileReader(fileName));
 	    String line;
 	    // Initialize a Vector to store the lines read from the file
 	    Vector<String> result = new Vector<>();
 	    int counter = 0;
 
-	    // Read lines from the file until the end of the file or the limit is reached
-	    while (((line = reader.readLine()) != null) && (counter <= limit)) {
-	        // Add the line to the result if it is within the limit or it starts with spaces
-	        if ((counter != limit) || line.startsWith("   ")) {
-	            result.add(line);
-	        }
-	        // Increment the counter if the line does not start with spaces
-	        if (!line.startsWith("   ")) {
-	            counter++;
+	    // Create a BufferedReader to read from the specified file, it is closed even if
+	    // reading fails
+	    try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+	        // Read lines from the file until the end of the file or the limit is reached
+	        while (((line = reader.readLine()) != null) && (counter <= limit)) {
+	            // Add the line to the result if it is within the limit or it starts with spaces
+	            if ((counter != limit) || line.startsWith("   ")) {
+	                result.add(line);
+	            }
+	            // Increment the counter if the line does not start with spaces
+	            if (!line.startsWith("   ")) {
+	                counter++;
+	            }
 	        }
 	    }
-	    // Close the BufferedReader to release resources
-	    reader.close();
 	    // Return the Vector containing the lines read from the file
 	    return result;
 	}
@@ -0,0 +1,112 @@
+
+package student;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Append-only log of the commands that changed a spellbook, one spec line per record in
+// the same text form execNSpecs reads. Together with a SpellbookSnapshot it lets a
+// spellbook restart from the snapshot plus the records written after it. Records are
+// written straight to the file so they survive the process; sync() also forces them to
+// the disk. A record without its newline was cut short by a crash and is dropped.
+class CommandLog implements Closeable {
+
+   // Receives each complete record while the log is replayed
+   interface Replayer {
+      void replay(String spec);
+   }
+
+   private final FileChannel        channel;
+
+   // Opens the log for appending, cutting off any torn record at its end
+   CommandLog(Path file) throws IOException {
+      channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      long end = completeLength(channel);
+      channel.truncate(end);
+      channel.position(end);
+   }
+
+   // Byte length of the log, a snapshot remembers it to know where its tail starts
+   public long size() throws IOException {
+	    return channel.position();
+	}
+
+   public void append(String spec) throws IOException {
+	    ByteBuffer record = StandardCharsets.UTF_8.encode(spec + "\n");
+	    while (record.hasRemaining()) {
+	        channel.write(record);
+	    }
+	}
+
+   public void sync() throws IOException {
+	    channel.force(false);
+	}
+
+   public void close() throws IOException {
+	    channel.close();
+	}
+
+
+
+   // Hands every complete record from the byte offset on to the replayer and returns the
+   // offset just past the last one. The offset comes from a snapshot; if the log does not
+   // reach that far or no record ends there, the log is not the one the snapshot was
+   // taken with.
+   static long replay(Path file, long offset, Replayer replayer) throws IOException {
+	    checkOffset(file, offset);
+	    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+	        in.skipNBytes(offset);
+	        ByteArrayOutputStream record = new ByteArrayOutputStream();
+	        long position = offset;
+	        int b;
+	        while ((b = in.read()) != -1) {
+	            if (b != '\n') {
+	                record.write(b);
+	                continue;
+	            }
+	            position += record.size() + 1;
+	            replayer.replay(record.toString(StandardCharsets.UTF_8));
+	            record.reset();
+	        }
+	        return position;
+	    }
+	}
+
+
+
+   private static void checkOffset(Path file, long offset) throws IOException {
+	    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+	        long size = channel.size();
+	        if (offset > size) {
+	            throw new IOException("Snapshot does not match the log " + file + ": it was taken at byte " + offset
+	                    + " but the log has only " + size + " bytes, the log was truncated or replaced");
+	        }
+	        ByteBuffer one = ByteBuffer.allocate(1);
+	        if (offset > 0 && (channel.read(one, offset - 1) != 1 || one.get(0) != '\n')) {
+	            throw new IOException("Snapshot does not match the log " + file + ": it was taken at byte " + offset
+	                    + " but no record of the log ends there, the log was replaced");
+	        }
+	    }
+	}
+
+
+
+   private static long completeLength(FileChannel channel) throws IOException {
+	    // Walk back from the end to the last newline
+	    long end = channel.size();
+	    ByteBuffer one = ByteBuffer.allocate(1);
+	    while (end > 0) {
+	        one.clear();
+	        channel.read(one, end - 1);
+	        if (one.get(0) == '\n') {
+	            break;
+	        }
+	        end--;
+	    }
+	    return end;
+	}
+
+}
@@ -0,0 +1,373 @@
+
+package student;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Cycle searches over a snapshot of the prerequisite graph. Nodes are PREREQ line
+// positions and edges[p] lists the positions the prerequisites on line p resolve to.
+// Every search first splits the graph into strongly connected components, since a
+// cycle never leaves the component it starts in, and then only looks inside the
+// components that contain a cycle.
+class CycleSearch {
+
+   private final int[][]            edges;
+   private int[]                    component;
+   private int[]                    componentSize;
+   private boolean[]                selfLoop;
+
+   CycleSearch(int[][] edges) {
+      this(edges, null);
+   }
+
+   // With a pool the components are found by ParallelComponents on it, without one by
+   // Tarjan's algorithm on this thread. Both find the same components, so every search
+   // below gives the same answer either way.
+   CycleSearch(int[][] edges, ForkJoinPool pool) {
+      this.edges = edges;
+      if (pool == null) {
+         findComponents();
+      } else {
+         ParallelComponents components = ParallelComponents.find(edges, pool);
+         component = components.component;
+         componentSize = components.componentSize;
+         selfLoop = components.selfLoop;
+      }
+   }
+
+   // Component number of a position, positions in one component share it
+   public int componentOf(int position) {
+	    return component[position];
+	}
+
+   public int componentSize(int position) {
+	    return componentSize[component[position]];
+	}
+
+   // True if the position lies on some cycle
+   public boolean onCycle(int position) {
+	    return componentSize(position) > 1 || selfLoop[position];
+	}
+
+
+
+   // Returns the positions on a shortest cycle through start, beginning with start, or
+   // null if start is on no cycle. Cycles of length limit or more are not reported.
+   // Breadth-first search inside the component of start, O(V + E) per call.
+   public int[] shortestCycleThrough(int start, int limit) {
+	    if (!onCycle(start)) {
+	        return null;
+	    }
+	    if (selfLoop[start]) {
+	        return limit > 1 ? new int[] { start } : null;
+	    }
+
+	    int home = component[start];
+	    int[] parent = new int[edges.length];
+	    int[] depth = new int[edges.length];
+	    Arrays.fill(depth, -1);
+	    int[] queue = new int[componentSize[home]];
+	    int head = 0;
+	    int tail = 0;
+	    queue[tail++] = start;
+	    depth[start] = 0;
+
+	    while (head < tail) {
+	        int node = queue[head++];
+	        // A cycle closed from here has depth + 1 positions, stop once that cannot win
+	        if (depth[node] + 1 >= limit) {
+	            break;
+	        }
+	        for (int next : edges[node]) {
+	            // The edge back to the start closes the cycle
+	            if (next == start) {
+	                int[] cycle = new int[depth[node] + 1];
+	                for (int at = node, i = depth[node]; i >= 0; at = parent[at], i--) {
+	                    cycle[i] = at;
+	                }
+	                return cycle;
+	            }
+	            if (component[next] == home && depth[next] == -1) {
+	                depth[next] = depth[node] + 1;
+	                parent[next] = node;
+	                queue[tail++] = next;
+	            }
+	        }
+	    }
+	    return null;
+	}
+
+
+
+   // The positions of every component that contains a cycle, one array per component in
+   // ascending order, the components ordered by their first position
+   public List<int[]> cyclicComponents() {
+	    int n = edges.length;
+	    // Count the positions per component, then drop every position into its bucket
+	    int[] start = new int[n + 1];
+	    for (int position = 0; position < n; position++) {
+	        start[component[position] + 1]++;
+	    }
+	    for (int c = 0; c < n; c++) {
+	        start[c + 1] += start[c];
+	    }
+	    int[] members = new int[n];
+	    int[] fill = Arrays.copyOf(start, n);
+	    for (int position = 0; position < n; position++) {
+	        members[fill[component[position]]++] = position;
+	    }
+
+	    List<int[]> cyclic = new ArrayList<>();
+	    boolean[] listed = new boolean[Math.max(n, 1)];
+	    for (int position = 0; position < n; position++) {
+	        int c = component[position];
+	        if (!listed[c] && onCycle(position)) {
+	            listed[c] = true;
+	            cyclic.add(Arrays.copyOfRange(members, start[c], start[c + 1]));
+	        }
+	    }
+	    return cyclic;
+	}
+
+
+
+   // The position of the line that closed the first cycle among the given positions of one
+   // component, that is the smallest p for which the lines up to p already hold a cycle. An
+   // edge between two lines is there from the time the later of them was added, so the
+   // answer is found by a binary search over the positions with a topological sort of the
+   // lines up to the candidate as the test. O((V + E) log V) for the component.
+   public int closingPosition(int[] members) {
+	    int low = 0;
+	    int high = members.length - 1;
+	    while (low < high) {
+	        int middle = (low + high) >>> 1;
+	        if (hasCycle(members, middle + 1)) {
+	            high = middle;
+	        } else {
+	            low = middle + 1;
+	        }
+	    }
+	    return members[low];
+	}
+
+
+
+   // closingPosition of every component in the list, with a pool the components are
+   // searched side by side on it
+   public int[] closingPositions(List<int[]> components, ForkJoinPool pool) {
+	    int[] closed = new int[components.size()];
+	    if (pool == null) {
+	        for (int i = 0; i < closed.length; i++) {
+	            closed[i] = closingPosition(components.get(i));
+	        }
+	    } else {
+	        pool.submit(() -> IntStream.range(0, closed.length).parallel()
+	                .forEach(i -> closed[i] = closingPosition(components.get(i)))).join();
+	    }
+	    return closed;
+	}
+
+
+
+   // True if the lines members[0, count) of one component hold a cycle, by Kahn's algorithm
+   private boolean hasCycle(int[] members, int count) {
+	    int home = component[members[0]];
+	    int last = members[count - 1];
+
+	    int[] inDegree = new int[count];
+	    for (int i = 0; i < count; i++) {
+	        for (int next : edges[members[i]]) {
+	            if (component[next] == home && next <= last) {
+	                inDegree[Arrays.binarySearch(members, 0, count, next)]++;
+	            }
+	        }
+	    }
+	    int[] queue = new int[count];
+	    int tail = 0;
+	    for (int i = 0; i < count; i++) {
+	        if (inDegree[i] == 0) {
+	            queue[tail++] = i;
+	        }
+	    }
+	    for (int head = 0; head < tail; head++) {
+	        for (int next : edges[members[queue[head]]]) {
+	            if (component[next] == home && next <= last) {
+	                // Members are sorted, so a position's index is found by binary search
+	                int index = Arrays.binarySearch(members, 0, count, next);
+	                if (--inDegree[index] == 0) {
+	                    queue[tail++] = index;
+	                }
+	            }
+	        }
+	    }
+	    // Lines that never ran out of incoming edges lie on or behind a cycle
+	    return tail < count;
+	}
+
+
+
+   // Outcome of a budgeted search: the best cycle found and whether it is proven to be best
+   static class Result {
+      int[]   cycle;
+      boolean optimal;
+   }
+
+
+
+   // Searches for a longest cycle, trying the start positions in the given order. As in the
+   // original backtracking search the first cycle found is kept and only replaced by a
+   // strictly longer one of more than two spells, so ties go to the earliest start. The
+   // problem is NP-hard, so the search stops after visiting maxNodes positions or after
+   // maxNanos, whichever comes first (Long.MAX_VALUE means no limit); the result then holds
+   // the best cycle seen so far and is not marked optimal.
+   public Result longestCycle(int[] starts, long maxNodes, long maxNanos) {
+	    Result result = new Result();
+	    result.optimal = true;
+	    long deadline = maxNanos == Long.MAX_VALUE ? 0 : System.nanoTime() + maxNanos;
+
+	    // No cycle can be longer than the largest component
+	    int largest = 0;
+	    for (int position = 0; position < edges.length; position++) {
+	        if (onCycle(position)) {
+	            largest = Math.max(largest, componentSize(position));
+	        }
+	    }
+
+	    long[] visited = { 0 };
+	    for (int start : starts) {
+	        if (!onCycle(start)) {
+	            continue;
+	        }
+	        // A component no larger than the best cycle cannot hold a strictly longer one
+	        if (result.cycle != null && (componentSize(start) <= result.cycle.length || result.cycle.length >= largest)) {
+	            continue;
+	        }
+	        if (!searchFrom(start, result, largest, visited, maxNodes, deadline)) {
+	            result.optimal = false;
+	            break;
+	        }
+	    }
+	    return result;
+	}
+
+
+
+   // Backtracks over the simple paths from start inside its component, returns false if the
+   // budget ran out. The walk ends early once a cycle as long as the largest component is found.
+   private boolean searchFrom(int start, Result result, int largest, long[] visited, long maxNodes, long deadline) {
+	    int home = component[start];
+	    int[] path = new int[componentSize[home]];
+	    int[] length = { 0 };
+	    boolean[] exhausted = { false };
+
+	    PrereqTraversal search = new PrereqTraversal(edges.length) {
+	        int edgeCount(int node) {
+	            return edges[node].length;
+	        }
+
+	        void enter(int node) {
+	            path[length[0]++] = node;
+	            // Check the budget every so often, the clock is comparatively expensive
+	            visited[0]++;
+	            if (visited[0] > maxNodes || (deadline != 0 && (visited[0] & 1023) == 0 && System.nanoTime() - deadline > 0)) {
+	                exhausted[0] = true;
+	                stop();
+	            }
+	        }
+
+	        int beforeEdge(int node, int edge) {
+	            int next = edges[node][edge];
+	            // The path leads back to the start, record the cycle if it is longer
+	            if (next == start) {
+	                int size = length[0];
+	                if (result.cycle == null || (size > result.cycle.length && size > 2)) {
+	                    result.cycle = Arrays.copyOf(path, size);
+	                }
+	                // Nothing can beat a cycle through the whole largest component
+	                if (result.cycle.length >= largest) {
+	                    stop();
+	                }
+	                return -1;
+	            }
+	            // Stay inside the component, nothing outside it leads back
+	            return component[next] == home ? next : -1;
+	        }
+
+	        void exit(int node) {
+	            length[0]--;
+	        }
+	    };
+	    search.run(start);
+	    return !exhausted[0];
+	}
+
+
+
+   // Tarjan's algorithm with explicit stacks
+   private void findComponents() {
+	    int n = edges.length;
+	    component = new int[n];
+	    selfLoop = new boolean[n];
+	    int[] index = new int[n];
+	    int[] low = new int[n];
+	    int[] cursor = new int[n];
+	    boolean[] onStack = new boolean[n];
+	    int[] stack = new int[n];
+	    int[] callStack = new int[n];
+	    Arrays.fill(index, -1);
+	    int stackSize = 0;
+	    int counter = 0;
+	    int components = 0;
+	    int[] sizes = new int[Math.max(n, 1)];
+
+	    for (int root = 0; root < n; root++) {
+	        if (index[root] != -1) {
+	            continue;
+	        }
+	        int depth = 0;
+	        callStack[depth++] = root;
+	        index[root] = low[root] = counter++;
+	        stack[stackSize++] = root;
+	        onStack[root] = true;
+
+	        while (depth > 0) {
+	            int node = callStack[depth - 1];
+	            if (cursor[node] < edges[node].length) {
+	                int next = edges[node][cursor[node]++];
+	                if (next == node) {
+	                    selfLoop[node] = true;
+	                }
+	                if (index[next] == -1) {
+	                    index[next] = low[next] = counter++;
+	                    stack[stackSize++] = next;
+	                    onStack[next] = true;
+	                    callStack[depth++] = next;
+	                } else if (onStack[next]) {
+	                    low[node] = Math.min(low[node], index[next]);
+	                }
+	                continue;
+	            }
+
+	            // All edges done, pop the node and close its component if it is the root of one
+	            depth--;
+	            if (depth > 0) {
+	                int caller = callStack[depth - 1];
+	                low[caller] = Math.min(low[caller], low[node]);
+	            }
+	            if (low[node] == index[node]) {
+	                int member;
+	                do {
+	                    member = stack[--stackSize];
+	                    onStack[member] = false;
+	                    component[member] = components;
+	                    sizes[components]++;
+	                } while (member != node);
+	                components++;
+	            }
+	        }
+	    }
+	    componentSize = Arrays.copyOf(sizes, components);
+	}
+
+}
@@ -0,0 +1,215 @@
+
+package student;
+
+import java.util.*;
+
+// Produces the output of ENUM for one session. The "   " + name line of a spell is built
+// the first time the spell is listed and kept by id, so every later ENUM hands out the
+// same string again. The listing, the learned spells in learning order, is kept up to
+// date as they change: like the order of LearnedSet it is an array of ids where a
+// forgotten spell leaves a hole and a learned one goes to the end, compacted once holes
+// make up half of it. A LEARN or FORGET costs the renderer one slot per spell it changes,
+// not a pass over everything learned. The listing remembers the LearnedSet version it
+// matches; should the set have changed without telling the renderer, the next ENUM
+// builds the listing again from the set.
+//
+// In delta mode ENUM lists only what changed since the previous ENUM, a "   + name"
+// line for each spell learned since then and a "   - name" line for each spell
+// forgotten, in the order the changes happened. A spell learned and forgotten again in
+// between is not listed.
+class EnumRenderer {
+
+   private static final int         HOLE = -1;
+
+   private String[]                 lineOf;
+   private int[]                    order;
+   private int[]                    orderIndex;
+   private int                      orderSize;
+   private int                      listed;
+   private long                     version;
+   private long                     rebuilds;
+   private boolean                  delta;
+   private long[]                   shown;
+   private long[]                   pending;
+   private int[]                    changed;
+   private int                      changedCount;
+
+   EnumRenderer() {
+      lineOf = new String[64];
+      order = new int[16];
+      orderIndex = new int[64];
+      orderSize = 0;
+      listed = 0;
+      // Matches the empty LearnedSet a session starts with
+      version = 0;
+      rebuilds = 0;
+      delta = false;
+      shown = new long[1];
+      pending = new long[1];
+      changed = new int[16];
+      changedCount = 0;
+   }
+
+   // Switches delta mode on or off. Switching it on starts from an empty listing, so the
+   // next ENUM lists every learned spell as added.
+   public void setDelta(boolean enabled, LearnedSet learned) {
+	    delta = enabled;
+	    Arrays.fill(shown, 0);
+	    Arrays.fill(pending, 0);
+	    changedCount = 0;
+	    if (enabled) {
+	        for (int spell : learned.toArray()) {
+	            pending(spell);
+	        }
+	    }
+	}
+
+   public boolean isDelta() {
+	    return delta;
+	}
+
+   // Called whenever a spell is learned or forgotten, with the set as it is afterwards
+   public void changed(int spell, LearnedSet learned) {
+	    // A listing that missed a change is left for the next ENUM to build again
+	    if (version == learned.version() - 1) {
+	        if (learned.contains(spell)) {
+	            append(spell);
+	        } else {
+	            order[orderIndex[spell]] = HOLE;
+	            listed--;
+	            if (orderSize > 32 && listed * 2 < orderSize) {
+	                compact();
+	            }
+	        }
+	        version = learned.version();
+	    }
+	    if (delta) {
+	        pending(spell);
+	    }
+	}
+
+   public void render(LearnedSet learned, SpellTable names, BuildSpellbook.OutputSink output) {
+	    if (delta) {
+	        renderDelta(learned, names, output);
+	        return;
+	    }
+
+	    if (version != learned.version()) {
+	        rebuild(learned);
+	    }
+	    for (int i = 0; i < orderSize; i++) {
+	        if (order[i] != HOLE) {
+	            output.add(line(order[i], names));
+	        }
+	    }
+	}
+
+   // How often the listing had to be built again from the set
+   long rebuilds() {
+	    return rebuilds;
+	}
+
+
+
+   // Notes the spell for the next delta ENUM
+   private void pending(int spell) {
+	    if (test(pending, spell)) {
+	        return;
+	    }
+	    pending = set(pending, spell);
+	    if (changedCount == changed.length) {
+	        changed = Arrays.copyOf(changed, changedCount * 2);
+	    }
+	    changed[changedCount++] = spell;
+	}
+
+
+
+   private void append(int spell) {
+	    if (orderSize == order.length) {
+	        order = Arrays.copyOf(order, orderSize * 2);
+	    }
+	    if (spell >= orderIndex.length) {
+	        orderIndex = Arrays.copyOf(orderIndex, Math.max(spell + 1, orderIndex.length * 2));
+	    }
+	    orderIndex[spell] = orderSize;
+	    order[orderSize++] = spell;
+	    listed++;
+	}
+
+
+
+   private void compact() {
+	    int size = 0;
+	    for (int i = 0; i < orderSize; i++) {
+	        int spell = order[i];
+	        if (spell != HOLE) {
+	            orderIndex[spell] = size;
+	            order[size++] = spell;
+	        }
+	    }
+	    orderSize = size;
+	}
+
+
+
+   private void rebuild(LearnedSet learned) {
+	    orderSize = 0;
+	    listed = 0;
+	    learned.forEach(this::append);
+	    version = learned.version();
+	    rebuilds++;
+	}
+
+
+
+   private void renderDelta(LearnedSet learned, SpellTable names, BuildSpellbook.OutputSink output) {
+	    for (int i = 0; i < changedCount; i++) {
+	        int spell = changed[i];
+	        boolean wasShown = test(shown, spell);
+	        boolean isLearned = learned.contains(spell);
+	        if (isLearned && !wasShown) {
+	            output.add("   + " + names.name(spell));
+	            shown = set(shown, spell);
+	        } else if (!isLearned && wasShown) {
+	            output.add("   - " + names.name(spell));
+	            shown[spell >>> 6] &= ~(1L << spell);
+	        }
+	        pending[spell >>> 6] &= ~(1L << spell);
+	    }
+	    changedCount = 0;
+	}
+
+
+
+   private String line(int spell, SpellTable names) {
+	    if (spell >= lineOf.length) {
+	        lineOf = Arrays.copyOf(lineOf, Math.max(spell + 1, lineOf.length * 2));
+	    }
+	    String line = lineOf[spell];
+	    if (line == null) {
+	        line = "   " + names.name(spell);
+	        lineOf[spell] = line;
+	    }
+	    return line;
+	}
+
+
+
+   private static boolean test(long[] bits, int spell) {
+	    int word = spell >>> 6;
+	    return word < bits.length && (bits[word] & (1L << spell)) != 0;
+	}
+
+
+
+   private static long[] set(long[] bits, int spell) {
+	    int word = spell >>> 6;
+	    if (word >= bits.length) {
+	        bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+	    }
+	    bits[word] |= 1L << spell;
+	    return bits;
+	}
+
+}
@@ -0,0 +1,323 @@
+
+package student;
+
+import java.util.*;
+
+// Online cycle detection for the prerequisite graph in the style of Pearce and Kelly.
+// Every spell gets a slot in a topological order where a spell always comes before the
+// spells it requires. Adding an edge that already agrees with the order costs O(1);
+// otherwise only the spells whose order lies between the two endpoints are searched
+// and shuffled, instead of re-running a DFS over every PREREQ line. The searches and the
+// reordering work in int arrays kept from one edge to the next, so adding an edge boxes
+// nothing and allocates nothing once the arrays have grown to the largest region seen.
+class IncrementalCycleDetector {
+
+   private int[][]                  requires;
+   private int[][]                  requiredBy;
+   private int[]                    requiresSize;
+   private int[]                    requiredBySize;
+   private int[]                    ord;
+   private boolean[]                marked;
+   private boolean                  cycleFound;
+   // The spells the forward search found, then those of the backward search after them
+   private int[]                    found;
+   private int                      foundCount;
+   private int[]                    stack;
+   private int[]                    slots;
+   private long[]                   keys;
+
+   IncrementalCycleDetector() {
+      requires = new int[0][];
+      requiredBy = new int[0][];
+      requiresSize = new int[0];
+      requiredBySize = new int[0];
+      ord = new int[0];
+      marked = new boolean[0];
+      cycleFound = false;
+      found = new int[16];
+      foundCount = 0;
+      stack = new int[16];
+      slots = new int[16];
+      keys = new long[16];
+      ensureCapacity(16);
+   }
+
+   public boolean hasCycle() {
+	    return cycleFound;
+	}
+
+   // Adds the edges "mainSpell requires p" for every spell id p in spells[from, to) and
+   // returns true if the graph contains a cycle afterwards. Once a cycle is found it stays
+   // found until rebuild, edges added after it are not even linked.
+   public boolean addPrereqs(int mainSpell, int[] spells, int from, int to) {
+	    // A cycle is already known, there is no order left to maintain
+	    if (cycleFound) {
+	        return true;
+	    }
+
+	    ensureCapacity(mainSpell + 1);
+	    for (int i = from; i < to; i++) {
+	        ensureCapacity(spells[i] + 1);
+	        // Add one edge at a time so the order is repaired before the next one
+	        if (!addEdge(mainSpell, spells[i])) {
+	            cycleFound = true;
+	            return true;
+	        }
+	    }
+	    return false;
+	}
+
+
+
+   // Takes the edges "mainSpell requires p" away again for every p in spells[from, to).
+   // Without a cycle the order stays valid as it is, since it was one for more edges; once
+   // a cycle is known the edges are not all linked and only rebuild can tell whether the
+   // cycle is gone, so then nothing is done.
+   public void removePrereqs(int mainSpell, int[] spells, int from, int to) {
+	    if (cycleFound) {
+	        return;
+	    }
+	    for (int i = from; i < to; i++) {
+	        requiresSize[mainSpell] = unlink(requires[mainSpell], requiresSize[mainSpell], spells[i]);
+	        requiredBySize[spells[i]] = unlink(requiredBy[spells[i]], requiredBySize[spells[i]], mainSpell);
+	    }
+	}
+
+
+
+   // Starts over from the first lines of the view, for lines that were added without
+   // going through addPrereqs. All edges are linked first and the spells are then numbered
+   // in one pass of Kahn's algorithm, a spell before the spells it requires; if some
+   // spells never get a number they lie on or behind a cycle. Linear in the size of the
+   // graph, where adding the same lines one by one could reorder the spells every time.
+   public boolean rebuild(PrereqGraph.View view, int spellCount) {
+	    int capacity = Math.max(16, spellCount);
+	    requires = new int[capacity][];
+	    requiredBy = new int[capacity][];
+	    requiresSize = new int[capacity];
+	    requiredBySize = new int[capacity];
+	    marked = new boolean[capacity];
+	    ord = new int[capacity];
+	    cycleFound = false;
+
+	    for (int position = 0; position < view.size(); position++) {
+	        int mainSpell = view.main(position);
+	        // Only the first line of a spell is followed
+	        if (view.firstLine(mainSpell) != position) {
+	            continue;
+	        }
+	        for (int i = 0; i < view.prereqCount(position); i++) {
+	            link(mainSpell, view.prereq(position, i));
+	        }
+	    }
+
+	    int[] inDegree = Arrays.copyOf(requiredBySize, capacity);
+	    int[] queue = new int[capacity];
+	    int tail = 0;
+	    for (int id = 0; id < capacity; id++) {
+	        if (inDegree[id] == 0) {
+	            queue[tail++] = id;
+	        }
+	    }
+	    for (int head = 0; head < tail; head++) {
+	        int node = queue[head];
+	        ord[node] = head;
+	        for (int i = 0; i < requiresSize[node]; i++) {
+	            int next = requires[node][i];
+	            if (--inDegree[next] == 0) {
+	                queue[tail++] = next;
+	            }
+	        }
+	    }
+	    cycleFound = tail < capacity;
+	    return cycleFound;
+	}
+
+
+
+   private void ensureCapacity(int spellCount) {
+	    int capacity = ord.length;
+	    if (spellCount <= capacity) {
+	        return;
+	    }
+	    int newCapacity = Math.max(spellCount, capacity * 2);
+	    requires = Arrays.copyOf(requires, newCapacity);
+	    requiredBy = Arrays.copyOf(requiredBy, newCapacity);
+	    requiresSize = Arrays.copyOf(requiresSize, newCapacity);
+	    requiredBySize = Arrays.copyOf(requiredBySize, newCapacity);
+	    marked = Arrays.copyOf(marked, newCapacity);
+	    ord = Arrays.copyOf(ord, newCapacity);
+	    // A spell without edges can sit anywhere in the order, its own id keeps the slots
+	    // distinct; its edge lists are only allocated once it gets an edge
+	    for (int id = capacity; id < newCapacity; id++) {
+	        ord[id] = id;
+	    }
+	}
+
+
+
+   private boolean addEdge(int from, int to) {
+	    // A spell that requires itself is a cycle on its own
+	    if (from == to) {
+	        return false;
+	    }
+
+	    int lowerBound = ord[to];
+	    int upperBound = ord[from];
+
+	    // If the edge already agrees with the order only the lists need updating
+	    if (lowerBound > upperBound) {
+	        link(from, to);
+	        return true;
+	    }
+
+	    // Collect everything reachable from the new prerequisite that sits before the main
+	    // spell in the order; reaching the main spell itself means the edge closes a cycle
+	    foundCount = 0;
+	    if (!collect(to, upperBound, true)) {
+	        unmark();
+	        return false;
+	    }
+	    int forwardCount = foundCount;
+
+	    // Collect everything that reaches the main spell and sits after the prerequisite
+	    collect(from, lowerBound, false);
+
+	    // Give the backward set the lowest slots in the region and the forward set the rest
+	    reorder(forwardCount);
+	    link(from, to);
+	    return true;
+	}
+
+
+
+   // Adds what the search finds to found
+   private boolean collect(int start, int bound, boolean forward) {
+	    // Explicit stack so long chains do not overflow the call stack
+	    int top = 0;
+	    stack[top++] = start;
+	    marked[start] = true;
+	    add(start);
+
+	    while (top > 0) {
+	        int node = stack[--top];
+	        int[] edges = forward ? requires[node] : requiredBy[node];
+	        int size = forward ? requiresSize[node] : requiredBySize[node];
+
+	        for (int i = 0; i < size; i++) {
+	            int next = edges[i];
+	            // The forward search hit the main spell, so the new edge closes a cycle
+	            if (forward && ord[next] == bound) {
+	                return false;
+	            }
+	            // Only spells inside the affected region need to move
+	            boolean inRegion = forward ? ord[next] < bound : ord[next] > bound;
+	            if (inRegion && !marked[next]) {
+	                marked[next] = true;
+	                add(next);
+	                if (top == stack.length) {
+	                    stack = Arrays.copyOf(stack, top * 2);
+	                }
+	                stack[top++] = next;
+	            }
+	        }
+	    }
+	    return true;
+	}
+
+
+
+   private void add(int node) {
+	    if (foundCount == found.length) {
+	        found = Arrays.copyOf(found, foundCount * 2);
+	    }
+	    found[foundCount++] = node;
+	}
+
+
+
+   // The forward set is found[0, forwardCount), the backward set the rest of found
+   private void reorder(int forwardCount) {
+	    // Sort both sets by their current position so their relative order is kept
+	    sortByOrder(0, forwardCount);
+	    sortByOrder(forwardCount, foundCount);
+
+	    // Pool the slots the two sets occupy today and hand them back out in sorted order,
+	    // first to the backward set and then to the forward set
+	    if (foundCount > slots.length) {
+	        slots = new int[Math.max(foundCount, slots.length * 2)];
+	    }
+	    for (int i = 0; i < foundCount; i++) {
+	        slots[i] = ord[found[i]];
+	    }
+	    Arrays.sort(slots, 0, foundCount);
+
+	    int count = 0;
+	    for (int i = forwardCount; i < foundCount; i++) {
+	        ord[found[i]] = slots[count++];
+	    }
+	    for (int i = 0; i < forwardCount; i++) {
+	        ord[found[i]] = slots[count++];
+	    }
+	    unmark();
+	}
+
+
+
+   // Sorts found[from, to) by position in the order, as keys of the position above the id
+   private void sortByOrder(int from, int to) {
+	    int count = to - from;
+	    if (count > keys.length) {
+	        keys = new long[Math.max(count, keys.length * 2)];
+	    }
+	    for (int i = 0; i < count; i++) {
+	        int node = found[from + i];
+	        keys[i] = ((long) ord[node] << 32) | node;
+	    }
+	    Arrays.sort(keys, 0, count);
+	    for (int i = 0; i < count; i++) {
+	        found[from + i] = (int) keys[i];
+	    }
+	}
+
+
+
+   private void unmark() {
+	    for (int i = 0; i < foundCount; i++) {
+	        marked[found[i]] = false;
+	    }
+	}
+
+
+
+   private void link(int from, int to) {
+	    requires[from] = append(requires[from], requiresSize[from]++, to);
+	    requiredBy[to] = append(requiredBy[to], requiredBySize[to]++, from);
+	}
+
+
+
+   // Drops one occurrence of value from the first size edges and returns the new size
+   private static int unlink(int[] edges, int size, int value) {
+	    for (int i = 0; i < size; i++) {
+	        if (edges[i] == value) {
+	            edges[i] = edges[size - 1];
+	            return size - 1;
+	        }
+	    }
+	    return size;
+	}
+
+
+
+   private static int[] append(int[] edges, int size, int value) {
+	    if (edges == null) {
+	        edges = new int[2];
+	    } else if (size == edges.length) {
+	        edges = Arrays.copyOf(edges, size * 2);
+	    }
+	    edges[size] = value;
+	    return edges;
+	}
+
+}
@@ -0,0 +1,308 @@
+package student;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+// The learned spells of one session, by spell id. Whether a spell is learned and whether
+// it was learned implicitly (as a prerequisite of another spell) are bits in two bitsets.
+// The learning order that ENUM lists is an int array of ids; forgetting a spell leaves a
+// hole that later adds skip over, and the array is compacted once holes make up half of
+// it. Learning a spell again after forgetting it moves it to the end, like re-inserting
+// into a LinkedHashMap did. A version number counts every change to which spells are
+// learned, so a caller can tell cheaply whether anything happened since it last looked.
+//
+// The bitsets and the order are stored in fixed-size pages so that snapshot can hand out
+// a Version, a copy of the set as it is, that never changes afterwards and that any thread
+// may read while the session goes on. A Version copies only the tables of pages; the pages
+// themselves are shared until the set writes to one of them, which then copies that page
+// first (copy on write). Only the pages of the latest Version need checking, since a page
+// shared with an older one is shared with the latest as well. A Version nobody refers to
+// any more is reclaimed by the garbage collector together with the pages only it used.
+class LearnedSet implements LearnedSpells {
+
+   private static final int         HOLE = -1;
+   // Spells per bitset page (as words, 64 words of 64 bits) and ids per order page
+   private static final int         PAGE_WORDS_BITS = 6;
+   private static final int         PAGE_WORDS = 1 << PAGE_WORDS_BITS;
+   private static final int         ORDER_PAGE_BITS = 10;
+   private static final int         ORDER_PAGE = 1 << ORDER_PAGE_BITS;
+
+   // The learned spells as they were at one point, never changed once made
+   static final class Version implements LearnedSpells {
+      private final long[][]        learned;
+      private final long[][]        implicit;
+      private final int[][]         order;
+      private final int             orderSize;
+      private final int             size;
+      private final long            version;
+
+      Version(long[][] learned, long[][] implicit, int[][] order, int orderSize, int size, long version) {
+         this.learned = learned;
+         this.implicit = implicit;
+         this.order = order;
+         this.orderSize = orderSize;
+         this.size = size;
+         this.version = version;
+      }
+
+      public int size() {
+	       return size;
+	   }
+
+      public long version() {
+	       return version;
+	   }
+
+      public boolean contains(int spell) {
+	       return test(learned, spell);
+	   }
+
+      public boolean isImplicit(int spell) {
+	       return test(implicit, spell);
+	   }
+
+      public long word(int index) {
+	       return LearnedSet.word(learned, index);
+	   }
+
+      public void forEach(IntConsumer action) {
+	       LearnedSet.forEach(order, orderSize, action);
+	   }
+
+      public int[] toArray() {
+	       return LearnedSet.toArray(order, orderSize, size);
+	   }
+   }
+
+   private long[][]                 learned;
+   private long[][]                 implicit;
+   private int[][]                  order;
+   private int[]                    orderIndex;
+   private int                      orderSize;
+   private int                      size;
+   private long                     version;
+   private long                     changes;
+   private Version                  snapshot;
+   private long                     snapshotChanges;
+
+   LearnedSet() {
+      learned = new long[][] { new long[PAGE_WORDS] };
+      implicit = new long[][] { new long[PAGE_WORDS] };
+      order = new int[][] { new int[ORDER_PAGE] };
+      orderIndex = new int[64];
+      orderSize = 0;
+      size = 0;
+      version = 0;
+      changes = 0;
+      snapshot = null;
+      snapshotChanges = -1;
+   }
+
+   public int size() {
+	    return size;
+	}
+
+   // Goes up whenever a spell is learned or forgotten
+   public long version() {
+	    return version;
+	}
+
+   public boolean contains(int spell) {
+	    return test(learned, spell);
+	}
+
+   // True if the spell is learned and was learned implicitly
+   public boolean isImplicit(int spell) {
+	    return test(implicit, spell);
+	}
+
+   // Bits 64 * index to 64 * index + 63 of the learned bitset
+   public long word(int index) {
+	    return word(learned, index);
+	}
+
+   // Learns the spell and returns true, or only updates its implicit flag and returns
+   // false if it was already learned
+   public boolean add(int spell, boolean implicitly) {
+	    boolean added = !contains(spell);
+	    int page = spell >>> (PAGE_WORDS_BITS + 6);
+	    int word = (spell >>> 6) & (PAGE_WORDS - 1);
+	    if (added) {
+	        ensureCapacity(spell + 1);
+	        writable(learned, snapshot == null ? null : snapshot.learned, page)[word] |= 1L << spell;
+	        int orderPage = orderSize >>> ORDER_PAGE_BITS;
+	        if (orderPage == order.length) {
+	            order = Arrays.copyOf(order, orderPage * 2);
+	        }
+	        if (order[orderPage] == null) {
+	            order[orderPage] = new int[ORDER_PAGE];
+	        }
+	        orderIndex[spell] = orderSize;
+	        writable(order, snapshot == null ? null : snapshot.order, orderPage)[orderSize & (ORDER_PAGE - 1)] = spell;
+	        orderSize++;
+	        size++;
+	        version++;
+	    }
+	    // Only write the implicit flag when it changes, so a LEARN of a learned spell
+	    // copies no page
+	    if (isImplicit(spell) != implicitly) {
+	        long[] words = writable(implicit, snapshot == null ? null : snapshot.implicit, page);
+	        words[word] ^= 1L << spell;
+	        changes++;
+	    }
+	    if (added) {
+	        changes++;
+	    }
+	    return added;
+	}
+
+   // Forgets the spell, returns false if it was not learned
+   public boolean remove(int spell) {
+	    if (!contains(spell)) {
+	        return false;
+	    }
+	    int page = spell >>> (PAGE_WORDS_BITS + 6);
+	    int word = (spell >>> 6) & (PAGE_WORDS - 1);
+	    writable(learned, snapshot == null ? null : snapshot.learned, page)[word] &= ~(1L << spell);
+	    if (isImplicit(spell)) {
+	        writable(implicit, snapshot == null ? null : snapshot.implicit, page)[word] &= ~(1L << spell);
+	    }
+	    int at = orderIndex[spell];
+	    writable(order, snapshot == null ? null : snapshot.order, at >>> ORDER_PAGE_BITS)[at & (ORDER_PAGE - 1)] = HOLE;
+	    size--;
+	    version++;
+	    changes++;
+	    if (orderSize > 32 && size * 2 < orderSize) {
+	        compact();
+	    }
+	    return true;
+	}
+
+   // Hands every learned spell to the action in the order the spells were learned
+   public void forEach(IntConsumer action) {
+	    forEach(order, orderSize, action);
+	}
+
+
+
+   // The learned spells in the order they were learned
+   public int[] toArray() {
+	    return toArray(order, orderSize, size);
+	}
+
+
+
+   // The set as it is now, as a Version that later changes leave alone. Taking one costs
+   // a copy of the page tables; as long as nothing changes the same Version comes back.
+   public Version snapshot() {
+	    if (snapshot == null || snapshotChanges != changes) {
+	        snapshot = new Version(learned.clone(), implicit.clone(), order.clone(), orderSize, size, version);
+	        snapshotChanges = changes;
+	    }
+	    return snapshot;
+	}
+
+
+
+   // The page to write to, a copy in place of the page if the latest Version shares it
+   private static long[] writable(long[][] pages, long[][] shared, int page) {
+	    long[] words = pages[page];
+	    if (shared != null && page < shared.length && shared[page] == words) {
+	        words = words.clone();
+	        pages[page] = words;
+	    }
+	    return words;
+	}
+
+   private static int[] writable(int[][] pages, int[][] shared, int page) {
+	    int[] ids = pages[page];
+	    if (shared != null && page < shared.length && shared[page] == ids) {
+	        ids = ids.clone();
+	        pages[page] = ids;
+	    }
+	    return ids;
+	}
+
+
+
+   private static boolean test(long[][] pages, int spell) {
+	    int page = spell >>> (PAGE_WORDS_BITS + 6);
+	    return page < pages.length && (pages[page][(spell >>> 6) & (PAGE_WORDS - 1)] & (1L << spell)) != 0;
+	}
+
+   private static long word(long[][] pages, int index) {
+	    int page = index >>> PAGE_WORDS_BITS;
+	    return page < pages.length ? pages[page][index & (PAGE_WORDS - 1)] : 0;
+	}
+
+   private static void forEach(int[][] order, int orderSize, IntConsumer action) {
+	    // A page at a time, so the inner loop runs over one plain array
+	    for (int start = 0; start < orderSize; start += ORDER_PAGE) {
+	        int[] page = order[start >>> ORDER_PAGE_BITS];
+	        int end = Math.min(ORDER_PAGE, orderSize - start);
+	        for (int i = 0; i < end; i++) {
+	            int spell = page[i];
+	            if (spell != HOLE) {
+	                action.accept(spell);
+	            }
+	        }
+	    }
+	}
+
+   private static int[] toArray(int[][] order, int orderSize, int size) {
+	    int[] spells = new int[size];
+	    int count = 0;
+	    for (int start = 0; start < orderSize; start += ORDER_PAGE) {
+	        int[] page = order[start >>> ORDER_PAGE_BITS];
+	        int end = Math.min(ORDER_PAGE, orderSize - start);
+	        for (int i = 0; i < end; i++) {
+	            if (page[i] != HOLE) {
+	                spells[count++] = page[i];
+	            }
+	        }
+	    }
+	    return spells;
+	}
+
+
+
+   // Moves the learned spells to the front of fresh order pages, the old pages may still
+   // belong to a Version
+   private void compact() {
+	    int[][] compacted = new int[Math.max(1, (size + ORDER_PAGE - 1) >>> ORDER_PAGE_BITS)][];
+	    for (int page = 0; page < compacted.length; page++) {
+	        compacted[page] = new int[ORDER_PAGE];
+	    }
+	    int kept = 0;
+	    for (int i = 0; i < orderSize; i++) {
+	        int spell = order[i >>> ORDER_PAGE_BITS][i & (ORDER_PAGE - 1)];
+	        if (spell != HOLE) {
+	            orderIndex[spell] = kept;
+	            compacted[kept >>> ORDER_PAGE_BITS][kept & (ORDER_PAGE - 1)] = spell;
+	            kept++;
+	        }
+	    }
+	    order = compacted;
+	    orderSize = kept;
+	}
+
+
+
+   private void ensureCapacity(int spellCount) {
+	    int pages = (spellCount + (PAGE_WORDS << 6) - 1) >>> (PAGE_WORDS_BITS + 6);
+	    if (pages > learned.length) {
+	        int capacity = Math.max(pages, learned.length * 2);
+	        int old = learned.length;
+	        learned = Arrays.copyOf(learned, capacity);
+	        implicit = Arrays.copyOf(implicit, capacity);
+	        for (int page = old; page < capacity; page++) {
+	            learned[page] = new long[PAGE_WORDS];
+	            implicit[page] = new long[PAGE_WORDS];
+	        }
+	    }
+	    if (spellCount > orderIndex.length) {
+	        orderIndex = Arrays.copyOf(orderIndex, Math.max(spellCount, orderIndex.length * 2));
+	    }
+	}
+
+}
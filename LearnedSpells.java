@@ -0,0 +1,29 @@
+
+package student;
+
+import java.util.function.IntConsumer;
+
+// Read access to a set of learned spells by id, implemented by the live LearnedSet of a
+// session and by the fixed versions it hands out for other threads to read
+interface LearnedSpells {
+
+   int size();
+
+   // Goes up whenever a spell is learned or forgotten
+   long version();
+
+   boolean contains(int spell);
+
+   // True if the spell is learned and was learned implicitly
+   boolean isImplicit(int spell);
+
+   // Bits 64 * index to 64 * index + 63 of the learned bitset
+   long word(int index);
+
+   // Hands every learned spell to the action in the order the spells were learned
+   void forEach(IntConsumer action);
+
+   // The learned spells in the order they were learned
+   int[] toArray();
+
+}
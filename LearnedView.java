@@ -0,0 +1,64 @@
+
+package student;
+
+import java.util.*;
+
+// The learned spells of one session as they were after one command, for reading from
+// other threads, with the PREREQ lines the session had seen by then. A view never changes,
+// so ENUM-style listings and queries on it need no lock and never see a command half done,
+// while the session goes on learning and forgetting on its own thread. Get the latest with BuildSpellbook.readView; a view is
+// only kept alive by the readers that hold it.
+public class LearnedView {
+
+   private final LearnedSet.Version learned;
+   private final SpellTable         spellNames;
+   private final PrereqGraph        graph;
+   private final PrereqGraph.View   prerequisites;
+
+   LearnedView(LearnedSet.Version learned, SpellTable spellNames, PrereqGraph graph, PrereqGraph.View prerequisites) {
+      this.learned = learned;
+      this.spellNames = spellNames;
+      this.graph = graph;
+      this.prerequisites = prerequisites;
+   }
+
+   LearnedSet.Version learned() {
+	    return learned;
+	}
+
+   PrereqGraph.View prerequisites() {
+	    return prerequisites;
+	}
+
+   // The learned set version the view was taken at, later views have higher ones
+   public long version() {
+	    return learned.version();
+	}
+
+   public int size() {
+	    return learned.size();
+	}
+
+   public boolean learnedSpell(String spell) {
+	    int id = spellNames.lookup(spell);
+	    return id != -1 && learned.contains(id);
+	}
+
+   // The learned spells in the order ENUM lists them
+   public List<String> learnedSpells() {
+	    List<String> names = new ArrayList<>(learned.size());
+	    learned.forEach(spell -> names.add(spellNames.name(spell)));
+	    return names;
+	}
+
+   // The lines a full ENUM prints for the spells of the view
+   public void enumerate(BuildSpellbook.OutputSink output) {
+	    learned.forEach(spell -> output.add("   " + spellNames.name(spell)));
+	}
+
+   // The lines DEPENDENTS prints for the spell, over the spells and lines of the view
+   public void dependents(String spell, BuildSpellbook.OutputSink output) {
+	    BuildSpellbook.dependents(graph, prerequisites, learned, spellNames.lookup(spell), spell, output);
+	}
+
+}
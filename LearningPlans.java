@@ -0,0 +1,278 @@
+
+package student;
+
+import java.util.*;
+
+// Cache of learning plans, shared by the sessions on one PrereqGraph. The plan of a
+// PREREQ line is the list of spells learnImp learns for it, in the order it learns them:
+// the prerequisite closure of the line, each spell listed once. Which spells the walk
+// reaches and in what order depends only on which of them have a PREREQ line of their
+// own, never on what is learned, so one plan serves every session. A LEARN then only
+// sweeps over the plan and learns the spells that are not learned yet.
+//
+// A new PREREQ line can only change a plan if it is the first line of a spell the plan
+// lists as having none: that spell now has prerequisites to walk. Every plan remembers
+// which of its spells had no line and how many spells had one when it was built
+// (View.mainSpells). If a view has the same count nothing can have changed and the plan
+// is used as is; otherwise its spells are checked against the view, and only a plan that
+// really reaches a spell that gained a line is built again. A line rewritten in merging
+// mode changes the plans that walk it, its own and those listing its main spell; plans
+// also remember the rewrite count of their view and are checked against the lines
+// rewritten since. Plans are kept in LRU order
+// and evicted once there are more than maxPlans of them or they hold more than maxSpells
+// spells together.
+class LearningPlans {
+
+   public static final int          DEFAULT_MAX_PLANS = 1024;
+   public static final int          DEFAULT_MAX_SPELLS = 1 << 20;
+
+   // The learning plan of one PREREQ line
+   static final class Plan {
+      final int[]                   spells;
+      final long[]                  leaves;
+      final int                     mainSpells;
+      final long                    rewrites;
+
+      Plan(int[] spells, long[] leaves, int mainSpells, long rewrites) {
+         this.spells = spells;
+         this.leaves = leaves;
+         this.mainSpells = mainSpells;
+         this.rewrites = rewrites;
+      }
+
+      // True if the plan was built on the same lines as the view has
+      boolean current(PrereqGraph.View view) {
+	       return mainSpells == view.mainSpells() && rewrites == view.rewrites();
+	   }
+
+      // True if the view is later than the one the plan was built on
+      boolean olderThan(PrereqGraph.View view) {
+	       return view.mainSpells() > mainSpells || view.rewrites() > rewrites;
+	   }
+
+      // True if the spell at index had no PREREQ line when the plan was built
+      boolean isLeaf(int index) {
+	       return (leaves[index >>> 6] & (1L << index)) != 0;
+	   }
+
+      // True if every spell of the plan has a PREREQ line in the view exactly when it
+      // had one when the plan was built and no line the walk follows was rewritten in
+      // between, so the walk would come out the same
+      boolean matches(PrereqGraph.View view, int position) {
+	       if (rewrites != view.rewrites() && !untouched(view, position)) {
+	           return false;
+	       }
+	       for (int i = 0; i < spells.length; i++) {
+	           if ((view.firstLine(spells[i]) == -1) != isLeaf(i)) {
+	               return false;
+	           }
+	       }
+	       return true;
+	   }
+
+      // True if none of the lines rewritten since the plan was built is the line at
+      // position or the line of a spell of the plan. Only a later view can tell.
+      private boolean untouched(PrereqGraph.View view, int position) {
+	       // The log holds every rewrite after the first it still has
+	       if (view.rewrites() < rewrites || view.rewritten(rewrites) == -1) {
+	           return false;
+	       }
+	       int[] mains = new int[(int) (view.rewrites() - rewrites)];
+	       for (int i = 0; i < mains.length; i++) {
+	           int rewritten = view.rewritten(rewrites + i);
+	           if (rewritten == position) {
+	               return false;
+	           }
+	           mains[i] = view.main(rewritten);
+	       }
+	       Arrays.sort(mains);
+	       for (int spell : spells) {
+	           if (Arrays.binarySearch(mains, spell) >= 0) {
+	               return false;
+	           }
+	       }
+	       return true;
+	   }
+   }
+
+   private final LinkedHashMap<Integer, Plan> cache;
+   private int                      maxPlans;
+   private int                      maxSpells;
+   private long                     cachedSpells;
+   private long                     hits;
+   private long                     misses;
+   private long                     rebuilds;
+
+   LearningPlans() {
+      cache = new LinkedHashMap<>(16, 0.75f, true);
+      maxPlans = DEFAULT_MAX_PLANS;
+      maxSpells = DEFAULT_MAX_SPELLS;
+      cachedSpells = 0;
+      hits = 0;
+      misses = 0;
+      rebuilds = 0;
+   }
+
+   // Bounds the cache, 0 plans turns it off
+   public synchronized void setLimits(int maxPlans, int maxSpells) {
+	    this.maxPlans = maxPlans;
+	    this.maxSpells = maxSpells;
+	    evict();
+	}
+
+   // Plans found in the cache, built because none was cached, and built again because
+   // a new PREREQ line changed a cached one
+   public synchronized long hits() {
+	    return hits;
+	}
+
+   public synchronized long misses() {
+	    return misses;
+	}
+
+   public synchronized long rebuilds() {
+	    return rebuilds;
+	}
+
+
+
+   // The learning plan of the line at position as seen in the view
+   public Plan plan(PrereqGraph.View view, int position) {
+	    Plan plan;
+	    synchronized (this) {
+	        plan = cache.get(position);
+	        if (plan != null && plan.current(view)) {
+	            hits++;
+	            return plan;
+	        }
+	    }
+
+	    // Check a plan built on another view outside the lock, it is a scan of the plan
+	    if (plan != null && plan.matches(view, position)) {
+	        synchronized (this) {
+	            hits++;
+	            if (plan.olderThan(view)) {
+	                plan = new Plan(plan.spells, plan.leaves, view.mainSpells(), view.rewrites());
+	                put(position, plan);
+	            }
+	        }
+	        return plan;
+	    }
+
+	    Plan built = build(view, position);
+	    synchronized (this) {
+	        if (plan == null) {
+	            misses++;
+	        } else {
+	            rebuilds++;
+	        }
+	        // A session behind the latest lines must not replace a newer plan
+	        if (plan == null || plan.olderThan(view)) {
+	            put(position, built);
+	        }
+	    }
+	    return built;
+	}
+
+
+
+   // Walks the prerequisite tree the way learnImp did and lists every spell in the order
+   // the walk would have learned it
+   static Plan build(PrereqGraph.View view, int position) {
+	    PlanBuilder builder = new PlanBuilder(view);
+	    builder.run(position);
+	    return builder.plan();
+	}
+
+
+
+   private static class PlanBuilder extends PrereqTraversal {
+      private final PrereqGraph.View    view;
+      private final boolean[]           finished;
+      private long[]                    listed;
+      private int[]                     spells;
+      private long[]                    leaves;
+      private int                       count;
+
+      PlanBuilder(PrereqGraph.View view) {
+         super(view.size());
+         this.view = view;
+         finished = new boolean[view.size()];
+         listed = new long[1];
+         spells = new int[16];
+         leaves = new long[1];
+         count = 0;
+      }
+
+      int edgeCount(int node) {
+	       return view.prereqCount(node);
+	   }
+
+      int beforeEdge(int node, int edge) {
+	       // Descend into the line of a prerequisite that has one, unless it was finished
+	       // earlier in this walk
+	       int prereqIndex = view.firstLine(view.prereq(node, edge));
+	       return prereqIndex != -1 && !finished[prereqIndex] ? prereqIndex : -1;
+	   }
+
+      void afterEdge(int node, int edge) {
+	       // The first time the walk gets past a spell is when learnImp learned it
+	       int spell = view.prereq(node, edge);
+	       int word = spell >>> 6;
+	       if (word >= listed.length) {
+	           listed = Arrays.copyOf(listed, Math.max(word + 1, listed.length * 2));
+	       }
+	       if ((listed[word] & (1L << spell)) != 0) {
+	           return;
+	       }
+	       listed[word] |= 1L << spell;
+
+	       if (count == spells.length) {
+	           spells = Arrays.copyOf(spells, count * 2);
+	       }
+	       if (count >>> 6 == leaves.length) {
+	           leaves = Arrays.copyOf(leaves, leaves.length * 2);
+	       }
+	       spells[count] = spell;
+	       if (view.firstLine(spell) == -1) {
+	           leaves[count >>> 6] |= 1L << count;
+	       }
+	       count++;
+	   }
+
+      void exit(int node) {
+	       finished[node] = true;
+	   }
+
+      Plan plan() {
+	       return new Plan(Arrays.copyOf(spells, count), leaves, view.mainSpells(), view.rewrites());
+	   }
+   }
+
+
+
+   // Called with the lock held
+   private void put(int position, Plan plan) {
+	    if (plan.spells.length > maxSpells) {
+	        return;
+	    }
+	    Plan old = cache.put(position, plan);
+	    if (old != null) {
+	        cachedSpells -= old.spells.length;
+	    }
+	    cachedSpells += plan.spells.length;
+	    evict();
+	}
+
+
+
+   // Called with the lock held, drops least recently used plans until the cache fits
+   private void evict() {
+	    Iterator<Plan> eldest = cache.values().iterator();
+	    while (eldest.hasNext() && (cache.size() > maxPlans || cachedSpells > maxSpells)) {
+	        cachedSpells -= eldest.next().spells.length;
+	        eldest.remove();
+	    }
+	}
+
+}
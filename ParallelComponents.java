@@ -0,0 +1,356 @@
+
+package student;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Strongly connected components of a CycleSearch graph found on a fork-join pool, for
+// graphs too large to split on one thread. The components are the same as the ones
+// Tarjan's algorithm finds, only the number of a component is the position of one of its
+// members instead of its place in Tarjan's order.
+//
+// The graph is split by the forward-backward method. Every set of positions still to be
+// split has a colour. A set first loses the positions with no incoming or no outgoing
+// edge inside the set, each of those is a component of its own, and this is repeated until
+// none is left; a chain of rules without a cycle disappears entirely here. A pivot is then
+// picked, and the positions of the set it reaches and the ones that reach it are found by
+// two searches that run side by side. The positions found by both make up the component of
+// the pivot. What is left falls into three sets, reached only, reaching only and neither,
+// and no component crosses from one of them to another, so each gets a new colour and is
+// split as its own task. Sets of no more than SEQUENTIAL_SIZE positions are split by
+// Tarjan's algorithm on the task's thread, and so is a set that kept more than 7/8 of the
+// set it came from. A graph of many small components, or a pivot at the end of a long
+// chain of them, would otherwise split off little at every step and cost quadratic time;
+// this way every set is at most 7/8 of the one before and the work stays O((V + E) log V).
+//
+// The tasks work on disjoint sets and write only to the entries of their own positions.
+// Looking at an edge that leaves its set, a task may read the colour of a position that
+// another task is changing; every colour is handed out once, so whatever it reads differs
+// from its own and the edge is ignored, as it must be.
+class ParallelComponents {
+
+   static final int                 SEQUENTIAL_SIZE = 1 << 12;
+
+   private final int[][]            edges;
+   private final int[]              reverseStart;
+   private final int[]              reverse;
+   private final int[]              color;
+   private final int[]              inDegree;
+   private final int[]              outDegree;
+   private final int[]              forwardMark;
+   private final int[]              backwardMark;
+   private final int[]              local;
+   private final AtomicInteger      colors;
+   private final AtomicInteger      marks;
+   final int[]                      component;
+   final int[]                      componentSize;
+   final boolean[]                  selfLoop;
+
+   private ParallelComponents(int[][] edges) {
+      this.edges = edges;
+      int n = edges.length;
+      reverseStart = new int[n + 1];
+      color = new int[n];
+      inDegree = new int[n];
+      outDegree = new int[n];
+      forwardMark = new int[n];
+      backwardMark = new int[n];
+      local = new int[n];
+      colors = new AtomicInteger();
+      marks = new AtomicInteger();
+      component = new int[n];
+      componentSize = new int[n];
+      selfLoop = new boolean[n];
+
+      // The edges in the other direction, as one array per node laid end to end
+      int total = 0;
+      for (int node = 0; node < n; node++) {
+         for (int next : edges[node]) {
+            reverseStart[next + 1]++;
+            if (next == node) {
+               selfLoop[node] = true;
+            }
+         }
+         total += edges[node].length;
+      }
+      for (int node = 0; node < n; node++) {
+         reverseStart[node + 1] += reverseStart[node];
+      }
+      reverse = new int[total];
+      int[] fill = Arrays.copyOf(reverseStart, n);
+      for (int node = 0; node < n; node++) {
+         for (int next : edges[node]) {
+            reverse[fill[next]++] = node;
+         }
+      }
+   }
+
+   // Splits the graph on the pool and returns the result
+   static ParallelComponents find(int[][] edges, ForkJoinPool pool) {
+	    ParallelComponents components = new ParallelComponents(edges);
+	    int[] all = new int[edges.length];
+	    for (int node = 0; node < all.length; node++) {
+	        all[node] = node;
+	    }
+	    if (all.length > 0) {
+	        pool.invoke(components.new Split(all, components.colors.get(), false));
+	    }
+	    for (int node = 0; node < all.length; node++) {
+	        components.componentSize[components.component[node]]++;
+	    }
+	    return components;
+	}
+
+
+
+   // Splits one coloured set into its components
+   private final class Split extends RecursiveAction {
+      private static final long     serialVersionUID = 1L;
+      private final int[]           nodes;
+      private final int             setColor;
+      private final boolean         sequential;
+
+      Split(int[] nodes, int setColor, boolean sequential) {
+         this.nodes = nodes;
+         this.setColor = setColor;
+         this.sequential = sequential;
+      }
+
+      protected void compute() {
+	       if (sequential || nodes.length <= SEQUENTIAL_SIZE) {
+	           tarjan(nodes, setColor);
+	           return;
+	       }
+	       int[] rest = trim(nodes, setColor);
+	       if (rest.length == 0) {
+	           return;
+	       }
+
+	       int pivot = rest[rest.length >>> 1];
+	       int forward = marks.incrementAndGet();
+	       int backward = marks.incrementAndGet();
+	       ForkJoinTask.invokeAll(new Reach(pivot, setColor, true, forward, rest.length),
+	               new Reach(pivot, setColor, false, backward, rest.length));
+
+	       // The part of every node: 0 reached only, 1 reaching only, 2 neither, 3 both
+	       int[] sizes = new int[4];
+	       for (int node : rest) {
+	           sizes[part(node, forward, backward)]++;
+	       }
+	       int[][] parts = { new int[sizes[0]], new int[sizes[1]], new int[sizes[2]] };
+	       int[] partColor = { colors.incrementAndGet(), colors.incrementAndGet(), colors.incrementAndGet() };
+	       int[] filled = new int[3];
+	       for (int node : rest) {
+	           int part = part(node, forward, backward);
+	           if (part == 3) {
+	               component[node] = pivot;
+	               color[node] = -1;
+	           } else {
+	               parts[part][filled[part]++] = node;
+	               color[node] = partColor[part];
+	           }
+	       }
+
+	       List<Split> tasks = new ArrayList<>(3);
+	       for (int part = 0; part < 3; part++) {
+	           if (parts[part].length > 0) {
+	               boolean large = parts[part].length > rest.length - rest.length / 8;
+	               tasks.add(new Split(parts[part], partColor[part], large));
+	           }
+	       }
+	       ForkJoinTask.invokeAll(tasks);
+	   }
+
+      private int part(int node, int forward, int backward) {
+	       boolean reached = forwardMark[node] == forward;
+	       boolean reaching = backwardMark[node] == backward;
+	       return reached ? (reaching ? 3 : 0) : (reaching ? 1 : 2);
+	   }
+   }
+
+
+
+   // Marks every node of a set that the start reaches, or that reaches the start, with
+   // a stamp of its own
+   private final class Reach extends RecursiveAction {
+      private static final long     serialVersionUID = 1L;
+      private final int             start;
+      private final int             setColor;
+      private final boolean         forward;
+      private final int             stamp;
+      private final int             size;
+
+      Reach(int start, int setColor, boolean forward, int stamp, int size) {
+         this.start = start;
+         this.setColor = setColor;
+         this.forward = forward;
+         this.stamp = stamp;
+         this.size = size;
+      }
+
+      protected void compute() {
+	       int[] mark = forward ? forwardMark : backwardMark;
+	       int[] queue = new int[size];
+	       int tail = 0;
+	       queue[tail++] = start;
+	       mark[start] = stamp;
+	       for (int head = 0; head < tail; head++) {
+	           int node = queue[head];
+	           if (forward) {
+	               for (int next : edges[node]) {
+	                   if (color[next] == setColor && mark[next] != stamp) {
+	                       mark[next] = stamp;
+	                       queue[tail++] = next;
+	                   }
+	               }
+	           } else {
+	               for (int i = reverseStart[node]; i < reverseStart[node + 1]; i++) {
+	                   int next = reverse[i];
+	                   if (color[next] == setColor && mark[next] != stamp) {
+	                       mark[next] = stamp;
+	                       queue[tail++] = next;
+	                   }
+	               }
+	           }
+	       }
+	   }
+   }
+
+
+
+   // Takes the nodes of a set with no incoming or no outgoing edge inside the set out as
+   // components of their own, until every node left has both, and returns those left
+   private int[] trim(int[] nodes, int setColor) {
+	    int[] queue = new int[nodes.length];
+	    int tail = 0;
+	    for (int node : nodes) {
+	        int in = 0;
+	        for (int i = reverseStart[node]; i < reverseStart[node + 1]; i++) {
+	            if (color[reverse[i]] == setColor) {
+	                in++;
+	            }
+	        }
+	        int out = 0;
+	        for (int next : edges[node]) {
+	            if (color[next] == setColor) {
+	                out++;
+	            }
+	        }
+	        inDegree[node] = in;
+	        outDegree[node] = out;
+	    }
+	    // Colours only change once every degree is counted
+	    for (int node : nodes) {
+	        if (inDegree[node] == 0 || outDegree[node] == 0) {
+	            queue[tail++] = node;
+	        }
+	    }
+	    for (int i = 0; i < tail; i++) {
+	        color[queue[i]] = -1;
+	    }
+
+	    for (int head = 0; head < tail; head++) {
+	        int node = queue[head];
+	        component[node] = node;
+	        for (int next : edges[node]) {
+	            if (color[next] == setColor && --inDegree[next] == 0) {
+	                queue[tail++] = next;
+	                color[next] = -1;
+	            }
+	        }
+	        for (int i = reverseStart[node]; i < reverseStart[node + 1]; i++) {
+	            int previous = reverse[i];
+	            if (color[previous] == setColor && --outDegree[previous] == 0) {
+	                queue[tail++] = previous;
+	                color[previous] = -1;
+	            }
+	        }
+	    }
+	    if (tail == 0) {
+	        return nodes;
+	    }
+
+	    int[] rest = new int[nodes.length - tail];
+	    int count = 0;
+	    for (int node : nodes) {
+	        if (color[node] == setColor) {
+	            rest[count++] = node;
+	        }
+	    }
+	    return rest;
+	}
+
+
+
+   // Tarjan's algorithm with explicit stacks on the nodes of one set, each component is
+   // numbered by its root
+   private void tarjan(int[] nodes, int setColor) {
+	    int n = nodes.length;
+	    for (int i = 0; i < n; i++) {
+	        local[nodes[i]] = i;
+	    }
+	    int[] index = new int[n];
+	    int[] low = new int[n];
+	    int[] cursor = new int[n];
+	    boolean[] onStack = new boolean[n];
+	    int[] stack = new int[n];
+	    int[] callStack = new int[n];
+	    Arrays.fill(index, -1);
+	    int stackSize = 0;
+	    int counter = 0;
+
+	    for (int root = 0; root < n; root++) {
+	        if (index[root] != -1) {
+	            continue;
+	        }
+	        int depth = 0;
+	        callStack[depth++] = root;
+	        index[root] = low[root] = counter++;
+	        stack[stackSize++] = root;
+	        onStack[root] = true;
+
+	        while (depth > 0) {
+	            int at = callStack[depth - 1];
+	            int[] out = edges[nodes[at]];
+	            if (cursor[at] < out.length) {
+	                int target = out[cursor[at]++];
+	                if (color[target] != setColor) {
+	                    continue;
+	                }
+	                int next = local[target];
+	                if (index[next] == -1) {
+	                    index[next] = low[next] = counter++;
+	                    stack[stackSize++] = next;
+	                    onStack[next] = true;
+	                    callStack[depth++] = next;
+	                } else if (onStack[next]) {
+	                    low[at] = Math.min(low[at], index[next]);
+	                }
+	                continue;
+	            }
+
+	            depth--;
+	            if (depth > 0) {
+	                int caller = callStack[depth - 1];
+	                low[caller] = Math.min(low[caller], low[at]);
+	            }
+	            if (low[at] == index[at]) {
+	                int member;
+	                do {
+	                    member = stack[--stackSize];
+	                    onStack[member] = false;
+	                    component[nodes[member]] = nodes[at];
+	                } while (member != at);
+	            }
+	        }
+	    }
+	    // The set is done, its colour must not match any later set's
+	    for (int node : nodes) {
+	        color[node] = -1;
+	    }
+	}
+
+}
@@ -0,0 +1,618 @@
+
+package student;
+
+import java.util.*;
+
+// The PREREQ lines of a spellbook, kept apart from what has been learned so several
+// sessions can share one rule set. Spells are int ids from the graph's SpellTable and a
+// line is a run of ids, main spell first.
+//
+// Lines are stored in compressed sparse row form: one int array holds the spells of all
+// lines back to back and a second one the offset where each line starts, so walking a
+// line is a scan over consecutive ints. New lines first go to a small delta buffer of
+// separate arrays; once the buffer has grown to a quarter of the compacted part it is
+// merged into fresh row arrays, which keeps the copying linear in the total size.
+//
+// Lines are only ever appended, so a reader works on a View of the first n lines without
+// taking any lock: a writer fills in everything a new line needs and then publishes a new
+// View through a volatile field, and a reader that picked up the older View simply does
+// not see the line yet. Writers are serialized on the graph itself.
+//
+// By default every PREREQ line is kept as it was given, and only the first line of a spell
+// is ever followed. In merging mode a spell has one line at most: a PREREQ for a spell that
+// has one already adds the prerequisites the line does not list yet, and replace and remove
+// rewrite the line. A rewritten line keeps its position and its main spell. Its new
+// contents go to an overlay of pages by position that a View takes a copy of the page
+// table of; a page still shared with the last View is copied before it is written, so
+// Views never change. Compacting folds the overlay back into the row arrays, which drops
+// the contents that were rewritten, so the rows hold the graph as it is and not every line
+// that built it. The positions of rewrites are also logged in order for sessions and
+// indexes that have to take back what they counted for the old contents; the log starts
+// over once it is as long as the graph, and a reader that fell further behind recounts.
+class PrereqGraph {
+
+   private static final int                 MIN_DELTA = 256;
+   private static final int                 REPLACED_PAGE_BITS = 10;
+   private static final int                 REPLACED_PAGE = 1 << REPLACED_PAGE_BITS;
+   private static final int                 MERGE = 0;
+   private static final int                 REPLACE = 1;
+   private static final int                 REMOVE = 2;
+
+   private final SpellTable                 spells;
+   private int[]                            rowOffsets;
+   private int[]                            rowSpells;
+   private int                              rowCount;
+   private int[][]                          delta;
+   private int                              deltaCount;
+   private int[]                            firstLine;
+   private int[]                            lastLine;
+   private int[]                            nextLine;
+   private int                              mainSpells;
+   private volatile boolean                 merging;
+   private int[][][]                        replaced;
+   private int[][][]                        publishedReplaced;
+   private int                              replacedCount;
+   private boolean                          replacedChanged;
+   private int[]                            rewriteLog;
+   private long                             rewriteBase;
+   private long                             rewrites;
+   private int[]                            marks;
+   private int                              mark;
+   private final IncrementalCycleDetector   cycleDetector;
+   private final LearningPlans              plans;
+   private final ReachabilityIndex          reachability;
+   private volatile View                    current;
+
+   PrereqGraph() {
+      spells = new SpellTable();
+      rowOffsets = new int[1];
+      rowSpells = new int[0];
+      rowCount = 0;
+      delta = new int[16][];
+      deltaCount = 0;
+      firstLine = new int[0];
+      lastLine = new int[0];
+      nextLine = new int[16];
+      mainSpells = 0;
+      merging = false;
+      replaced = null;
+      publishedReplaced = null;
+      replacedCount = 0;
+      replacedChanged = false;
+      rewriteLog = new int[16];
+      rewriteBase = 0;
+      rewrites = 0;
+      marks = new int[0];
+      mark = 0;
+      cycleDetector = new IncrementalCycleDetector();
+      plans = new LearningPlans();
+      current = publish(0, false);
+      reachability = new ReachabilityIndex(this);
+   }
+
+   // Names and ids of every spell the sessions on this graph have seen
+   public SpellTable spells() {
+	    return spells;
+	}
+
+   // Learning plans computed by the sessions on this graph
+   public LearningPlans plans() {
+	    return plans;
+	}
+
+   // Which spells reach which, built from the lines when it is asked
+   public ReachabilityIndex reachability() {
+	    return reachability;
+	}
+
+   // The lines added so far, safe to call from any thread
+   public View view() {
+	    return current;
+	}
+
+   // Turns merging mode on or off, which can only be chosen while the graph has no lines
+   public synchronized void setMerging(boolean enabled) {
+	    if (enabled != merging && current.size > 0) {
+	        throw new IllegalStateException("Merging can only be changed before the first PREREQ line");
+	    }
+	    merging = enabled;
+	}
+
+
+
+   public boolean isMerging() {
+	    return merging;
+	}
+
+
+
+   // Appends a PREREQ line of spell ids, the main spell first, and returns the view that
+   // includes it. In merging mode the line is merged into the line of the main spell if it
+   // has one. The caller must not change the array afterwards.
+   public View add(int[] line) {
+	    return add(line, false);
+	}
+
+
+
+   // Same as above for a line of a session's batch, which the cycle detector skips until
+   // that session calls endBatch. Lines of other sessions are still checked as they come.
+   public synchronized View add(int[] line, boolean batched) {
+	    int position = current.size;
+	    int mainSpell = line[0];
+	    if (merging) {
+	        int existing = current.firstLine(mainSpell);
+	        if (existing != -1) {
+	            return rewrite(existing, line, MERGE, batched);
+	        }
+	        line = rewritten(line, null, REPLACE);
+	    }
+
+	    // Slots past the published size are never read, so the arrays can be filled in
+	    // place and only have to be copied when they are full
+	    if (deltaCount == delta.length) {
+	        delta = Arrays.copyOf(delta, deltaCount * 2);
+	    }
+	    if (position == nextLine.length) {
+	        nextLine = Arrays.copyOf(nextLine, position * 2);
+	    }
+	    if (mainSpell >= firstLine.length) {
+	        int capacity = Math.max(mainSpell + 1, firstLine.length * 2);
+	        int oldCapacity = firstLine.length;
+	        firstLine = Arrays.copyOf(firstLine, capacity);
+	        lastLine = Arrays.copyOf(lastLine, capacity);
+	        Arrays.fill(firstLine, oldCapacity, capacity, -1);
+	    }
+	    delta[deltaCount++] = line;
+	    nextLine[position] = -1;
+
+	    // Index the main spell by the position of its first PREREQ line, this is the
+	    // line hasPrereq has always resolved to, so later lines do not move the entry
+	    if (firstLine[mainSpell] == -1) {
+	        firstLine[mainSpell] = position;
+	        mainSpells++;
+	        // Only the first line is ever followed by the traversals, so it is also the
+	        // only one that can take part in a cycle; a batched line is seen by the
+	        // detector once its batch ends
+	        if (!batched) {
+	            cycleDetector.addPrereqs(mainSpell, line, 1, line.length);
+	        }
+	    } else {
+	        // Chain every further line of the main spell behind the one before it
+	        nextLine[lastLine[mainSpell]] = position;
+	    }
+	    lastLine[mainSpell] = position;
+
+	    if (deltaCount + replacedCount >= Math.max(MIN_DELTA, rowCount / 4)) {
+	        compact();
+	    }
+	    current = publish(position + 1, cycleDetector.hasCycle());
+	    return current;
+	}
+
+
+
+   // In merging mode, makes the line the main spell's whole line, or adds it if the spell
+   // has none yet
+   public synchronized View replace(int[] line, boolean batched) {
+	    checkMerging();
+	    int position = current.firstLine(line[0]);
+	    return position == -1 ? add(line, batched) : rewrite(position, line, REPLACE, batched);
+	}
+
+
+
+   // In merging mode, takes the prerequisites on the line off the main spell's line, or
+   // all of them if the line holds only the main spell. The spell keeps its (then empty)
+   // line, which LEARN and FORGET treat the same as no line.
+   public synchronized View remove(int[] line, boolean batched) {
+	    checkMerging();
+	    int position = current.firstLine(line[0]);
+	    return position == -1 ? current : rewrite(position, line, REMOVE, batched);
+	}
+
+
+
+   private void checkMerging() {
+	    if (!merging) {
+	        throw new IllegalStateException("PREREQ lines can only be rewritten in merging mode");
+	    }
+	}
+
+
+
+   // Gives the line at position its new contents and, unless it is batched, updates the
+   // cycle detector by the edges that came and went. Nothing is published if the line
+   // stays the same.
+   private View rewrite(int position, int[] line, int how, boolean batched) {
+	    View view = current;
+	    int mainSpell = view.main(position);
+	    int[] old = new int[view.prereqCount(position) + 1];
+	    old[0] = mainSpell;
+	    for (int i = 1; i < old.length; i++) {
+	        old[i] = view.prereq(position, i - 1);
+	    }
+	    int[] updated = rewritten(line, old, how);
+	    if (Arrays.equals(updated, old)) {
+	        return view;
+	    }
+
+	    setReplaced(position, updated);
+	    logRewrite(position);
+	    if (!batched) {
+	        int[] added = missing(updated, old);
+	        int[] removed = missing(old, updated);
+	        // Taking edges away can end a cycle, only a full pass can tell; without a cycle
+	        // the order the detector keeps stays valid
+	        if (removed.length > 0 && cycleDetector.hasCycle()) {
+	            cycleDetector.rebuild(publish(view.size, true), spells.size());
+	        } else {
+	            cycleDetector.removePrereqs(mainSpell, removed, 0, removed.length);
+	            cycleDetector.addPrereqs(mainSpell, added, 0, added.length);
+	        }
+	    }
+
+	    if (deltaCount + replacedCount >= Math.max(MIN_DELTA, rowCount / 4)) {
+	        compact();
+	    }
+	    current = publish(view.size, cycleDetector.hasCycle());
+	    return current;
+	}
+
+
+
+   // The new contents of a line: the old prerequisites followed by the new ones not on it
+   // yet, only the new ones, or the old ones less the ones on the line. Every spell is
+   // listed once, in the order it first appears.
+   private int[] rewritten(int[] line, int[] old, int how) {
+	    int[] result = new int[how == REMOVE ? old.length : line.length + (old == null ? 0 : old.length)];
+	    int count = 1;
+	    result[0] = line[0];
+	    nextMark();
+	    if (how == REMOVE) {
+	        if (line.length == 1) {
+	            return new int[] { line[0] };
+	        }
+	        for (int i = 1; i < line.length; i++) {
+	            marked(line[i]);
+	        }
+	        for (int i = 1; i < old.length; i++) {
+	            if (!marked(old[i])) {
+	                result[count++] = old[i];
+	            }
+	        }
+	        return Arrays.copyOf(result, count);
+	    }
+	    if (how == MERGE) {
+	        for (int i = 1; i < old.length; i++) {
+	            if (!marked(old[i])) {
+	                result[count++] = old[i];
+	            }
+	        }
+	    }
+	    for (int i = 1; i < line.length; i++) {
+	        if (!marked(line[i])) {
+	            result[count++] = line[i];
+	        }
+	    }
+	    return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+
+
+   // The prerequisites of line that are not on other
+   private int[] missing(int[] line, int[] other) {
+	    nextMark();
+	    for (int i = 1; i < other.length; i++) {
+	        marked(other[i]);
+	    }
+	    int[] result = new int[line.length - 1];
+	    int count = 0;
+	    for (int i = 1; i < line.length; i++) {
+	        if (!marked(line[i])) {
+	            result[count++] = line[i];
+	        }
+	    }
+	    return Arrays.copyOf(result, count);
+	}
+
+
+
+   private void nextMark() {
+	    if (marks.length < spells.size()) {
+	        marks = Arrays.copyOf(marks, Math.max(spells.size(), marks.length * 2));
+	    }
+	    if (++mark == 0) {
+	        Arrays.fill(marks, 0);
+	        mark = 1;
+	    }
+	}
+
+
+
+   // Marks the spell and returns whether it was marked already since nextMark
+   private boolean marked(int spell) {
+	    if (marks[spell] == mark) {
+	        return true;
+	    }
+	    marks[spell] = mark;
+	    return false;
+	}
+
+
+
+   // Puts the contents of a rewritten line in the overlay, copying the page first if the
+   // last published view shares it. The writer's page table is never handed out itself.
+   private void setReplaced(int position, int[] line) {
+	    int page = position >>> REPLACED_PAGE_BITS;
+	    if (replaced == null) {
+	        replaced = new int[page + 1][][];
+	    } else if (page >= replaced.length) {
+	        replaced = Arrays.copyOf(replaced, Math.max(page + 1, replaced.length * 2));
+	    }
+	    int[][] lines = replaced[page];
+	    if (lines == null) {
+	        lines = new int[REPLACED_PAGE][];
+	        replaced[page] = lines;
+	    } else if (publishedReplaced != null && page < publishedReplaced.length && publishedReplaced[page] == lines) {
+	        lines = lines.clone();
+	        replaced[page] = lines;
+	    }
+	    int slot = position & (REPLACED_PAGE - 1);
+	    if (lines[slot] == null) {
+	        replacedCount++;
+	    }
+	    lines[slot] = line;
+	    replacedChanged = true;
+	}
+
+
+
+   private void logRewrite(int position) {
+	    int count = (int) (rewrites - rewriteBase);
+	    if (count == rewriteLog.length) {
+	        if (count >= Math.max(MIN_DELTA, current.size)) {
+	            // Start over rather than keep every rewrite there ever was
+	            rewriteLog = new int[16];
+	            rewriteBase = rewrites;
+	            count = 0;
+	        } else {
+	            rewriteLog = Arrays.copyOf(rewriteLog, count * 2);
+	        }
+	    }
+	    rewriteLog[count] = position;
+	    rewrites++;
+	}
+
+
+
+   // Ends the batch of one session, whose lines were added with batched set, and returns
+   // the view with every line of it and an up to date cycle flag. The detector is rebuilt
+   // by one linear pass over the whole graph, which also takes in the lines of batches
+   // other sessions still have open; those only become visible to it early.
+   public synchronized View endBatch() {
+	    cycleDetector.rebuild(current, spells.size());
+	    current = publish(current.size, cycleDetector.hasCycle());
+	    return current;
+	}
+
+
+
+   // Merges the delta buffer into new row arrays. Views already handed out keep the old
+   // arrays, so nothing they can see changes.
+   private void compact() {
+	    if (replacedCount > 0) {
+	        compactReplaced();
+	        return;
+	    }
+	    int spellCount = rowOffsets[rowCount];
+	    for (int i = 0; i < deltaCount; i++) {
+	        spellCount += delta[i].length;
+	    }
+
+	    int[] offsets = Arrays.copyOf(rowOffsets, rowCount + deltaCount + 1);
+	    int[] rows = Arrays.copyOf(rowSpells, spellCount);
+	    int end = rowOffsets[rowCount];
+	    for (int i = 0; i < deltaCount; i++) {
+	        System.arraycopy(delta[i], 0, rows, end, delta[i].length);
+	        end += delta[i].length;
+	        offsets[rowCount + i + 1] = end;
+	    }
+
+	    rowOffsets = offsets;
+	    rowSpells = rows;
+	    rowCount += deltaCount;
+	    delta = new int[Math.max(16, delta.length)][];
+	    deltaCount = 0;
+	}
+
+
+
+   // Writes every line, rewritten ones with their new contents, to new row arrays and
+   // empties the overlay
+   private void compactReplaced() {
+	    View view = publish(rowCount + deltaCount, false);
+	    int spellCount = 0;
+	    for (int position = 0; position < view.size; position++) {
+	        spellCount += view.prereqCount(position) + 1;
+	    }
+
+	    int[] offsets = new int[view.size + 1];
+	    int[] rows = new int[spellCount];
+	    int end = 0;
+	    for (int position = 0; position < view.size; position++) {
+	        int[] line = view.replacedLine(position);
+	        if (line != null) {
+	            System.arraycopy(line, 0, rows, end, line.length);
+	            end += line.length;
+	        } else if (position < rowCount) {
+	            int length = rowOffsets[position + 1] - rowOffsets[position];
+	            System.arraycopy(rowSpells, rowOffsets[position], rows, end, length);
+	            end += length;
+	        } else {
+	            line = delta[position - rowCount];
+	            System.arraycopy(line, 0, rows, end, line.length);
+	            end += line.length;
+	        }
+	        offsets[position + 1] = end;
+	    }
+
+	    rowOffsets = offsets;
+	    rowSpells = rows;
+	    rowCount = view.size;
+	    delta = new int[Math.max(16, delta.length)][];
+	    deltaCount = 0;
+	    replaced = null;
+	    publishedReplaced = null;
+	    replacedCount = 0;
+	    replacedChanged = false;
+	}
+
+
+
+   private View publish(int size, boolean cycle) {
+	    // A view gets its own copy of the overlay's page table, the pages are shared
+	    if (replacedChanged) {
+	        publishedReplaced = replaced.clone();
+	        replacedChanged = false;
+	    }
+	    return new View(rowOffsets, rowSpells, rowCount, delta, publishedReplaced, firstLine, nextLine,
+	            rewriteLog, rewriteBase, rewrites, size, mainSpells, cycle);
+	}
+
+
+
+   // The first size lines of the graph. Nothing a view can see ever changes; entries the
+   // writer fills in later all point past its size and are skipped.
+   final class View {
+      private final int[]               rowOffsets;
+      private final int[]               rowSpells;
+      private final int                 rowCount;
+      private final int[][]             delta;
+      private final int[][][]           replaced;
+      private final int[]               firstLine;
+      private final int[]               nextLine;
+      private final int[]               rewriteLog;
+      private final long                rewriteBase;
+      private final long                rewrites;
+      private final int                 size;
+      private final int                 mainSpells;
+      private final boolean             cycle;
+
+      private View(int[] rowOffsets, int[] rowSpells, int rowCount, int[][] delta, int[][][] replaced,
+                   int[] firstLine, int[] nextLine, int[] rewriteLog, long rewriteBase, long rewrites,
+                   int size, int mainSpells, boolean cycle) {
+         this.rowOffsets = rowOffsets;
+         this.rowSpells = rowSpells;
+         this.rowCount = rowCount;
+         this.delta = delta;
+         this.replaced = replaced;
+         this.firstLine = firstLine;
+         this.nextLine = nextLine;
+         this.rewriteLog = rewriteLog;
+         this.rewriteBase = rewriteBase;
+         this.rewrites = rewrites;
+         this.size = size;
+         this.mainSpells = mainSpells;
+         this.cycle = cycle;
+      }
+
+      public int size() {
+	       return size;
+	   }
+
+      // Number of spells that have a PREREQ line in this view. Spells only ever gain a
+      // first line, so two views with the same count agree on every firstLine.
+      public int mainSpells() {
+	       return mainSpells;
+	   }
+
+      // True if the lines of this view contain a cycle
+      public boolean hasCycle() {
+	       return cycle;
+	   }
+
+      // Number of times a line was rewritten in place before this view, only ever grows
+      public long rewrites() {
+	       return rewrites;
+	   }
+
+      // Position of the line rewritten by rewrite number (counting from 0), or -1 if the
+      // log no longer goes back that far
+      public int rewritten(long number) {
+	       Objects.checkIndex(number, rewrites);
+	       return number < rewriteBase ? -1 : rewriteLog[(int) (number - rewriteBase)];
+	   }
+
+      public String name(int spell) {
+	       return spells.name(spell);
+	   }
+
+      // The main spell of the line at a position
+      public int main(int position) {
+	       Objects.checkIndex(position, size);
+	       if (position < rowCount) {
+	           return rowSpells[rowOffsets[position]];
+	       }
+	       return delta[position - rowCount][0];
+	   }
+
+      public int prereqCount(int position) {
+	       Objects.checkIndex(position, size);
+	       int[] line = replacedLine(position);
+	       if (line != null) {
+	           return line.length - 1;
+	       }
+	       if (position < rowCount) {
+	           return rowOffsets[position + 1] - rowOffsets[position] - 1;
+	       }
+	       return delta[position - rowCount].length - 1;
+	   }
+
+      // The prerequisite at index (counting from 0) of the line at a position. The index
+      // is checked against the line itself; the rows hold the next line right behind it.
+      public int prereq(int position, int index) {
+	       Objects.checkIndex(position, size);
+	       int[] line = replacedLine(position);
+	       if (line != null) {
+	           Objects.checkIndex(index, line.length - 1);
+	           return line[index + 1];
+	       }
+	       if (position < rowCount) {
+	           int start = rowOffsets[position] + 1;
+	           Objects.checkIndex(index, rowOffsets[position + 1] - start);
+	           return rowSpells[start + index];
+	       }
+	       line = delta[position - rowCount];
+	       Objects.checkIndex(index, line.length - 1);
+	       return line[index + 1];
+	   }
+
+      // Position of the first line of the spell, or -1 if none is in this view
+      public int firstLine(int spell) {
+	       if (spell >= firstLine.length) {
+	           return -1;
+	       }
+	       int position = firstLine[spell];
+	       return position >= size ? -1 : position;
+	   }
+
+      // Position of the next line with the same main spell, or -1 if none is in this view
+      public int nextLine(int position) {
+	       Objects.checkIndex(position, size);
+	       int next = nextLine[position];
+	       return next >= size ? -1 : next;
+	   }
+
+      // The contents of a rewritten line, or null if the line is as it was added
+      private int[] replacedLine(int position) {
+	       if (replaced == null) {
+	           return null;
+	       }
+	       int page = position >>> REPLACED_PAGE_BITS;
+	       int[][] lines = page < replaced.length ? replaced[page] : null;
+	       return lines == null ? null : lines[position & (REPLACED_PAGE - 1)];
+	   }
+   }
+
+}
@@ -0,0 +1,138 @@
+
+package student;
+
+import java.util.*;
+
+// Depth-first walk over PREREQ line positions that keeps its frames on an explicit
+// stack instead of the Java call stack, so a chain of millions of spells needs no
+// more thread stack than a chain of one. Each operation that used to recurse
+// (learning, forgetting, the cycle searches) subclasses this and fills in the hooks;
+// the hooks are called in exactly the order the recursive versions ran their code.
+abstract class PrereqTraversal {
+
+   private int[]                    nodes;
+   private int[]                    cursors;
+   private boolean[]                descended;
+   private boolean[]                onStack;
+   private int                      depth;
+   private int                      visited;
+   private boolean                  stopped;
+
+   PrereqTraversal(int nodeCount) {
+      nodes = new int[16];
+      cursors = new int[16];
+      descended = new boolean[16];
+      onStack = new boolean[Math.max(nodeCount, 1)];
+      depth = 0;
+      visited = 0;
+      stopped = false;
+   }
+
+   // Number of outgoing edges of a node, for a PREREQ line that is its size minus one
+   abstract int edgeCount(int node);
+
+   // Called for each edge before anything else happens to it. Returns the node to
+   // descend into, or -1 to stay on the current node.
+   abstract int beforeEdge(int node, int edge);
+
+   // Called for each edge once its subtree (if any) has been fully walked
+   void afterEdge(int node, int edge) {
+	}
+
+   // Called when a node is pushed and popped
+   void enter(int node) {
+	}
+
+   void exit(int node) {
+	}
+
+   // Edges are visited from the last one down to the first when this returns true
+   boolean reverseOrder() {
+	    return false;
+	}
+
+   // True while the node is on the current path from the root
+   final boolean onStack(int node) {
+	    return onStack[node];
+	}
+
+   // Abandons the walk; no further hooks are called
+   final void stop() {
+	    stopped = true;
+	}
+
+   final boolean isStopped() {
+	    return stopped;
+	}
+
+
+
+   // Walks from the root and returns the number of nodes pushed on the way
+   final int run(int root) {
+	    push(root);
+
+	    while (depth > 0 && !stopped) {
+	        int top = depth - 1;
+	        int node = nodes[top];
+	        int count = edgeCount(node);
+
+	        // The child pushed from this frame has finished, close off its edge
+	        if (descended[top]) {
+	            descended[top] = false;
+	            afterEdge(node, edgeAt(cursors[top], count));
+	            cursors[top]++;
+	            continue;
+	        }
+
+	        // Every edge has been handled, pop the frame
+	        if (cursors[top] >= count) {
+	            depth--;
+	            onStack[node] = false;
+	            exit(node);
+	            continue;
+	        }
+
+	        int edge = edgeAt(cursors[top], count);
+	        int next = beforeEdge(node, edge);
+	        if (stopped) {
+	            return visited;
+	        }
+
+	        // Never re-enter a node already on the path, a recursive walk would not end
+	        if (next != -1 && !onStack[next]) {
+	            descended[top] = true;
+	            push(next);
+	        } else {
+	            afterEdge(node, edge);
+	            cursors[top]++;
+	        }
+	    }
+	    return visited;
+	}
+
+
+
+   private int edgeAt(int cursor, int count) {
+	    return reverseOrder() ? count - 1 - cursor : cursor;
+	}
+
+
+
+   private void push(int node) {
+	    // Grow the frame arrays on demand, they live on the heap
+	    if (depth == nodes.length) {
+	        int capacity = nodes.length * 2;
+	        nodes = Arrays.copyOf(nodes, capacity);
+	        cursors = Arrays.copyOf(cursors, capacity);
+	        descended = Arrays.copyOf(descended, capacity);
+	    }
+	    nodes[depth] = node;
+	    cursors[depth] = 0;
+	    descended[depth] = false;
+	    depth++;
+	    visited++;
+	    onStack[node] = true;
+	    enter(node);
+	}
+
+}
@@ -0,0 +1,457 @@
+package student;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+// Transitive closures of the prerequisite graph, shared by the sessions on one PrereqGraph.
+// The edges are the ones LEARN follows: from a spell to each spell on its first PREREQ
+// line. For a spell it answers which spells it ultimately requires (its descendants) and
+// which spells ultimately require it (its ancestors). A closure is a sorted array of spell
+// ids, so listing one costs as much as its answer and not a word per spell of the graph.
+//
+// Every query names the View it is about, and the answer is the one for the lines of that
+// view, also when the graph has moved on since. The index keeps one Generation, the
+// closures of the newest view it has been asked about. A generation never changes what it
+// answers: closures are built lazily, the first time a spell is asked about, and put in
+// their slot with a compare-and-set, so queries take no lock and concurrent ones at worst
+// both build the same closure. A query on an older view reads the edges the generation
+// kept for the lines that view has, without its closures.
+//
+// A closure is found by a breadth-first search that stops at every spell whose closure is
+// already known and takes that closure in instead. Spells on one cycle reach exactly the
+// same spells, so when the spell asked about reaches itself the whole strongly connected
+// component is found (the spells it reaches that also reach it back) and they all share one
+// closure.
+//
+// A query on a newer view starts the next generation, which only the thread taking in the
+// new lines waits for. A first line adds an edge u -> v for each of its prerequisites; the
+// next generation keeps every closure that contains neither u nor belongs to u (for
+// descendants; the same for v and ancestors), and drops the others to be built again. After
+// a large batch of new lines it starts with no closures at all. Closures of one direction
+// are also all dropped once they hold more than maxSpells spells together. A line rewritten
+// in merging mode can take edges away, so then the index starts over from every line.
+class ReachabilityIndex {
+
+   public static final long         DEFAULT_MAX_SPELLS = 1L << 24;
+   private static final int         MAX_UPDATE_LINES = 1024;
+
+   // A closure and the spells it belongs to
+   private static final class Memo {
+      final int[]                   spells;
+      final int[]                   owners;
+
+      Memo(int[] spells, int[] owners) {
+         this.spells = spells;
+         this.owners = owners;
+      }
+
+      boolean contains(int spell) {
+	       return Arrays.binarySearch(spells, spell) >= 0;
+	   }
+   }
+
+   private final PrereqGraph        graph;
+   private volatile Generation      current;
+   private volatile long            maxSpells;
+
+   // The reverse edges, for each spell the main spells of the first lines it is on. Only the
+   // thread starting a generation writes them, see Generation.
+   private int[]                    edgeParent;
+   private int[]                    edgeSpell;
+   private int[]                    edgePosition;
+   private int[]                    edgeNext;
+   private int[]                    firstEdge;
+   private int[]                    lastEdge;
+   private int                      edgeCount;
+
+   ReachabilityIndex(PrereqGraph graph) {
+      this.graph = graph;
+      maxSpells = DEFAULT_MAX_SPELLS;
+      clearEdges();
+      current = new Generation(graph.view());
+   }
+
+   // Bounds the spells the closures of each direction hold together
+   public void setMaxSpells(long maxSpells) {
+	    this.maxSpells = maxSpells;
+	    Generation generation = current;
+	    generation.descendants.clear();
+	    generation.ancestors.clear();
+	}
+
+   // Hands every spell the spell ultimately requires in the view to the action, in id order
+   public void forEachRequired(PrereqGraph.View view, int spell, IntConsumer action) {
+	    for (int required : generation(view).closure(view, spell, true)) {
+	        action.accept(required);
+	    }
+	}
+
+   // Hands every spell in learned that ultimately requires the spell in the view to the
+   // action, in id order. learned must not be changed while this runs.
+   public void forEachDependent(PrereqGraph.View view, int spell, LearnedSpells learned, IntConsumer action) {
+	    for (int dependent : generation(view).closure(view, spell, false)) {
+	        if (learned.contains(dependent)) {
+	            action.accept(dependent);
+	        }
+	    }
+	}
+
+   // True if the closure of the spell in the given direction is known for the newest view
+   // asked about
+   boolean isKnown(int spell, boolean required) {
+	    Generation generation = current;
+	    return (required ? generation.descendants : generation.ancestors).memo(spell) != null;
+	}
+
+
+
+   // The generation whose edges cover the view: the current one, the next one if the view
+   // has lines it has not seen, or one of its own for a view from before a rewrite
+   private Generation generation(PrereqGraph.View view) {
+	    Generation generation = current;
+	    if (generation.covers(view)) {
+	        return generation;
+	    }
+	    if (view.rewrites() < generation.view.rewrites()) {
+	        return new ReachabilityIndex(graph, view).current;
+	    }
+	    return catchUp(view);
+	}
+
+
+
+   // Index over the lines of one view only, for queries on views from before a rewrite
+   private ReachabilityIndex(PrereqGraph graph, PrereqGraph.View view) {
+      this.graph = graph;
+      maxSpells = DEFAULT_MAX_SPELLS;
+      clearEdges();
+      addEdges(view, 0);
+      current = new Generation(view);
+   }
+
+
+
+   // Starts the generation of a view with lines the current one has not seen. Queries on
+   // the current generation go on meanwhile; only starting generations is serialized.
+   private synchronized Generation catchUp(PrereqGraph.View view) {
+	    Generation generation = current;
+	    if (generation.covers(view)) {
+	        return generation;
+	    }
+	    if (view.rewrites() < generation.view.rewrites()) {
+	        return new ReachabilityIndex(graph, view).current;
+	    }
+	    if (view.rewrites() != generation.view.rewrites()) {
+	        clearEdges();
+	        addEdges(view, 0);
+	        current = new Generation(view);
+	        return current;
+	    }
+
+	    int firstNew = edgeCount;
+	    addEdges(view, generation.view.size());
+	    Generation next = new Generation(view);
+	    if (view.size() - generation.view.size() <= MAX_UPDATE_LINES) {
+	        next.descendants.keepUnchanged(generation.descendants, firstNew);
+	        next.ancestors.keepUnchanged(generation.ancestors, firstNew);
+	    }
+	    current = next;
+	    return next;
+	}
+
+
+
+   private void clearEdges() {
+	    edgeParent = new int[16];
+	    edgeSpell = new int[16];
+	    edgePosition = new int[16];
+	    edgeNext = new int[16];
+	    firstEdge = new int[0];
+	    lastEdge = new int[0];
+	    edgeCount = 0;
+	}
+
+
+
+   // Adds the edges of the first lines from position on. Entries are only ever appended, or
+   // written to arrays no generation holds yet, and a generation only follows edges below
+   // its own count, so nothing a generation can see changes.
+   private void addEdges(PrereqGraph.View view, int position) {
+	    for (; position < view.size(); position++) {
+	        int main = view.main(position);
+	        // Only the first line of a spell has edges
+	        if (view.firstLine(main) != position) {
+	            continue;
+	        }
+	        for (int i = 0; i < view.prereqCount(position); i++) {
+	            addEdge(view.prereq(position, i), main, position);
+	        }
+	    }
+	}
+
+
+
+   private void addEdge(int spell, int parent, int position) {
+	    if (edgeCount == edgeParent.length) {
+	        edgeParent = Arrays.copyOf(edgeParent, edgeCount * 2);
+	        edgeSpell = Arrays.copyOf(edgeSpell, edgeCount * 2);
+	        edgePosition = Arrays.copyOf(edgePosition, edgeCount * 2);
+	        edgeNext = Arrays.copyOf(edgeNext, edgeCount * 2);
+	    }
+	    if (spell >= firstEdge.length) {
+	        int capacity = Math.max(spell + 1, firstEdge.length * 2);
+	        int oldCapacity = firstEdge.length;
+	        firstEdge = Arrays.copyOf(firstEdge, capacity);
+	        lastEdge = Arrays.copyOf(lastEdge, capacity);
+	        Arrays.fill(firstEdge, oldCapacity, capacity, -1);
+	    }
+	    int edge = edgeCount++;
+	    edgeParent[edge] = parent;
+	    edgeSpell[edge] = spell;
+	    edgePosition[edge] = position;
+	    edgeNext[edge] = -1;
+	    // Chain the edge behind the last one into the same spell, oldest first
+	    if (firstEdge[spell] == -1) {
+	        firstEdge[spell] = edge;
+	    } else {
+	        edgeNext[lastEdge[spell]] = edge;
+	    }
+	    lastEdge[spell] = edge;
+	}
+
+
+
+   // The closures of one view and the reverse edges of its first lines. The edge arrays are
+   // shared with later generations, which only add entries past edges or chain them behind
+   // entries below it; such links point past edges and are not followed.
+   private final class Generation {
+      final PrereqGraph.View        view;
+      final int[]                   parent;
+      final int[]                   spell;
+      final int[]                   position;
+      final int[]                   next;
+      final int[]                   first;
+      final int                     edges;
+      final Closures                descendants;
+      final Closures                ancestors;
+
+      Generation(PrereqGraph.View view) {
+         this.view = view;
+         parent = edgeParent;
+         spell = edgeSpell;
+         position = edgePosition;
+         next = edgeNext;
+         first = firstEdge;
+         edges = edgeCount;
+         // Every spell on a line of the view was named before the view was published
+         int spells = graph.spells().size();
+         descendants = new Closures(this, true, spells);
+         ancestors = new Closures(this, false, spells);
+      }
+
+      // True if the view has the lines of this generation's view or fewer of them
+      boolean covers(PrereqGraph.View other) {
+	       return other.rewrites() == view.rewrites() && other.size() <= view.size();
+	   }
+
+      // The closure of the spell in the view, a view with fewer lines gets a closure of its
+      // own that is not kept
+      int[] closure(PrereqGraph.View other, int spell, boolean required) {
+	       Closures closures = required ? descendants : ancestors;
+	       if (other.size() == view.size()) {
+	           return closures.closure(spell);
+	       }
+	       return toArray(closures.search(spell, other, null, false));
+	   }
+   }
+
+
+
+   // Closures in one direction of the edges, the other direction is used to find the
+   // component of a spell that reaches itself
+   private final class Closures {
+      private final Generation      generation;
+      private final boolean         forward;
+      private final int             spellCount;
+      private volatile AtomicReferenceArray<Memo> memos;
+      private final AtomicLong      spells;
+
+      Closures(Generation generation, boolean forward, int spellCount) {
+         this.generation = generation;
+         this.forward = forward;
+         this.spellCount = spellCount;
+         memos = new AtomicReferenceArray<>(spellCount);
+         spells = new AtomicLong();
+      }
+
+      void clear() {
+	       memos = new AtomicReferenceArray<>(spellCount);
+	       spells.set(0);
+	   }
+
+      Memo memo(int spell) {
+	       AtomicReferenceArray<Memo> slots = memos;
+	       return spell < slots.length() ? slots.get(spell) : null;
+	   }
+
+      // The spells reached from the spell in this direction in the generation's view
+      int[] closure(int spell) {
+	       Memo memo = memo(spell);
+	       if (memo != null) {
+	           return memo.spells;
+	       }
+	       // A spell named after the view has no lines in it
+	       if (spell >= spellCount) {
+	           return new int[0];
+	       }
+	       long[] bits = search(spell, generation.view, null, true);
+	       int[] owners = { spell };
+	       if (test(bits, spell)) {
+	           // The spell is on a cycle, its component is what it reaches that reaches it
+	           owners = toArray(opposite().search(spell, generation.view, bits, false));
+	       }
+	       memo = new Memo(toArray(bits), owners);
+	       if (spells.addAndGet(memo.spells.length) > maxSpells) {
+	           clear();
+	           return memo.spells;
+	       }
+	       AtomicReferenceArray<Memo> slots = memos;
+	       for (int owner : owners) {
+	           slots.compareAndSet(owner, null, memo);
+	       }
+	       return memo.spells;
+	   }
+
+      // Takes over every closure of the previous generation that none of the edges from
+      // firstNew on changes: a new edge u -> v only adds to the closures holding u or
+      // belonging to u (in the backward direction, v)
+      void keepUnchanged(Closures previous, int firstNew) {
+	       AtomicReferenceArray<Memo> old = previous.memos;
+	       AtomicReferenceArray<Memo> slots = memos;
+	       long kept = 0;
+	       for (int spell = 0; spell < old.length(); spell++) {
+	           Memo memo = old.get(spell);
+	           // A closure shared by a component is looked at once, from its first owner
+	           if (memo == null || memo.owners[0] != spell || changedBy(memo, firstNew)) {
+	               continue;
+	           }
+	           for (int owner : memo.owners) {
+	               slots.set(owner, memo);
+	           }
+	           kept += memo.spells.length;
+	       }
+	       spells.set(kept);
+	   }
+
+      private boolean changedBy(Memo memo, int firstNew) {
+	       for (int edge = firstNew; edge < generation.edges; edge++) {
+	           int from = forward ? generation.parent[edge] : generation.spell[edge];
+	           if (memo.contains(from) || Arrays.binarySearch(memo.owners, from) >= 0) {
+	               return true;
+	           }
+	       }
+	       return false;
+	   }
+
+      // Breadth-first search from the spell over the lines of the view; with a limit only
+      // spells in it are visited. With useMemos, spells whose closure is known are not
+      // expanded, their closure is taken in.
+      long[] search(int spell, PrereqGraph.View view, long[] limit, boolean useMemos) {
+	       long[] bits = new long[(spellCount + 63) >>> 6];
+	       int[] queue = new int[16];
+	       int head = 0;
+	       int tail = 0;
+	       queue[tail++] = spell;
+	       boolean start = true;
+	       while (head < tail) {
+	           int current = queue[head++];
+	           Memo memo = start || !useMemos || limit != null ? null : memo(current);
+	           start = false;
+	           if (memo != null) {
+	               for (int reached : memo.spells) {
+	                   bits[reached >>> 6] |= 1L << reached;
+	               }
+	               continue;
+	           }
+	           // Forward the prerequisites on the first line, backward the chained edges
+	           int line = forward ? view.firstLine(current) : -1;
+	           int count = line == -1 ? 0 : view.prereqCount(line);
+	           int edge = forward ? -1 : firstEdge(current, view);
+	           for (int i = 0; i < count || edge != -1; i++) {
+	               int next;
+	               if (i < count) {
+	                   next = view.prereq(line, i);
+	               } else {
+	                   next = generation.parent[edge];
+	                   edge = nextEdge(edge, view);
+	               }
+	               if (test(bits, next) || (limit != null && !test(limit, next))) {
+	                   continue;
+	               }
+	               bits[next >>> 6] |= 1L << next;
+	               if (tail == queue.length) {
+	                   // Dequeued slots are reused by moving the live part to the front
+	                   System.arraycopy(queue, head, queue, 0, tail - head);
+	                   tail -= head;
+	                   head = 0;
+	                   if (tail == queue.length) {
+	                       queue = Arrays.copyOf(queue, tail * 2);
+	                   }
+	               }
+	               queue[tail++] = next;
+	           }
+	       }
+	       return bits;
+	   }
+
+      // The oldest edge into the spell that comes from a line of the view, or -1
+      private int firstEdge(int spell, PrereqGraph.View view) {
+	       int[] first = generation.first;
+	       int edge = spell < first.length ? first[spell] : -1;
+	       return inView(edge, view) ? edge : -1;
+	   }
+
+      // The edge after this one into the same spell that comes from a line of the view, or -1
+      private int nextEdge(int edge, PrereqGraph.View view) {
+	       int next = generation.next[edge];
+	       return inView(next, view) ? next : -1;
+	   }
+
+      private boolean inView(int edge, PrereqGraph.View view) {
+	       return edge != -1 && edge < generation.edges && generation.position[edge] < view.size();
+	   }
+
+      private Closures opposite() {
+	       return forward ? generation.ancestors : generation.descendants;
+	   }
+   }
+
+
+
+   private static boolean test(long[] bits, int spell) {
+	    int word = spell >>> 6;
+	    return word < bits.length && (bits[word] & (1L << spell)) != 0;
+	}
+
+
+
+   private static int[] toArray(long[] bits) {
+	    int count = 0;
+	    for (long word : bits) {
+	        count += Long.bitCount(word);
+	    }
+	    int[] spells = new int[count];
+	    int next = 0;
+	    for (int word = 0; word < bits.length; word++) {
+	        long set = bits[word];
+	        while (set != 0) {
+	            spells[next++] = (word << 6) + Long.numberOfTrailingZeros(set);
+	            set &= set - 1;
+	        }
+	    }
+	    return spells;
+	}
+
+}
@@ -0,0 +1,152 @@
+
+package student;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Checks the output of a run against a solution file while the run is producing it,
+// instead of reading both into Vectors and comparing them afterwards. Used as the
+// OutputSink of a run, it reads the next expected line for every line it receives and
+// stops the run at the first one that differs by throwing MismatchFound. The expected
+// lines are read one at a time, so memory does not grow with the size of the file.
+//
+// The solution file is cut off after limit commands the same way readSolnFromFile cuts
+// it: lines that do not start with three spaces are commands, and the output lines
+// after the last command that is kept still belong to the solution.
+public class SolutionComparator implements BuildSpellbook.OutputSink, Closeable {
+
+   // Where the output first differed from the solution
+   public static final class Mismatch {
+      public final long     lineNumber;
+      public final String   command;
+      public final String   expected;
+      public final String   actual;
+
+      Mismatch(long lineNumber, String command, String expected, String actual) {
+         this.lineNumber = lineNumber;
+         this.command = command;
+         this.expected = expected;
+         this.actual = actual;
+      }
+
+      public String toString() {
+         return "line " + lineNumber + " after command \"" + command + "\": expected "
+                 + (expected == null ? "end of solution" : "\"" + expected + "\"") + ", got "
+                 + (actual == null ? "end of output" : "\"" + actual + "\"");
+      }
+   }
+
+   // Thrown out of add to stop the run once the output differs from the solution
+   public static final class MismatchFound extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+      private final Mismatch    mismatch;
+
+      MismatchFound(Mismatch mismatch) {
+         super(mismatch.toString(), null, false, false);
+         this.mismatch = mismatch;
+      }
+
+      public Mismatch mismatch() {
+         return mismatch;
+      }
+   }
+
+   private final BufferedReader     reader;
+   private final int                limit;
+   private int                      commands;
+   private long                     lineNumber;
+   private String                   command;
+   private Mismatch                 mismatch;
+
+   public SolutionComparator(Path solnFile, int limit) throws IOException {
+      // Read with the platform charset, the same way readSolnFromFile does
+      this.reader = Files.newBufferedReader(solnFile, Charset.defaultCharset());
+      this.limit = limit;
+      this.commands = 0;
+      this.lineNumber = 0;
+      this.command = "";
+      this.mismatch = null;
+   }
+
+   // Runs a spec file on the spellbook and compares its output with the solution file.
+   // Returns null if they match, or where they first differ.
+   public static Mismatch compare(BuildSpellbook book, Path specFile, Path solnFile, int limit,
+                                  BuildSpellbook.CycleCheck check) throws IOException {
+	    try (SolutionComparator comparator = new SolutionComparator(solnFile, limit)) {
+	        try {
+	            book.execStream(specFile, limit, check, comparator);
+	            comparator.finish();
+	        } catch (MismatchFound e) {
+	            return e.mismatch();
+	        }
+	        return null;
+	    }
+	}
+
+
+
+   public void add(String line) {
+	    lineNumber++;
+	    // Lines without the output indent are the commands echoed by the run
+	    if (!line.startsWith("   ")) {
+	        command = line;
+	    }
+	    String expected = nextExpected();
+	    if (!line.equals(expected)) {
+	        fail(expected, line);
+	    }
+	}
+
+   // Call once the run is over, fails if the solution has lines the output did not have
+   public void finish() {
+	    String expected = nextExpected();
+	    if (expected != null) {
+	        lineNumber++;
+	        fail(expected, null);
+	    }
+	}
+
+   // The first difference found, or null
+   public Mismatch mismatch() {
+	    return mismatch;
+	}
+
+   public void close() throws IOException {
+	    reader.close();
+	}
+
+
+
+   private void fail(String expected, String actual) {
+	    mismatch = new Mismatch(lineNumber, command, expected, actual);
+	    throw new MismatchFound(mismatch);
+	}
+
+
+
+   // The next line of the solution, or null once it ends or the limit is reached
+   private String nextExpected() {
+	    try {
+	        String line;
+	        while (commands <= limit && (line = reader.readLine()) != null) {
+	            boolean output = line.startsWith("   ");
+	            // The command after the last one kept ends the solution
+	            if (!output) {
+	                commands++;
+	            }
+	            if (output || commands <= limit) {
+	                return line;
+	            }
+	        }
+	        return null;
+	    } catch (IOException e) {
+	        throw new UncheckedIOException(e);
+	    }
+	}
+
+}
@@ -0,0 +1,395 @@
+
+package student;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+
+// Generates spec files shaped like real ones: how many spells there are, how many
+// prerequisites a rule has, how deep the chains of rules go, the mix of LEARN, FORGET and
+// ENUM, and where cycles get in. The same profile and seed always give the same file.
+// Lines are produced one at a time and nothing grows with the length of the file, so
+// files of many gigabytes stream straight to disk.
+//
+//    java student.SpecGenerator [--out specs.txt] [--seed 42] [--spells 100000]
+//                               [--depth 20] [--fanout 3] [--fanout-max 32]
+//                               [--distribution uniform|geometric|powerlaw] [--duplicates 0.0]
+//                               [--commands 100000] [--interleave 0.0] [--mix 60,30,1]
+//                               [--skew 1.0] [--cycles 0] [--cycle-length 5] [--cycle-at 0.5]
+//
+// Without --out the lines go to standard output.
+//
+// Spells are split into depth levels of equal size and a rule only requires spells of
+// deeper levels, with one prerequisite always from the next level, so the longest chain
+// has depth rules and the graph has no cycle but the ones injected. The rules come in a
+// scrambled order that is a fixed permutation of the spells, so rules often name
+// prerequisites whose own rule comes later, as in hand-written files.
+//
+// A cycle is injected into the graph itself: spells of cycle-length consecutive levels
+// are chained by an extra prerequisite each, and the rule of the deepest one also requires
+// the shallowest. The rule at cycle-at closes the cycle, the other spells on it are picked
+// among the rules before it where there are any.
+public class SpecGenerator {
+
+   // The shape of a generated file, every field starts at its default
+   public static class Profile {
+      public long           seed;
+      // Spells that get a rule, and the levels the rules are stacked in
+      public int            spells;
+      public int            depth;
+      // Prerequisites per rule: mean, upper bound and distribution
+      public double         fanOut;
+      public int            fanOutMax;
+      public String         distribution;
+      // Share of extra rules for spells that already have one
+      public double         duplicates;
+      // Commands other than PREREQ, and the share of them run between the rules
+      public long           commands;
+      public double         interleave;
+      // Relative weights of LEARN, FORGET and ENUM
+      public int            learnWeight;
+      public int            forgetWeight;
+      public int            enumWeight;
+      // Above 1 the commands favour the spells whose rules came first
+      public double         skew;
+      // Cycles injected, their length in rules, and how far through the rules the rule
+      // that closes each one comes
+      public int            cycles;
+      public int            cycleLength;
+      public double         cycleAt;
+
+      public Profile() {
+         seed = 42;
+         spells = 100_000;
+         depth = 20;
+         fanOut = 3;
+         fanOutMax = 32;
+         distribution = "geometric";
+         duplicates = 0;
+         commands = 100_000;
+         interleave = 0;
+         learnWeight = 60;
+         forgetWeight = 30;
+         enumWeight = 1;
+         skew = 1;
+         cycles = 0;
+         cycleLength = 5;
+         cycleAt = 0.5;
+      }
+   }
+
+   private final Profile              profile;
+   private final Random               random;
+   private final long                 multiplier;
+   private final long                 inverse;
+   private final long                 offset;
+   private final int                  levelSize;
+   private final int                  levels;
+   private long                       ruleCount;
+   private long                       commandCount;
+   private final Map<Integer, int[]>  cycleEdges;
+
+   public SpecGenerator(Profile profile) {
+      if (profile.spells < 1 || profile.depth < 1 || profile.depth > profile.spells) {
+         throw new IllegalArgumentException("Need at least one spell per level");
+      }
+      this.profile = profile;
+      random = new Random(profile.seed);
+      // The rule order is i -> (multiplier * i + offset) mod spells, a permutation
+      // since the multiplier is coprime to the number of spells
+      long candidate = Math.max(2, (long) (profile.spells * 0.6180339887)) | 1;
+      while (gcd(candidate, profile.spells) != 1) {
+         candidate += 2;
+      }
+      multiplier = candidate % profile.spells;
+      inverse = BigInteger.valueOf(multiplier).modInverse(BigInteger.valueOf(profile.spells)).longValue();
+      offset = random.nextInt(profile.spells);
+      levelSize = (profile.spells + profile.depth - 1) / profile.depth;
+      // Rounding the level size up can leave the last levels empty
+      levels = (profile.spells + levelSize - 1) / levelSize;
+      ruleCount = 0;
+      commandCount = 0;
+      cycleEdges = new HashMap<>();
+   }
+
+
+
+   public static void main(String[] args) throws IOException {
+	    Profile profile = new Profile();
+	    Path out = null;
+	    for (int i = 0; i < args.length; i += 2) {
+	        if (i + 1 >= args.length) {
+	            throw new IllegalArgumentException("No value for " + args[i]);
+	        }
+	        String value = args[i + 1];
+	        switch (args[i]) {
+	            case "--out":
+	                out = Paths.get(value);
+	                break;
+	            case "--seed":
+	                profile.seed = Long.parseLong(value);
+	                break;
+	            case "--spells":
+	                profile.spells = Integer.parseInt(value);
+	                break;
+	            case "--depth":
+	                profile.depth = Integer.parseInt(value);
+	                break;
+	            case "--fanout":
+	                profile.fanOut = Double.parseDouble(value);
+	                break;
+	            case "--fanout-max":
+	                profile.fanOutMax = Integer.parseInt(value);
+	                break;
+	            case "--distribution":
+	                profile.distribution = value;
+	                break;
+	            case "--duplicates":
+	                profile.duplicates = Double.parseDouble(value);
+	                break;
+	            case "--commands":
+	                profile.commands = Long.parseLong(value);
+	                break;
+	            case "--interleave":
+	                profile.interleave = Double.parseDouble(value);
+	                break;
+	            case "--mix":
+	                String[] weights = value.split(",");
+	                profile.learnWeight = Integer.parseInt(weights[0]);
+	                profile.forgetWeight = Integer.parseInt(weights[1]);
+	                profile.enumWeight = Integer.parseInt(weights[2]);
+	                break;
+	            case "--skew":
+	                profile.skew = Double.parseDouble(value);
+	                break;
+	            case "--cycles":
+	                profile.cycles = Integer.parseInt(value);
+	                break;
+	            case "--cycle-length":
+	                profile.cycleLength = Integer.parseInt(value);
+	                break;
+	            case "--cycle-at":
+	                profile.cycleAt = Double.parseDouble(value);
+	                break;
+	            default:
+	                throw new IllegalArgumentException("Unknown option " + args[i]);
+	        }
+	    }
+
+	    SpecGenerator generator = new SpecGenerator(profile);
+	    if (out == null) {
+	        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), 1 << 16);
+	        generator.writeTo(writer);
+	        writer.flush();
+	    } else {
+	        // Written with the platform charset, the same way readSpecsFromFile reads
+	        try (Writer writer = Files.newBufferedWriter(out, Charset.defaultCharset())) {
+	            generator.writeTo(writer);
+	        }
+	    }
+	}
+
+
+
+   // Writes every line, each followed by a newline
+   public void writeTo(Writer writer) throws IOException {
+	    try {
+	        generate(line -> {
+	            try {
+	                writer.write(line);
+	                writer.write('\n');
+	            } catch (IOException e) {
+	                throw new UncheckedIOException(e);
+	            }
+	        });
+	    } catch (UncheckedIOException e) {
+	        throw e.getCause();
+	    }
+	}
+
+
+
+   // Hands every line of the file to the sink in order. A generator produces its file
+   // once; make a new one from the same profile to produce it again.
+   public void generate(BuildSpellbook.OutputSink sink) {
+	    long rules = profile.spells + (long) (profile.spells * profile.duplicates);
+	    long between = (long) (profile.commands * profile.interleave);
+	    injectCycles((long) (rules * profile.cycleAt));
+
+	    for (long rule = 0; rule < rules; rule++) {
+	        sink.add(rule < profile.spells ? rule((int) rule) : duplicateRule());
+	        ruleCount++;
+	        // Spread the commands between the rules evenly
+	        long due = between * (rule + 1) / rules;
+	        while (commandCount < due) {
+	            sink.add(command());
+	        }
+	    }
+	    while (commandCount < profile.commands) {
+	        sink.add(command());
+	    }
+	}
+
+
+
+   // The index-th rule in the scrambled order
+   private String rule(int index) {
+	    int spell = spellAt(index);
+	    StringBuilder line = new StringBuilder("PREREQ ").append(name(spell));
+	    int level = spell / levelSize;
+	    if (level + 1 < levels) {
+	        // One prerequisite from the next level keeps the chains depth rules long, the
+	        // others come from any deeper level
+	        int count = Math.max(1, fanOut());
+	        line.append(' ').append(name(spellOfLevel(level + 1)));
+	        int first = (level + 1) * levelSize;
+	        for (int i = 1; i < count; i++) {
+	            line.append(' ').append(name(first + random.nextInt(profile.spells - first)));
+	        }
+	    }
+	    int[] cycle = cycleEdges.get(spell);
+	    if (cycle != null) {
+	        for (int prerequisite : cycle) {
+	            line.append(' ').append(name(prerequisite));
+	        }
+	    }
+	    return line.toString();
+	}
+
+
+
+   // Another rule for a spell whose first rule is out already
+   private String duplicateRule() {
+	    int spell = spellAt(random.nextInt((int) Math.min(ruleCount, profile.spells)));
+	    int level = spell / levelSize;
+	    StringBuilder line = new StringBuilder("PREREQ ").append(name(spell));
+	    if (level + 1 < levels) {
+	        int count = Math.max(1, fanOut());
+	        for (int i = 0; i < count; i++) {
+	            line.append(' ').append(name(spellOfLevel(level + 1)));
+	        }
+	    }
+	    return line.toString();
+	}
+
+
+
+   // Plans the cycles before the first rule is out. Cycle k is closed by the rule at
+   // closeAt + k, or by the last ones if that is past the first rules. Its spells lie on
+   // consecutive levels around the closing spell, each requires the one on the next level
+   // and the deepest requires the shallowest, so the checked variants find it at the
+   // closing rule when the others are out before it.
+   private void injectCycles(long closeAt) {
+	    int cycles = Math.min(profile.cycles, profile.spells);
+	    int length = Math.min(Math.max(1, profile.cycleLength), levels);
+	    for (int k = 0; k < cycles; k++) {
+	        int closing = (int) Math.min(closeAt, profile.spells - cycles) + k;
+	        int closingSpell = spellAt(closing);
+	        int closingLevel = closingSpell / levelSize;
+	        int top = Math.min(closingLevel, levels - length);
+	        int[] path = new int[length];
+	        for (int i = 0; i < length; i++) {
+	            path[i] = top + i == closingLevel ? closingSpell : spellBefore(top + i, closing);
+	        }
+	        for (int i = 0; i < length; i++) {
+	            addCycleEdge(path[i], path[(i + 1) % length]);
+	        }
+	    }
+	}
+
+
+
+   // A spell of the level whose rule comes before the rule at index, if a few tries find one
+   private int spellBefore(int level, int index) {
+	    int spell = spellOfLevel(level);
+	    for (int tries = 0; tries < 64 && indexOf(spell) >= index; tries++) {
+	        spell = spellOfLevel(level);
+	    }
+	    return spell;
+	}
+
+
+
+   private void addCycleEdge(int spell, int prerequisite) {
+	    int[] edges = cycleEdges.get(spell);
+	    edges = edges == null ? new int[1] : Arrays.copyOf(edges, edges.length + 1);
+	    edges[edges.length - 1] = prerequisite;
+	    cycleEdges.put(spell, edges);
+	}
+
+
+
+   // A LEARN, FORGET or ENUM by the weights of the profile, naming a spell whose rule is
+   // out already
+   private String command() {
+	    commandCount++;
+	    int total = profile.learnWeight + profile.forgetWeight + profile.enumWeight;
+	    int pick = random.nextInt(Math.max(1, total));
+	    if (pick >= profile.learnWeight + profile.forgetWeight || ruleCount == 0) {
+	        return "ENUM";
+	    }
+	    long known = Math.min(ruleCount, profile.spells);
+	    int index = (int) Math.min(known - 1, (long) (known * Math.pow(random.nextDouble(), profile.skew)));
+	    return (pick < profile.learnWeight ? "LEARN " : "FORGET ") + name(spellAt(index));
+	}
+
+
+
+   // Prerequisites of one rule as drawn from the distribution of the profile
+   private int fanOut() {
+	    double mean = profile.fanOut;
+	    int drawn;
+	    switch (profile.distribution) {
+	        case "uniform":
+	            // 0 to 2 * mean, so the mean comes out right
+	            drawn = random.nextInt((int) Math.round(2 * mean) + 1);
+	            break;
+	        case "geometric":
+	            // Failures before the first success with p = 1 / (mean + 1)
+	            drawn = (int) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(mean / (mean + 1)));
+	            break;
+	        case "powerlaw":
+	            // Pareto with exponent 2.5 scaled to the mean, a few rules get very many
+	            drawn = (int) Math.floor(mean / 3 * Math.pow(1 - random.nextDouble(), -1 / 1.5));
+	            break;
+	        default:
+	            throw new IllegalArgumentException("Unknown distribution " + profile.distribution);
+	    }
+	    return Math.min(drawn, profile.fanOutMax);
+	}
+
+
+
+   private int spellAt(int index) {
+	    return (int) ((multiplier * index + offset) % profile.spells);
+	}
+
+
+
+   // The index of the spell's rule in the scrambled order, the inverse of spellAt
+   private int indexOf(int spell) {
+	    return (int) ((spell - offset + profile.spells) % profile.spells * inverse % profile.spells);
+	}
+
+
+
+   private int spellOfLevel(int level) {
+	    int first = level * levelSize;
+	    return first + random.nextInt(Math.min(levelSize, profile.spells - first));
+	}
+
+
+
+   private static String name(int spell) {
+	    return "S" + spell;
+	}
+
+
+
+   private static long gcd(long a, long b) {
+	    return b == 0 ? a : gcd(b, a % b);
+	}
+
+}
@@ -0,0 +1,142 @@
+
+package student;
+
+import java.util.*;
+
+// Splits a spec line into tokens in place. Token boundaries are kept as offsets into
+// the line and the command is recognized as an opcode, so parsing a line allocates
+// nothing; spell names are resolved to ids through a SpellTable, which only allocates
+// the first time a name is seen. Tokens follow the rules of line.split(" "): every single
+// space separates two tokens, so two spaces in a row give an empty token, and empty
+// tokens at the end of the line are dropped.
+class SpecTokenizer {
+
+   public static final int          UNKNOWN = 0;
+   public static final int          PREREQ = 1;
+   public static final int          LEARN = 2;
+   public static final int          FORGET = 3;
+   public static final int          ENUM = 4;
+   public static final int          REQUIRES = 5;
+   public static final int          DEPENDENTS = 6;
+   public static final int          BEGIN = 7;
+   public static final int          END = 8;
+   public static final int          REPLACE = 9;
+   public static final int          REMOVE = 10;
+
+   private static final String[]    COMMANDS = { "PREREQ", "LEARN", "FORGET", "ENUM", "REQUIRES", "DEPENDENTS", "BEGIN", "END",
+                                                  "REPLACE", "REMOVE" };
+
+   private CharSequence             line;
+   private int[]                    starts;
+   private int[]                    ends;
+   private int                      count;
+   private int                      opcode;
+
+   SpecTokenizer() {
+      starts = new int[8];
+      ends = new int[8];
+   }
+
+   // Tokenizes the line and returns its opcode
+   public int reset(CharSequence text) {
+	    line = text;
+	    count = 0;
+
+	    // An empty line is a single empty token, like "".split(" ")
+	    int length = text.length();
+	    if (length == 0) {
+	        add(0, 0);
+	    } else {
+	        int start = 0;
+	        for (int i = 0; i < length; i++) {
+	            if (text.charAt(i) == ' ') {
+	                add(start, i);
+	                start = i + 1;
+	            }
+	        }
+	        add(start, length);
+	        // Drop trailing empty tokens
+	        while (count > 0 && starts[count - 1] == ends[count - 1]) {
+	            count--;
+	        }
+	    }
+
+	    opcode = count == 0 ? UNKNOWN : recognize();
+	    return opcode;
+	}
+
+   public int opcode() {
+	    return opcode;
+	}
+
+   // Number of tokens including the command
+   public int count() {
+	    return count;
+	}
+
+   // Returns the id of the spell named by token index, the command itself is token 0
+   public int id(int index, SpellTable table) {
+	    Objects.checkIndex(index, count);
+	    return table.id(line, starts[index], ends[index]);
+	}
+
+   // The text of token index
+   public String text(int index) {
+	    Objects.checkIndex(index, count);
+	    return line.subSequence(starts[index], ends[index]).toString();
+	}
+
+   // True if token index is exactly the text
+   public boolean matches(int index, String text) {
+	    Objects.checkIndex(index, count);
+	    int start = starts[index];
+	    if (ends[index] - start != text.length()) {
+	        return false;
+	    }
+	    for (int i = 0; i < text.length(); i++) {
+	        if (line.charAt(start + i) != text.charAt(i)) {
+	            return false;
+	        }
+	    }
+	    return true;
+	}
+
+   // Same as id, but returns -1 instead of adding a name the table has never seen
+   public int lookup(int index, SpellTable table) {
+	    Objects.checkIndex(index, count);
+	    return table.lookup(line, starts[index], ends[index]);
+	}
+
+
+
+   private int recognize() {
+	    int length = ends[0] - starts[0];
+	    for (int op = 0; op < COMMANDS.length; op++) {
+	        String command = COMMANDS[op];
+	        if (command.length() != length) {
+	            continue;
+	        }
+	        int i = 0;
+	        while (i < length && command.charAt(i) == line.charAt(starts[0] + i)) {
+	            i++;
+	        }
+	        if (i == length) {
+	            return op + 1;
+	        }
+	    }
+	    return UNKNOWN;
+	}
+
+
+
+   private void add(int start, int end) {
+	    if (count == starts.length) {
+	        starts = Arrays.copyOf(starts, count * 2);
+	        ends = Arrays.copyOf(ends, count * 2);
+	    }
+	    starts[count] = start;
+	    ends[count] = end;
+	    count++;
+	}
+
+}
@@ -0,0 +1,179 @@
+
+package student;
+
+import java.util.*;
+
+// Symbol table of spell names. Every distinct name gets a dense int id, counting up from
+// 0 in the order the names are first seen, and the rest of the spellbook works on ids;
+// the name is only needed again for output. A name is looked up straight from the
+// characters of the line it appears in, so a name that has been seen before costs no
+// allocation at all.
+//
+// One table is shared by all sessions on a graph. Adding a name takes the table's lock;
+// looking one up first tries without it, which is safe because ids and names are only
+// ever added: a reader that races with a writer may miss a name that is being added and
+// then repeats the lookup under the lock, but it never sees a wrong one. Names are kept
+// in fixed-size chunks that are never copied, so name(id) needs no lock either.
+class SpellTable {
+
+   private static final int         CHUNK_BITS = 12;
+   private static final int         CHUNK_SIZE = 1 << CHUNK_BITS;
+
+   // Open addressing on the name hash, each slot holds id + 1 or 0 when it is free
+   private volatile int[]           slots;
+   private volatile String[][]      chunks;
+   private volatile int             size;
+
+   SpellTable() {
+      slots = new int[64];
+      chunks = new String[16][];
+      size = 0;
+   }
+
+   // Number of ids handed out, every id is below it
+   public int size() {
+	    return size;
+	}
+
+   public String name(int id) {
+	    return chunks[id >>> CHUNK_BITS][id & (CHUNK_SIZE - 1)];
+	}
+
+   // Returns the id of the characters text[start, end), adding the name if it is new
+   public int id(CharSequence text, int start, int end) {
+	    int hash = hash(text, start, end);
+	    int id = find(hash, text, start, end);
+	    if (id != -1) {
+	        return id;
+	    }
+	    synchronized (this) {
+	        id = find(hash, text, start, end);
+	        return id != -1 ? id : add(hash, text.subSequence(start, end).toString());
+	    }
+	}
+
+   public int id(String name) {
+	    return id(name, 0, name.length());
+	}
+
+   // Returns the id of the characters text[start, end), or -1 if the name was never added
+   public int lookup(CharSequence text, int start, int end) {
+	    int hash = hash(text, start, end);
+	    int id = find(hash, text, start, end);
+	    if (id != -1) {
+	        return id;
+	    }
+	    synchronized (this) {
+	        return find(hash, text, start, end);
+	    }
+	}
+
+   public int lookup(String name) {
+	    return lookup(name, 0, name.length());
+	}
+
+
+
+   private int find(int hash, CharSequence text, int start, int end) {
+	    int[] table = slots;
+	    int mask = table.length - 1;
+	    int slot = spread(hash) & mask;
+	    int entry;
+	    while ((entry = table[slot]) != 0) {
+	        // Without the lock the name may not be visible yet, that only counts as a miss
+	        String name = nameOrNull(entry - 1);
+	        if (name != null && matches(name, text, start, end)) {
+	            return entry - 1;
+	        }
+	        slot = (slot + 1) & mask;
+	    }
+	    return -1;
+	}
+
+
+
+   private String nameOrNull(int id) {
+	    String[] chunk = chunks[id >>> CHUNK_BITS];
+	    return chunk == null ? null : chunk[id & (CHUNK_SIZE - 1)];
+	}
+
+
+
+   // Called with the lock held
+   private int add(int hash, String name) {
+	    int id = size;
+	    String[][] allChunks = chunks;
+	    int chunk = id >>> CHUNK_BITS;
+	    if (chunk == allChunks.length) {
+	        allChunks = Arrays.copyOf(allChunks, chunk * 2);
+	    }
+	    if (allChunks[chunk] == null) {
+	        allChunks[chunk] = new String[CHUNK_SIZE];
+	    }
+	    allChunks[chunk][id & (CHUNK_SIZE - 1)] = name;
+	    chunks = allChunks;
+
+	    // The name is in place before its slot is filled in
+	    int[] table = slots;
+	    int mask = table.length - 1;
+	    int slot = spread(hash) & mask;
+	    while (table[slot] != 0) {
+	        slot = (slot + 1) & mask;
+	    }
+	    table[slot] = id + 1;
+	    size = id + 1;
+
+	    // Keep the table at most half full
+	    if (size * 2 > table.length) {
+	        grow();
+	    }
+	    return id;
+	}
+
+
+
+   private void grow() {
+	    int[] table = new int[slots.length * 2];
+	    int mask = table.length - 1;
+	    for (int id = 0; id < size; id++) {
+	        int slot = spread(name(id).hashCode()) & mask;
+	        while (table[slot] != 0) {
+	            slot = (slot + 1) & mask;
+	        }
+	        table[slot] = id + 1;
+	    }
+	    slots = table;
+	}
+
+
+
+   // Same hash as String.hashCode, so a stored name rehashes to the same value
+   private static int hash(CharSequence text, int start, int end) {
+	    int hash = 0;
+	    for (int i = start; i < end; i++) {
+	        hash = 31 * hash + text.charAt(i);
+	    }
+	    return hash;
+	}
+
+
+
+   private static boolean matches(String name, CharSequence text, int start, int end) {
+	    if (name.length() != end - start) {
+	        return false;
+	    }
+	    for (int i = 0; i < name.length(); i++) {
+	        if (name.charAt(i) != text.charAt(start + i)) {
+	            return false;
+	        }
+	    }
+	    return true;
+	}
+
+
+
+   private static int spread(int hash) {
+	    return hash ^ (hash >>> 16);
+	}
+
+}
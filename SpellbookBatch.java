@@ -0,0 +1,274 @@
+
+package student;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Runs many spec files at once and checks each against its solution file. Every file
+// gets its own BuildSpellbook, so the runs share nothing and are spread over a
+// fork-join pool with a fixed number of workers; the results come back in the order
+// the files were given, together with a pass/fail and timing summary.
+//
+//    java student.SpellbookBatch [--threads 8] [--variant execNSpecswCheck] [--limit 1000]
+//                                [--manifest jobs.txt] [--metrics on|jfr] [--parallel-cycles on]
+//                                [spec soln ...]
+//
+// Spec and solution files are given as pairs on the command line or one pair per line
+// in the manifest. With --metrics the per-command latencies of all files are collected
+// and printed after the summary; jfr also commits a JFR event per command. With
+// --parallel-cycles every cycle analysis of a file is itself split over the workers of
+// the pool, which pays off when a few files hold very large rule graphs. The exit
+// status is 0 only if every file passed.
+public class SpellbookBatch {
+
+   // One spec file to run and the solution file to check its output against
+   public static class Job {
+      public final Path     specFile;
+      public final Path     solnFile;
+
+      public Job(Path specFile, Path solnFile) {
+         this.specFile = specFile;
+         this.solnFile = solnFile;
+      }
+   }
+
+   // Outcome of one job; error is set instead of passed when the job could not run or
+   // threw, an Error such as StackOverflowError included, and mismatch tells where the
+   // output of a failed job first left the solution
+   public static class Result {
+      public final Job      job;
+      public boolean        passed;
+      public SolutionComparator.Mismatch mismatch;
+      public long           commands;
+      public long           nanos;
+      public Throwable      error;
+
+      Result(Job job) {
+         this.job = job;
+      }
+   }
+
+   // Totals over a whole batch
+   public static class Report {
+      public final List<Result> results;
+      public int            passed;
+      public int            failed;
+      public int            errors;
+      public long           commands;
+      public long           busyNanos;
+      public long           wallNanos;
+
+      Report(List<Result> results, long wallNanos) {
+         this.results = results;
+         this.wallNanos = wallNanos;
+         for (Result result : results) {
+            if (result.error != null) {
+               errors++;
+            } else if (result.passed) {
+               passed++;
+            } else {
+               failed++;
+            }
+            commands += result.commands;
+            busyNanos += result.nanos;
+         }
+      }
+
+      public boolean allPassed() {
+	       return passed == results.size();
+	   }
+   }
+
+   private final int                        threads;
+   private final BuildSpellbook.CycleCheck  check;
+   private final int                        limit;
+   private SpellbookMetrics                 metrics;
+   private boolean                          parallelCycles;
+
+   public SpellbookBatch(int threads, BuildSpellbook.CycleCheck check, int limit) {
+      if (threads < 1) {
+         throw new IllegalArgumentException("threads must be at least 1");
+      }
+      this.threads = threads;
+      this.check = check;
+      this.limit = limit;
+      this.metrics = null;
+      this.parallelCycles = false;
+   }
+
+
+
+   // Every job records into the given metrics, null for none
+   public void setMetrics(SpellbookMetrics metrics) {
+	    this.metrics = metrics;
+	}
+
+
+
+   // Every job runs its cycle analysis on the batch's pool instead of on its own worker
+   public void setParallelCycles(boolean enabled) {
+	    parallelCycles = enabled;
+	}
+
+
+
+   public static void main(String[] args) throws IOException {
+	    // Defaults, each of them can be overridden from the command line
+	    int threads = Runtime.getRuntime().availableProcessors();
+	    String variant = "execNSpecswCheck";
+	    int limit = new BuildSpellbook().MAXCOMS;
+	    List<Job> jobs = new ArrayList<>();
+	    SpellbookMetrics metrics = null;
+	    boolean parallelCycles = false;
+
+	    int i = 0;
+	    while (i < args.length) {
+	        if (!args[i].startsWith("--")) {
+	            // A spec file and its solution file
+	            if (i + 1 >= args.length) {
+	                throw new IllegalArgumentException("No solution file for " + args[i]);
+	            }
+	            jobs.add(new Job(Paths.get(args[i]), Paths.get(args[i + 1])));
+	            i += 2;
+	            continue;
+	        }
+	        if (i + 1 >= args.length) {
+	            throw new IllegalArgumentException("No value for " + args[i]);
+	        }
+	        String value = args[i + 1];
+	        switch (args[i]) {
+	            case "--threads":
+	                threads = Integer.parseInt(value);
+	                break;
+	            case "--variant":
+	                variant = value;
+	                break;
+	            case "--limit":
+	                limit = Integer.parseInt(value);
+	                break;
+	            case "--manifest":
+	                jobs.addAll(readManifest(Paths.get(value)));
+	                break;
+	            case "--metrics":
+	                metrics = new SpellbookMetrics();
+	                metrics.setJfrEvents(value.equals("jfr"));
+	                break;
+	            case "--parallel-cycles":
+	                parallelCycles = value.equals("on");
+	                break;
+	            default:
+	                throw new IllegalArgumentException("Unknown option " + args[i]);
+	        }
+	        i += 2;
+	    }
+
+	    SpellbookBatch batch = new SpellbookBatch(threads, checkOf(variant), limit);
+	    batch.setMetrics(metrics);
+	    batch.setParallelCycles(parallelCycles);
+	    Report report = batch.run(jobs);
+	    for (Result result : report.results) {
+	        String status = result.error != null ? "ERROR" : result.passed ? "PASS" : "FAIL";
+	        System.out.printf("%-5s %10.1f ms %8d cmds  %s%s%n", status, result.nanos / 1e6, result.commands,
+	                result.job.specFile, result.error != null ? "  (" + result.error + ")"
+	                        : result.mismatch != null ? "  (" + result.mismatch + ")" : "");
+	    }
+	    System.out.printf("%d files: %d passed, %d failed, %d errors; %d commands in %.1f ms wall, %.1f ms busy on %d threads%n",
+	            report.results.size(), report.passed, report.failed, report.errors, report.commands,
+	            report.wallNanos / 1e6, report.busyNanos / 1e6, threads);
+	    if (metrics != null) {
+	        System.out.print(metrics.report());
+	    }
+	    System.exit(report.allPassed() ? 0 : 1);
+	}
+
+
+
+   // The cycle handling of an execNSpecs variant, by method name
+   public static BuildSpellbook.CycleCheck checkOf(String variant) {
+	    switch (variant) {
+	        case "execNSpecs":
+	            return BuildSpellbook.CycleCheck.NONE;
+	        case "execNSpecswCheck":
+	            return BuildSpellbook.CycleCheck.DETECT;
+	        case "execNSpecswCheckRecLarge":
+	            return BuildSpellbook.CycleCheck.LONGEST;
+	        case "execNSpecswCheckRecSmall":
+	            return BuildSpellbook.CycleCheck.SHORTEST;
+	        default:
+	            throw new IllegalArgumentException("Unknown variant " + variant);
+	    }
+	}
+
+
+
+   // Reads "specFile solnFile" pairs, one per line; blank lines and lines starting with # are skipped
+   public static List<Job> readManifest(Path manifest) throws IOException {
+	    List<Job> jobs = new ArrayList<>();
+	    Path base = manifest.toAbsolutePath().getParent();
+	    for (String line : Files.readAllLines(manifest)) {
+	        line = line.trim();
+	        if (line.isEmpty() || line.startsWith("#")) {
+	            continue;
+	        }
+	        String[] files = line.split("\\s+");
+	        if (files.length != 2) {
+	            throw new IllegalArgumentException("Expected a spec and a solution file: " + line);
+	        }
+	        // Relative paths are taken from the directory of the manifest
+	        jobs.add(new Job(base.resolve(files[0]), base.resolve(files[1])));
+	    }
+	    return jobs;
+	}
+
+
+
+   // Runs every job and waits for all of them; a job that throws is reported as an error
+   // and does not stop the others
+   public Report run(List<Job> jobs) {
+	    long start = System.nanoTime();
+	    ForkJoinPool pool = new ForkJoinPool(threads);
+	    try {
+	        List<ForkJoinTask<Result>> tasks = new ArrayList<>(jobs.size());
+	        for (Job job : jobs) {
+	            tasks.add(pool.submit(() -> runJob(job)));
+	        }
+	        List<Result> results = new ArrayList<>(jobs.size());
+	        for (ForkJoinTask<Result> task : tasks) {
+	            results.add(task.join());
+	        }
+	        return new Report(results, System.nanoTime() - start);
+	    } finally {
+	        pool.shutdown();
+	    }
+	}
+
+
+
+   // Runs one spec file on a fresh spellbook and compares the output with the solution
+   // while it is produced, stopping the run at the first line that differs
+   public Result runJob(Job job) {
+	    Result result = new Result(job);
+	    long start = System.nanoTime();
+	    try (SolutionComparator comparator = new SolutionComparator(job.solnFile, limit)) {
+	        BuildSpellbook book = new BuildSpellbook();
+	        book.setMetrics(metrics);
+	        if (parallelCycles) {
+	            // The pool the job runs on, or the common pool when called from elsewhere
+	            book.setCycleAnalysisPool(ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool());
+	        }
+	        result.commands = book.execStream(job.specFile, limit, check, comparator);
+	        comparator.finish();
+	        result.passed = true;
+	    } catch (SolutionComparator.MismatchFound e) {
+	        result.mismatch = e.mismatch();
+	    } catch (Throwable e) {
+	        // Even an Error is only this file's, the other jobs and the report go on
+	        result.error = e;
+	    }
+	    result.nanos = System.nanoTime() - start;
+	    return result;
+	}
+
+}
@@ -0,0 +1,169 @@
+
+package student;
+
+import java.util.*;
+
+// Workloads for the JMH benchmarks of the four execNSpecs variants, see
+// benchmarks/src/main/java/student/ExecNSpecsBenchmark.java. Each workload is a
+// spec of one shape (deep chains, wide fan-out, diamonds, random DAGs, a DAG with
+// a cycle closed inside it, FORGET-heavy mixes) with about size spells.
+public class SpellbookBenchmark {
+
+   public static final String[]     VARIANTS = { "execNSpecs", "execNSpecswCheck",
+                                                 "execNSpecswCheckRecLarge", "execNSpecswCheckRecSmall" };
+   public static final String[]     WORKLOADS = { "chain", "fanout", "diamond", "dag", "cycle", "forget" };
+
+
+
+   // Runs the spec on book with the named variant
+   public static Vector<String> run(String variant, BuildSpellbook book, Vector<String> specs) {
+	    switch (variant) {
+	        case "execNSpecs":
+	            return book.execNSpecs(specs, specs.size());
+	        case "execNSpecswCheck":
+	            return book.execNSpecswCheck(specs, specs.size());
+	        case "execNSpecswCheckRecLarge":
+	            return book.execNSpecswCheckRecLarge(specs, specs.size());
+	        case "execNSpecswCheckRecSmall":
+	            return book.execNSpecswCheckRecSmall(specs, specs.size());
+	        default:
+	            throw new IllegalArgumentException("Unknown variant " + variant);
+	    }
+	}
+
+
+
+   // Builds one of the named workloads with about size spells
+   public static Vector<String> workload(String name, int size, long seed) {
+	    switch (name) {
+	        case "chain":
+	            return deepChain(size);
+	        case "fanout":
+	            return wideFanOut(size);
+	        case "diamond":
+	            return diamonds(size);
+	        case "dag":
+	            return randomDag(size, seed);
+	        case "cycle":
+	            return plantedCycle(size, seed);
+	        case "forget":
+	            return forgetHeavy(size, seed);
+	        default:
+	            throw new IllegalArgumentException("Unknown workload " + name);
+	    }
+	}
+
+
+
+   // S0 needs S1, S1 needs S2, ... then learn, forget and learn the head of the chain
+   public static Vector<String> deepChain(int size) {
+	    Vector<String> specs = new Vector<>();
+	    for (int i = 0; i < size; i++) {
+	        specs.add("PREREQ S" + i + " S" + (i + 1));
+	    }
+	    specs.add("LEARN S0");
+	    specs.add("ENUM");
+	    specs.add("FORGET S0");
+	    specs.add("LEARN S0");
+	    return specs;
+	}
+
+
+
+   // One root with every other spell as a direct prerequisite
+   public static Vector<String> wideFanOut(int size) {
+	    Vector<String> specs = new Vector<>();
+	    StringBuilder line = new StringBuilder("PREREQ ROOT");
+	    for (int i = 0; i < size; i++) {
+	        line.append(" S").append(i);
+	    }
+	    specs.add(line.toString());
+	    specs.add("LEARN ROOT");
+	    specs.add("ENUM");
+	    specs.add("FORGET ROOT");
+	    return specs;
+	}
+
+
+
+   // A stack of diamonds: D(i) needs L(i) and R(i), which both need D(i + 1)
+   public static Vector<String> diamonds(int size) {
+	    Vector<String> specs = new Vector<>();
+	    int count = Math.max(1, size / 3);
+	    for (int i = 0; i < count; i++) {
+	        specs.add("PREREQ D" + i + " L" + i + " R" + i);
+	        specs.add("PREREQ L" + i + " D" + (i + 1));
+	        specs.add("PREREQ R" + i + " D" + (i + 1));
+	    }
+	    specs.add("LEARN D0");
+	    specs.add("FORGET D0");
+	    return specs;
+	}
+
+
+
+   // Every spell needs up to four spells with a higher number, then a mix of commands
+   public static Vector<String> randomDag(int size, long seed) {
+	    Random random = new Random(seed);
+	    Vector<String> specs = new Vector<>();
+	    for (int i = 0; i < size; i++) {
+	        StringBuilder line = new StringBuilder("PREREQ S").append(i);
+	        int fanOut = random.nextInt(5);
+	        for (int j = 0; j < fanOut && i + 1 < size; j++) {
+	            line.append(" S").append(i + 1 + random.nextInt(size - i - 1));
+	        }
+	        specs.add(line.toString());
+	    }
+	    for (int i = 0; i < size; i++) {
+	        int spell = random.nextInt(size);
+	        specs.add((random.nextInt(3) == 0 ? "FORGET S" : "LEARN S") + spell);
+	    }
+	    specs.add("ENUM");
+	    return specs;
+	}
+
+
+
+   // A random DAG in which the rule of one spell gets a back-edge to a spell that
+   // reaches it, closing a cycle of up to eleven spells inside the graph. The walk
+   // starts among the last spells, which reach little, so the cycle's component
+   // stays small and the longest-cycle search stays cheap
+   public static Vector<String> plantedCycle(int size, long seed) {
+	    Vector<String> specs = randomDag(size, seed);
+	    // Line i is the first and only rule of S<i>, follow its first prerequisite. The
+	    // walk never starts at S0, which the legacy cycle check does not search from.
+	    int start = Math.max(Math.min(1, size - 1), size - 12);
+	    int end = start;
+	    for (int step = 0; step < 10; step++) {
+	        String[] tokens = specs.get(end).split(" ");
+	        if (tokens.length < 3) {
+	            break;
+	        }
+	        end = Integer.parseInt(tokens[2].substring(1));
+	    }
+	    // A spell without prerequisites ends the walk at once and needs itself
+	    specs.set(end, specs.get(end) + " S" + start);
+	    return specs;
+	}
+
+
+
+   // A shallow random DAG followed mostly by FORGET commands of learned roots
+   public static Vector<String> forgetHeavy(int size, long seed) {
+	    Random random = new Random(seed);
+	    Vector<String> specs = new Vector<>();
+	    for (int i = 0; i < size; i++) {
+	        specs.add("PREREQ S" + i + " S" + (size + random.nextInt(size)) + " S" + (size + random.nextInt(size)));
+	    }
+	    for (int i = 0; i < size; i++) {
+	        specs.add("LEARN S" + i);
+	    }
+	    for (int i = 0; i < size; i++) {
+	        specs.add("FORGET S" + random.nextInt(size));
+	        specs.add("FORGET S" + (size + random.nextInt(size)));
+	    }
+	    specs.add("ENUM");
+	    return specs;
+	}
+
+}
@@ -0,0 +1,28 @@
+
+package student;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JFR event for one spec line, committed by SpellbookMetrics when JFR events are turned
+// on. The event's duration is the time the command took; it only ends up in a recording
+// if one is running with the event enabled.
+@Name("student.SpellbookCommand")
+@Label("Spellbook Command")
+@Category("Spellbook")
+@StackTrace(false)
+class SpellbookCommandEvent extends Event {
+
+   @Label("Command")
+   String                           command;
+
+   @Label("Spec Line")
+   String                           spec;
+
+   @Label("Nodes Visited")
+   long                             nodes;
+
+}
@@ -0,0 +1,368 @@
+
+package student;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Counters and histograms for the commands a spellbook runs. Attach an instance with
+// BuildSpellbook.setMetrics; without one the spellbook takes no timings at all, so
+// instrumentation costs a single null check per command when it is off.
+//
+// For every command type it counts the commands and keeps a histogram of how long
+// they took. It also keeps a histogram of the nodes visited by the prerequisite walks
+// of a LEARN or FORGET, a histogram of the time spent looking for cycles after a
+// PREREQ, and gauges of the graph size as of the last command. Everything is safe to
+// update from several sessions at once, so one instance can collect the figures of a
+// whole batch. The same figures can be published over JMX with register, and each
+// command can also be committed as a SpellbookCommandEvent for JFR.
+public class SpellbookMetrics implements SpellbookMetricsMXBean {
+
+   private static final String[]    COMMANDS = { "UNKNOWN", "PREREQ", "LEARN", "FORGET", "ENUM", "REQUIRES", "DEPENDENTS",
+                                                  "BEGIN", "END", "REPLACE", "REMOVE" };
+
+   // Log-linear histogram of non-negative values in the style of HdrHistogram. Values
+   // below 16 get a bucket each; above that every power of two is split into 16 buckets,
+   // so a recorded value is known to within 1/16 of itself. 976 buckets cover the whole
+   // long range and recording is a few bit operations and one atomic add.
+   public static final class Histogram {
+      private static final int      SUB_BITS = 4;
+      private static final int      SUB_COUNT = 1 << SUB_BITS;
+
+      private final AtomicLongArray counts;
+      private final LongAdder       total;
+      private final LongAdder       sum;
+      private final AtomicLong      max;
+
+      Histogram() {
+         counts = new AtomicLongArray(SUB_COUNT + (64 - SUB_BITS) * SUB_COUNT);
+         total = new LongAdder();
+         sum = new LongAdder();
+         max = new AtomicLong();
+      }
+
+      public void record(long value) {
+	       value = Math.max(value, 0);
+	       counts.incrementAndGet(bucket(value));
+	       total.increment();
+	       sum.add(value);
+	       if (value > max.get()) {
+	           max.accumulateAndGet(value, Math::max);
+	       }
+	   }
+
+      public long count() {
+	       return total.sum();
+	   }
+
+      public long max() {
+	       return max.get();
+	   }
+
+      public double mean() {
+	       long count = total.sum();
+	       return count == 0 ? 0 : (double) sum.sum() / count;
+	   }
+
+      // The value at or below which the given percentage of the recorded values lie, as
+      // the upper end of its bucket but never more than the largest value recorded
+      public long percentile(double percent) {
+	       long count = total.sum();
+	       if (count == 0) {
+	           return 0;
+	       }
+	       long rank = Math.max(1, (long) Math.ceil(count * percent / 100));
+	       long seen = 0;
+	       for (int i = 0; i < counts.length(); i++) {
+	           seen += counts.get(i);
+	           if (seen >= rank) {
+	               return Math.min(upperBound(i), max.get());
+	           }
+	       }
+	       return max.get();
+	   }
+
+      public void reset() {
+	       for (int i = 0; i < counts.length(); i++) {
+	           counts.set(i, 0);
+	       }
+	       total.reset();
+	       sum.reset();
+	       max.set(0);
+	   }
+
+      private static int bucket(long value) {
+	       if (value < SUB_COUNT) {
+	           return (int) value;
+	       }
+	       int exponent = 63 - Long.numberOfLeadingZeros(value);
+	       int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_COUNT;
+	       return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+	   }
+
+      private static long upperBound(int bucket) {
+	       if (bucket < SUB_COUNT) {
+	           return bucket;
+	       }
+	       int exponent = (bucket - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+	       long sub = (bucket - SUB_COUNT) % SUB_COUNT + SUB_COUNT;
+	       long lower = sub << (exponent - SUB_BITS);
+	       return lower + (1L << (exponent - SUB_BITS)) - 1;
+	   }
+   }
+
+   private final LongAdder[]        commandCounts;
+   private final Histogram[]        latencies;
+   private final Histogram          cycleChecks;
+   private final LongAdder          cyclesFound;
+   private final Histogram          traversalNodes;
+   private volatile long            prereqLines;
+   private volatile long            spells;
+   private volatile long            learnedSpells;
+   private volatile boolean         jfrEvents;
+   private ObjectName               registeredName;
+
+   public SpellbookMetrics() {
+      commandCounts = new LongAdder[COMMANDS.length];
+      latencies = new Histogram[COMMANDS.length];
+      for (int i = 0; i < COMMANDS.length; i++) {
+         commandCounts[i] = new LongAdder();
+         latencies[i] = new Histogram();
+      }
+      cycleChecks = new Histogram();
+      cyclesFound = new LongAdder();
+      traversalNodes = new Histogram();
+      jfrEvents = false;
+      registeredName = null;
+   }
+
+   // Latencies in nanoseconds of the commands with that name
+   public Histogram latency(String command) {
+	    return latencies[opcode(command)];
+	}
+
+   public long count(String command) {
+	    return commandCounts[opcode(command)].sum();
+	}
+
+   // Nanoseconds spent per cycle search after a PREREQ
+   public Histogram cycleCheckNanos() {
+	    return cycleChecks;
+	}
+
+   // Nodes visited by the prerequisite walks of one LEARN or FORGET
+   public Histogram traversalNodes() {
+	    return traversalNodes;
+	}
+
+
+
+   // Number of command types and the name of each, indexed by SpecTokenizer opcode
+   static int commandCount() {
+	    return COMMANDS.length;
+	}
+
+   static String commandName(int opcode) {
+	    return COMMANDS[opcode];
+	}
+
+
+
+   // Called by the spellbook once per command, with the event from beginEvent
+   void command(int opcode, long nanos, long nodes, SpellbookCommandEvent event, String spec) {
+	    commandCounts[opcode].increment();
+	    latencies[opcode].record(nanos);
+	    if (opcode == SpecTokenizer.LEARN || opcode == SpecTokenizer.FORGET) {
+	        traversalNodes.record(nodes);
+	    }
+	    if (event != null) {
+	        event.end();
+	        if (event.shouldCommit()) {
+	            event.command = COMMANDS[opcode];
+	            event.spec = spec;
+	            event.nodes = nodes;
+	            event.commit();
+	        }
+	    }
+	}
+
+   // A started JFR event for the next command, or null when JFR events are off
+   SpellbookCommandEvent beginEvent() {
+	    if (!jfrEvents) {
+	        return null;
+	    }
+	    SpellbookCommandEvent event = new SpellbookCommandEvent();
+	    event.begin();
+	    return event;
+	}
+
+   void cycleCheck(long nanos, boolean found) {
+	    cycleChecks.record(nanos);
+	    if (found) {
+	        cyclesFound.increment();
+	    }
+	}
+
+   void gauges(long lines, long spellCount, long learned) {
+	    prereqLines = lines;
+	    spells = spellCount;
+	    learnedSpells = learned;
+	}
+
+
+
+   // Publishes these metrics on the platform MBean server, e.g. under
+   // "student:type=SpellbookMetrics,name=batch"
+   public synchronized ObjectName register(String name) throws JMException {
+	    ObjectName objectName = new ObjectName(name);
+	    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+	    registeredName = objectName;
+	    return objectName;
+	}
+
+   public synchronized void unregister() throws JMException {
+	    if (registeredName != null) {
+	        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	        server.unregisterMBean(registeredName);
+	        registeredName = null;
+	    }
+	}
+
+
+
+   // A few lines summing up everything recorded so far
+   public String report() {
+	    StringBuilder report = new StringBuilder();
+	    report.append(String.format("%-8s %10s %10s %10s %10s %10s%n", "command", "count", "mean us", "p50 us", "p99 us", "max us"));
+	    for (int i = 0; i < COMMANDS.length; i++) {
+	        Histogram latency = latencies[i];
+	        if (latency.count() == 0) {
+	            continue;
+	        }
+	        report.append(String.format("%-8s %10d %10.1f %10.1f %10.1f %10.1f%n", COMMANDS[i], latency.count(),
+	                latency.mean() / 1e3, latency.percentile(50) / 1e3, latency.percentile(99) / 1e3, latency.max() / 1e3));
+	    }
+	    report.append(String.format("cycle checks %d (%d cycles found), p99 %.1f us, max %.1f us%n", cycleChecks.count(),
+	            cyclesFound.sum(), cycleChecks.percentile(99) / 1e3, cycleChecks.max() / 1e3));
+	    report.append(String.format("traversals %d, mean %.1f nodes, max %d nodes%n", traversalNodes.count(),
+	            traversalNodes.mean(), traversalNodes.max()));
+	    report.append(String.format("graph %d prereq lines, %d spells, %d learned%n", prereqLines, spells, learnedSpells));
+	    return report.toString();
+	}
+
+
+
+   public Map<String, Long> getCommandCounts() {
+	    Map<String, Long> counts = new LinkedHashMap<>();
+	    for (int i = 0; i < COMMANDS.length; i++) {
+	        counts.put(COMMANDS[i], commandCounts[i].sum());
+	    }
+	    return counts;
+	}
+
+   public Map<String, Double> getMeanLatencyMicros() {
+	    Map<String, Double> means = new LinkedHashMap<>();
+	    for (int i = 0; i < COMMANDS.length; i++) {
+	        means.put(COMMANDS[i], latencies[i].mean() / 1e3);
+	    }
+	    return means;
+	}
+
+   public Map<String, Double> getP50LatencyMicros() {
+	    return percentiles(50);
+	}
+
+   public Map<String, Double> getP99LatencyMicros() {
+	    return percentiles(99);
+	}
+
+   public Map<String, Double> getMaxLatencyMicros() {
+	    return percentiles(100);
+	}
+
+   public long getCycleChecks() {
+	    return cycleChecks.count();
+	}
+
+   public long getCyclesFound() {
+	    return cyclesFound.sum();
+	}
+
+   public double getCycleCheckP99Micros() {
+	    return cycleChecks.percentile(99) / 1e3;
+	}
+
+   public double getCycleCheckMaxMicros() {
+	    return cycleChecks.max() / 1e3;
+	}
+
+   public long getTraversals() {
+	    return traversalNodes.count();
+	}
+
+   public double getTraversalNodesMean() {
+	    return traversalNodes.mean();
+	}
+
+   public long getTraversalNodesMax() {
+	    return traversalNodes.max();
+	}
+
+   public long getPrereqLines() {
+	    return prereqLines;
+	}
+
+   public long getSpells() {
+	    return spells;
+	}
+
+   public long getLearnedSpells() {
+	    return learnedSpells;
+	}
+
+   public boolean isJfrEvents() {
+	    return jfrEvents;
+	}
+
+   public void setJfrEvents(boolean enabled) {
+	    jfrEvents = enabled;
+	}
+
+   // Clears every counter and histogram, the gauges keep their last values
+   public void reset() {
+	    for (int i = 0; i < COMMANDS.length; i++) {
+	        commandCounts[i].reset();
+	        latencies[i].reset();
+	    }
+	    cycleChecks.reset();
+	    cyclesFound.reset();
+	    traversalNodes.reset();
+	}
+
+
+
+   private Map<String, Double> percentiles(double percent) {
+	    Map<String, Double> values = new LinkedHashMap<>();
+	    for (int i = 0; i < COMMANDS.length; i++) {
+	        values.put(COMMANDS[i], latencies[i].percentile(percent) / 1e3);
+	    }
+	    return values;
+	}
+
+
+
+   private static int opcode(String command) {
+	    for (int i = 0; i < COMMANDS.length; i++) {
+	        if (COMMANDS[i].equals(command)) {
+	            return i;
+	        }
+	    }
+	    throw new IllegalArgumentException("Unknown command: " + command);
+	}
+
+}
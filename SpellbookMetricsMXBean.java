@@ -0,0 +1,48 @@
+
+package student;
+
+import java.util.Map;
+
+// The view of SpellbookMetrics that SpellbookMetrics.register publishes over JMX.
+// Latencies are in microseconds and maps are keyed by command name (PREREQ, LEARN,
+// FORGET, ENUM, REQUIRES, DEPENDENTS, BEGIN, END, REPLACE, REMOVE, and UNKNOWN for lines
+// that are not a command).
+public interface SpellbookMetricsMXBean {
+
+   Map<String, Long> getCommandCounts();
+
+   Map<String, Double> getMeanLatencyMicros();
+
+   Map<String, Double> getP50LatencyMicros();
+
+   Map<String, Double> getP99LatencyMicros();
+
+   Map<String, Double> getMaxLatencyMicros();
+
+   long getCycleChecks();
+
+   long getCyclesFound();
+
+   double getCycleCheckP99Micros();
+
+   double getCycleCheckMaxMicros();
+
+   long getTraversals();
+
+   double getTraversalNodesMean();
+
+   long getTraversalNodesMax();
+
+   long getPrereqLines();
+
+   long getSpells();
+
+   long getLearnedSpells();
+
+   boolean isJfrEvents();
+
+   void setJfrEvents(boolean enabled);
+
+   void reset();
+
+}
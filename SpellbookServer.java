@@ -0,0 +1,520 @@
+
+package student;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.*;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Serves a spellbook to other processes over a loopback TCP port or a Unix-domain socket.
+// A client sends spec lines in UTF-8, one per line, exactly as they appear in a spec file,
+// and gets back for every line the output execNSpecs would give for it (the line itself
+// followed by what the command printed), closed by an empty line. Every connection is a
+// session of its own (BuildSpellbook.newSession): the PREREQ rules are shared by all
+// clients, the learned spells belong to the connection, and one connection is one run,
+// so a cycle found or a BEGIN sent on it stays with it. A command that ends the run,
+// like an unknown one in execNSpecs, closes the connection once its output is sent. A
+// command that fails with an exception is answered with a "Command failed" line and the
+// connection goes on; the failure, and every connection dropped, is logged through
+// java.util.logging under the class name.
+//
+//    java student.SpellbookServer [--port 7070 | --socket /tmp/spellbook.sock] [--loops 2]
+//                                 [--variant execNSpecswCheck] [--merge-prereqs on]
+//
+// With --merge-prereqs on the shared rules merge (BuildSpellbook.setMergePrereqs), so
+// clients that send the same rules again do not grow them and may REPLACE and REMOVE them.
+//
+// A handful of event loop threads serve every connection without blocking. A client may
+// send any number of lines without waiting for their answers; a loop runs every complete
+// line it has read and answers them all with one write. While a client does not read
+// its answers the loop stops reading from it, so a connection holds at most about
+// MAX_PENDING bytes of output.
+public class SpellbookServer implements Closeable {
+
+   private static final int         READ_SIZE = 16 * 1024;
+   private static final int         MAX_LINE = 1 << 20;
+   private static final int         MAX_PENDING = 1 << 20;
+   private static final long        ACCEPT_RETRY_MILLIS = 100;
+   private static final Logger      LOG = Logger.getLogger(SpellbookServer.class.getName());
+
+   private final BuildSpellbook     book;
+   private final BuildSpellbook.CycleCheck check;
+   private final EventLoop[]        loops;
+   private ServerSocketChannel      server;
+   private Path                     socketFile;
+   private int                      nextLoop;
+
+   public SpellbookServer(BuildSpellbook book, BuildSpellbook.CycleCheck check, int loopCount) {
+      if (loopCount < 1) {
+         throw new IllegalArgumentException("loopCount must be at least 1");
+      }
+      this.book = book;
+      this.check = check;
+      loops = new EventLoop[loopCount];
+      server = null;
+      socketFile = null;
+      nextLoop = 0;
+   }
+
+
+
+   public static void main(String[] args) throws IOException {
+	    // Defaults, each of them can be overridden from the command line
+	    SocketAddress address = new InetSocketAddress("127.0.0.1", 7070);
+	    int loopCount = 2;
+	    String variant = "execNSpecswCheck";
+	    boolean mergePrereqs = false;
+
+	    for (int i = 0; i < args.length; i += 2) {
+	        if (i + 1 >= args.length) {
+	            throw new IllegalArgumentException("No value for " + args[i]);
+	        }
+	        String value = args[i + 1];
+	        switch (args[i]) {
+	            case "--port":
+	                address = new InetSocketAddress("127.0.0.1", Integer.parseInt(value));
+	                break;
+	            case "--socket":
+	                address = UnixDomainSocketAddress.of(value);
+	                break;
+	            case "--loops":
+	                loopCount = Integer.parseInt(value);
+	                break;
+	            case "--variant":
+	                variant = value;
+	                break;
+	            case "--merge-prereqs":
+	                mergePrereqs = value.equals("on");
+	                break;
+	            default:
+	                throw new IllegalArgumentException("Unknown option " + args[i]);
+	        }
+	    }
+
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.setMergePrereqs(mergePrereqs);
+	    SpellbookServer spellbookServer = new SpellbookServer(book, SpellbookBatch.checkOf(variant), loopCount);
+	    SocketAddress bound = spellbookServer.bind(address);
+	    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+	        try {
+	            spellbookServer.close();
+	        } catch (IOException e) {
+	            // Exiting anyway
+	        }
+	    }));
+	    System.out.println("Serving spellbook on " + bound);
+	    try {
+	        spellbookServer.awaitClose();
+	    } catch (InterruptedException e) {
+	        Thread.currentThread().interrupt();
+	    }
+	}
+
+
+
+   // Starts listening on a loopback address or a Unix-domain socket path and returns the
+   // address bound, which tells the port when port 0 was asked for. The event loops run
+   // until close.
+   public synchronized SocketAddress bind(SocketAddress address) throws IOException {
+	    if (server != null) {
+	        throw new IllegalStateException("Already bound");
+	    }
+	    if (address instanceof InetSocketAddress) {
+	        InetSocketAddress inet = (InetSocketAddress) address;
+	        if (inet.isUnresolved() || !inet.getAddress().isLoopbackAddress()) {
+	            throw new IllegalArgumentException("Not a loopback address: " + address);
+	        }
+	        server = ServerSocketChannel.open();
+	    } else if (address instanceof UnixDomainSocketAddress) {
+	        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+	        socketFile = ((UnixDomainSocketAddress) address).getPath();
+	    } else {
+	        throw new IllegalArgumentException("Unsupported address: " + address);
+	    }
+	    server.configureBlocking(false);
+	    server.bind(address);
+
+	    for (int i = 0; i < loops.length; i++) {
+	        loops[i] = new EventLoop("spellbook-loop-" + i);
+	    }
+	    // The first loop also accepts the connections and hands them round the loops
+	    server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+	    for (EventLoop loop : loops) {
+	        loop.thread.start();
+	    }
+	    return server.getLocalAddress();
+	}
+
+
+
+   // Stops the loops and closes every connection, batches still open on them are closed
+   // without a report
+   public void close() throws IOException {
+	    ServerSocketChannel listening;
+	    synchronized (this) {
+	        listening = server;
+	        if (listening == null || !listening.isOpen()) {
+	            return;
+	        }
+	        listening.close();
+	    }
+	    for (EventLoop loop : loops) {
+	        loop.stop();
+	    }
+	    if (socketFile != null) {
+	        Files.deleteIfExists(socketFile);
+	    }
+	}
+
+
+
+   // Waits until the server is closed and its loops have finished
+   public void awaitClose() throws InterruptedException {
+	    for (EventLoop loop : loops) {
+	        if (loop != null) {
+	            loop.thread.join();
+	        }
+	    }
+	}
+
+
+
+   private synchronized EventLoop nextLoop() {
+	    EventLoop loop = loops[nextLoop];
+	    nextLoop = (nextLoop + 1) % loops.length;
+	    return loop;
+	}
+
+
+
+   // One thread with a selector that owns the connections handed to it; everything done
+   // for those connections is done on this thread
+   private final class EventLoop implements Runnable {
+      private final Selector        selector;
+      private final Thread          thread;
+      private final Queue<SocketChannel> handedOver;
+      private volatile boolean      running;
+      private SelectionKey          acceptPaused;
+      private long                  acceptResume;
+
+      EventLoop(String name) throws IOException {
+         selector = Selector.open();
+         thread = new Thread(this, name);
+         thread.setDaemon(true);
+         handedOver = new ConcurrentLinkedQueue<>();
+         running = true;
+         acceptPaused = null;
+         acceptResume = 0;
+      }
+
+      void handOver(SocketChannel channel) {
+	       handedOver.add(channel);
+	       selector.wakeup();
+	   }
+
+      void stop() {
+	       running = false;
+	       selector.wakeup();
+	       try {
+	           thread.join();
+	       } catch (InterruptedException e) {
+	           Thread.currentThread().interrupt();
+	       }
+	   }
+
+      // Only a failing select ends the loop, every other failure is one connection's
+      public void run() {
+	       try {
+	           while (running) {
+	               selector.select(acceptPaused != null ? ACCEPT_RETRY_MILLIS : 0);
+	               resumeAccepting();
+	               registerHandedOver();
+	               Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+	               while (keys.hasNext()) {
+	                   SelectionKey key = keys.next();
+	                   keys.remove();
+	                   if (!key.isValid()) {
+	                       continue;
+	                   }
+	                   if (key.isAcceptable()) {
+	                       accept(key);
+	                   } else {
+	                       ((Connection) key.attachment()).ready(key);
+	                   }
+	               }
+	           }
+	       } catch (IOException e) {
+	           throw new UncheckedIOException(e);
+	       } finally {
+	           for (SelectionKey key : selector.keys()) {
+	               if (key.attachment() instanceof Connection) {
+	                   ((Connection) key.attachment()).close();
+	               }
+	           }
+	           SocketChannel channel;
+	           while ((channel = handedOver.poll()) != null) {
+	               // Never served, nothing else to release
+	               closeQuietly(channel);
+	           }
+	           try {
+	               selector.close();
+	           } catch (IOException e) {
+	               // Nothing left to release
+	           }
+	       }
+	   }
+
+      // Accepts every connection that is waiting. An accept that fails, for instance
+      // because the process is out of file descriptors, leaves the connection waiting and
+      // pauses accepting for ACCEPT_RETRY_MILLIS instead of retrying it in a busy loop;
+      // the connections already open are served as before.
+      private void accept(SelectionKey key) {
+	       while (true) {
+	           SocketChannel channel;
+	           try {
+	               channel = server.accept();
+	           } catch (IOException e) {
+	               // Closing the server also ends up here, that needs no retry
+	               if (server.isOpen()) {
+	                   LOG.log(Level.WARNING, "Accepting a connection failed, retrying", e);
+	                   key.interestOps(0);
+	                   acceptPaused = key;
+	                   acceptResume = System.nanoTime() + ACCEPT_RETRY_MILLIS * 1_000_000;
+	               }
+	               return;
+	           }
+	           if (channel == null) {
+	               return;
+	           }
+	           try {
+	               channel.configureBlocking(false);
+	           } catch (IOException e) {
+	               LOG.log(Level.WARNING, "Dropping a connection", e);
+	               closeQuietly(channel);
+	               continue;
+	           }
+	           nextLoop().handOver(channel);
+	       }
+	   }
+
+      private void resumeAccepting() {
+	       if (acceptPaused != null && System.nanoTime() - acceptResume >= 0) {
+	           if (acceptPaused.isValid()) {
+	               acceptPaused.interestOps(SelectionKey.OP_ACCEPT);
+	           }
+	           acceptPaused = null;
+	       }
+	   }
+
+      private void registerHandedOver() {
+	       SocketChannel channel;
+	       while ((channel = handedOver.poll()) != null) {
+	           Connection connection = new Connection(channel);
+	           try {
+	               connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	           } catch (IOException e) {
+	               LOG.log(Level.WARNING, "Dropping a connection", e);
+	               closeQuietly(channel);
+	           }
+	       }
+	   }
+   }
+
+
+
+   // A client, its session and the run its lines belong to
+   private final class Connection implements BuildSpellbook.OutputSink {
+      private final SocketChannel   channel;
+      private final BuildSpellbook.Run run;
+      private final ByteBuffer      input;
+      private final ByteArrayLine   line;
+      private final CharsetEncoder  encoder;
+      private ByteBuffer            output;
+      private SelectionKey          key;
+      private boolean               ending;
+      private boolean               closed;
+
+      Connection(SocketChannel channel) {
+         this.channel = channel;
+         run = book.newSession().startRun(check);
+         input = ByteBuffer.allocate(READ_SIZE);
+         line = new ByteArrayLine();
+         encoder = StandardCharsets.UTF_8.newEncoder();
+         output = ByteBuffer.allocate(READ_SIZE);
+         ending = false;
+         closed = false;
+      }
+
+      // Writes what is pending, reads what arrived and runs the complete lines read so far.
+      // Lines are run in rounds that stop at MAX_PENDING bytes of answers; another round
+      // follows as soon as the socket took all of them, until no line is left.
+      void ready(SelectionKey key) {
+	       try {
+	           if (key.isWritable()) {
+	               flush();
+	           }
+	           if (key.isValid() && key.isReadable() && channel.read(input) == -1) {
+	               close();
+	               return;
+	           }
+	           while (!closed && !ending && output.position() == 0 && input.position() > 0) {
+	               runLines();
+	           }
+	       } catch (IOException e) {
+	           // A client that went away or broke the protocol only ends this connection
+	           LOG.log(Level.FINE, "Closing a connection", e);
+	           close();
+	       } catch (RuntimeException e) {
+	           LOG.log(Level.WARNING, "Closing a connection after a failure", e);
+	           close();
+	       }
+	   }
+
+      // Runs the complete lines in the input until their answers reach MAX_PENDING bytes,
+      // and answers them in one write. A command that throws is answered with an error
+      // line and the session goes on with the next line.
+      private void runLines() throws IOException {
+	       input.flip();
+	       while (input.hasRemaining() && !ending) {
+	           byte b = input.get();
+	           if (b != '\n') {
+	               if (!line.append(b)) {
+	                   throw new IOException("Line too long");
+	               }
+	               continue;
+	           }
+	           String spec = line.take();
+	           try {
+	               if (!run.exec(spec, this)) {
+	                   ending = true;
+	               }
+	           } catch (RuntimeException e) {
+	               LOG.log(Level.WARNING, "Command failed: " + spec, e);
+	               add("   Command failed: " + e);
+	           }
+	           add("");
+	           // A client that does not read its answers is not read from either
+	           if (output.position() >= MAX_PENDING) {
+	               break;
+	           }
+	       }
+	       input.compact();
+	       flush();
+	   }
+
+      // Writes as much of the output as the socket takes, reading pauses while some is left
+      private void flush() throws IOException {
+	       output.flip();
+	       channel.write(output);
+	       output.compact();
+	       boolean pending = output.position() > 0;
+	       if (!pending && ending) {
+	           close();
+	           return;
+	       }
+	       int interest = pending ? SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+	       if (key.interestOps() != interest) {
+	           key.interestOps(interest);
+	       }
+	   }
+
+      // Buffers one output line of a command
+      public void add(String text) {
+	       CharBuffer chars = CharBuffer.wrap(text);
+	       encoder.reset();
+	       while (true) {
+	           CoderResult result = chars.hasRemaining() ? encoder.encode(chars, output, true) : CoderResult.UNDERFLOW;
+	           if (result.isUnderflow() && output.remaining() > 0) {
+	               break;
+	           }
+	           output = grow(output);
+	       }
+	       output.put((byte) '\n');
+	   }
+
+      void close() {
+	       if (closed) {
+	           return;
+	       }
+	       closed = true;
+	       try {
+	           // Hand the lines of a batch that was left open to the cycle detector
+	           run.end(null);
+	       } finally {
+	           key.cancel();
+	           try {
+	               channel.close();
+	           } catch (IOException e) {
+	               // The connection is gone either way
+	           }
+	       }
+	   }
+   }
+
+
+
+   // The bytes of the line being read, decoded once it is complete
+   private static final class ByteArrayLine {
+      private byte[]                bytes;
+      private int                   length;
+
+      ByteArrayLine() {
+         bytes = new byte[256];
+         length = 0;
+      }
+
+      boolean append(byte b) {
+	       if (length == bytes.length) {
+	           if (length == MAX_LINE) {
+	               return false;
+	           }
+	           bytes = Arrays.copyOf(bytes, Math.min(length * 2, MAX_LINE));
+	       }
+	       bytes[length++] = b;
+	       return true;
+	   }
+
+      // The line without a trailing carriage return, and starts the next one
+      String take() {
+	       int end = length > 0 && bytes[length - 1] == '\r' ? length - 1 : length;
+	       String text = new String(bytes, 0, end, StandardCharsets.UTF_8);
+	       length = 0;
+	       return text;
+	   }
+   }
+
+
+
+   private static ByteBuffer grow(ByteBuffer buffer) {
+	    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+	    buffer.flip();
+	    larger.put(buffer);
+	    return larger;
+	}
+
+
+
+   private static void closeQuietly(SocketChannel channel) {
+	    try {
+	        channel.close();
+	    } catch (IOException e) {
+	        // Nothing else to release
+	    }
+	}
+
+}
@@ -0,0 +1,164 @@
+
+package student;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Binary checkpoint of a spellbook: the PREREQ lines in order, the learned spells in the
+// order they were learned with their implicit flags, and how far the command log had got
+// when the checkpoint was taken. Every spell name is stored once in a name table and the
+// lines and learned spells refer to it by number, which is the spell id at the time the
+// snapshot was written. Counts and numbers are big-endian ints:
+//
+//    magic "SPBK", version, log offset (long), closure broken (byte), merging (byte)
+//    name count, then per name: length in bytes, UTF-8 bytes
+//    line count, then per line: spell count, name numbers (main spell first)
+//    learned count, then per spell: name number, implicit (byte)
+//
+// Version 1 had no merging byte, it is read as merging off. Reading maps the file into
+// memory instead of copying it through a stream.
+class SpellbookSnapshot {
+
+   private static final int         MAGIC = 0x5350424B;
+   private static final int         VERSION = 2;
+
+   final String[]                   names;
+   final int[][]                    lines;
+   final int[]                      learned;
+   final boolean[]                  implicit;
+   final boolean                    closureBroken;
+   final boolean                    merging;
+   final long                       logOffset;
+
+   private SpellbookSnapshot(String[] names, int[][] lines, int[] learned, boolean[] implicit,
+                             boolean closureBroken, boolean merging, long logOffset) {
+      this.names = names;
+      this.lines = lines;
+      this.learned = learned;
+      this.implicit = implicit;
+      this.closureBroken = closureBroken;
+      this.merging = merging;
+      this.logOffset = logOffset;
+   }
+
+
+
+   // Writes the snapshot to a temporary file next to the target and moves it into place,
+   // so a crash while writing never leaves a half written snapshot behind. Spell ids are
+   // written as they are, so the name table is the whole symbol table of the graph.
+   static void write(Path file, PrereqGraph.View lines, LearnedSpells learned,
+                     boolean closureBroken, boolean merging, long logOffset) throws IOException {
+	    // Every id in the lines and the learned set was handed out before this point
+	    int nameCount = 0;
+	    for (int position = 0; position < lines.size(); position++) {
+	        nameCount = Math.max(nameCount, lines.main(position) + 1);
+	        for (int index = 0; index < lines.prereqCount(position); index++) {
+	            nameCount = Math.max(nameCount, lines.prereq(position, index) + 1);
+	        }
+	    }
+	    int[] learnedSpells = learned.toArray();
+	    for (int spell : learnedSpells) {
+	        nameCount = Math.max(nameCount, spell + 1);
+	    }
+
+	    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+	    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+	        out.writeInt(MAGIC);
+	        out.writeInt(VERSION);
+	        out.writeLong(logOffset);
+	        out.writeBoolean(closureBroken);
+	        out.writeBoolean(merging);
+
+	        out.writeInt(nameCount);
+	        for (int spell = 0; spell < nameCount; spell++) {
+	            byte[] bytes = lines.name(spell).getBytes(StandardCharsets.UTF_8);
+	            out.writeInt(bytes.length);
+	            out.write(bytes);
+	        }
+
+	        out.writeInt(lines.size());
+	        for (int position = 0; position < lines.size(); position++) {
+	            out.writeInt(lines.prereqCount(position) + 1);
+	            out.writeInt(lines.main(position));
+	            for (int index = 0; index < lines.prereqCount(position); index++) {
+	                out.writeInt(lines.prereq(position, index));
+	            }
+	        }
+
+	        out.writeInt(learnedSpells.length);
+	        for (int spell : learnedSpells) {
+	            out.writeInt(spell);
+	            out.writeBoolean(learned.isImplicit(spell));
+	        }
+	    }
+	    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+	        channel.force(true);
+	    }
+	    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+
+   static SpellbookSnapshot read(Path file) throws IOException {
+	    MappedByteBuffer in;
+	    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+	        // The mapping stays valid after the channel is closed
+	        in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	    }
+
+	    try {
+	        if (in.getInt() != MAGIC) {
+	            throw new IOException(file + " is not a spellbook snapshot");
+	        }
+	        int version = in.getInt();
+	        if (version != 1 && version != VERSION) {
+	            throw new IOException(file + " has unsupported snapshot version " + version);
+	        }
+	        long logOffset = in.getLong();
+	        boolean closureBroken = in.get() != 0;
+	        boolean merging = version >= 2 && in.get() != 0;
+
+	        String[] names = new String[in.getInt()];
+	        byte[] bytes = new byte[64];
+	        for (int i = 0; i < names.length; i++) {
+	            int length = in.getInt();
+	            if (length > bytes.length) {
+	                bytes = new byte[Math.max(length, bytes.length * 2)];
+	            }
+	            in.get(bytes, 0, length);
+	            names[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+	        }
+
+	        int[][] lines = new int[in.getInt()][];
+	        for (int i = 0; i < lines.length; i++) {
+	            int[] line = new int[in.getInt()];
+	            for (int j = 0; j < line.length; j++) {
+	                line[j] = checkName(in.getInt(), names);
+	            }
+	            lines[i] = line;
+	        }
+
+	        int[] learned = new int[in.getInt()];
+	        boolean[] implicit = new boolean[learned.length];
+	        for (int i = 0; i < learned.length; i++) {
+	            learned[i] = checkName(in.getInt(), names);
+	            implicit[i] = in.get() != 0;
+	        }
+	        return new SpellbookSnapshot(names, lines, learned, implicit, closureBroken, merging, logOffset);
+	    } catch (RuntimeException e) {
+	        // A short file or a name number out of range
+	        throw new IOException(file + " is not a valid spellbook snapshot", e);
+	    }
+	}
+
+
+
+   private static int checkName(int number, String[] names) {
+	    return Objects.checkIndex(number, names.length);
+	}
+
+}
@@ -0,0 +1,205 @@
+
+package student;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays a recorded trace, a spec file or a CommandLog, through one of the execNSpecs
+// variants and reports throughput and latency per command. The trace is streamed, so
+// traces larger than memory replay as well as small ones.
+//
+//    java student.TraceReplay --trace specs.txt [--variant execNSpecswCheck]
+//                             [--rate 0] [--limit 1000000] [--output out.txt]
+//
+// At rate 0 every command starts as soon as the one before it ended and the latency of a
+// command is the time it ran. With a rate in commands per second the commands are due at
+// fixed intervals from the start, the way clients would send them; a command that has to
+// wait for an earlier slow one counts the wait in its latency, so a stall shows up in the
+// tail instead of being hidden by the commands that were never sent during it. Output goes
+// to the output file or is dropped.
+public class TraceReplay {
+
+   // Throughput and latency of one replay, latencies in nanoseconds
+   public static class Report {
+      public long                    commands;
+      public long                    outputLines;
+      public long                    wallNanos;
+      public double                  targetRate;
+      public SpellbookMetrics.Histogram[] latencies;
+      public SpellbookMetrics.Histogram all;
+
+      Report(double targetRate) {
+         this.targetRate = targetRate;
+         latencies = new SpellbookMetrics.Histogram[SpellbookMetrics.commandCount()];
+         for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new SpellbookMetrics.Histogram();
+         }
+         all = new SpellbookMetrics.Histogram();
+      }
+
+      public double commandsPerSecond() {
+	       return wallNanos == 0 ? 0 : commands * 1e9 / wallNanos;
+	   }
+
+      public String format() {
+	       StringBuilder report = new StringBuilder();
+	       report.append(String.format("%d commands, %d output lines in %.1f ms: %.0f commands/s%s%n", commands,
+	               outputLines, wallNanos / 1e6, commandsPerSecond(),
+	               targetRate > 0 ? String.format(" (target %.0f/s)", targetRate) : ""));
+	       report.append(String.format("%-10s %10s %10s %10s %10s %10s %10s%n", "command", "count", "p50 us",
+	               "p90 us", "p99 us", "p99.9 us", "max us"));
+	       for (int i = 0; i < latencies.length; i++) {
+	           if (latencies[i].count() > 0) {
+	               line(report, SpellbookMetrics.commandName(i), latencies[i]);
+	           }
+	       }
+	       line(report, "all", all);
+	       return report.toString();
+	   }
+
+      private static void line(StringBuilder report, String name, SpellbookMetrics.Histogram latency) {
+	       report.append(String.format("%-10s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, latency.count(),
+	               latency.percentile(50) / 1e3, latency.percentile(90) / 1e3, latency.percentile(99) / 1e3,
+	               latency.percentile(99.9) / 1e3, latency.max() / 1e3));
+	   }
+   }
+
+   private final BuildSpellbook.CycleCheck check;
+   private final double             rate;
+   private final long               limit;
+
+   // rate is in commands per second, 0 for as fast as they run
+   public TraceReplay(BuildSpellbook.CycleCheck check, double rate, long limit) {
+      if (rate < 0) {
+         throw new IllegalArgumentException("rate must not be negative");
+      }
+      this.check = check;
+      this.rate = rate;
+      this.limit = limit;
+   }
+
+
+
+   public static void main(String[] args) throws IOException {
+	    // Defaults, each of them can be overridden from the command line
+	    Path trace = null;
+	    String variant = "execNSpecswCheck";
+	    double rate = 0;
+	    long limit = Long.MAX_VALUE;
+	    Path output = null;
+
+	    for (int i = 0; i < args.length; i += 2) {
+	        if (i + 1 >= args.length) {
+	            throw new IllegalArgumentException("No value for " + args[i]);
+	        }
+	        String value = args[i + 1];
+	        switch (args[i]) {
+	            case "--trace":
+	                trace = Paths.get(value);
+	                break;
+	            case "--variant":
+	                variant = value;
+	                break;
+	            case "--rate":
+	                rate = Double.parseDouble(value);
+	                break;
+	            case "--limit":
+	                limit = Long.parseLong(value);
+	                break;
+	            case "--output":
+	                output = Paths.get(value);
+	                break;
+	            default:
+	                throw new IllegalArgumentException("Unknown option " + args[i]);
+	        }
+	    }
+	    if (trace == null) {
+	        throw new IllegalArgumentException("No --trace given");
+	    }
+
+	    TraceReplay replay = new TraceReplay(SpellbookBatch.checkOf(variant), rate, limit);
+	    Report report;
+	    if (output == null) {
+	        report = replay.replay(trace, new BuildSpellbook(), line -> { });
+	    } else {
+	        try (BufferedWriter writer = Files.newBufferedWriter(output, Charset.defaultCharset())) {
+	            report = replay.replay(trace, new BuildSpellbook(), line -> {
+	                try {
+	                    writer.write(line);
+	                    writer.newLine();
+	                } catch (IOException e) {
+	                    throw new UncheckedIOException(e);
+	                }
+	            });
+	        }
+	    }
+	    System.out.print(report.format());
+	}
+
+
+
+   public Report replay(Path trace, BuildSpellbook book, BuildSpellbook.OutputSink output) throws IOException {
+	    // Read with the platform charset, the same way readSpecsFromFile does
+	    try (BufferedReader reader = Files.newBufferedReader(trace, Charset.defaultCharset())) {
+	        return replay(reader, book, output);
+	    }
+	}
+
+
+
+   // Runs the trace on the spellbook as one run of the variant, handing its output to the
+   // sink, until the trace ends, the limit is reached or a command ends the run
+   public Report replay(BufferedReader trace, BuildSpellbook book, BuildSpellbook.OutputSink output) throws IOException {
+	    Report report = new Report(rate);
+	    BuildSpellbook.Run run = book.startRun(check);
+	    SpecTokenizer tokens = new SpecTokenizer();
+	    long[] lines = { 0 };
+	    BuildSpellbook.OutputSink counted = line -> {
+	        lines[0]++;
+	        output.add(line);
+	    };
+	    double interval = rate > 0 ? 1e9 / rate : 0;
+
+	    long start = System.nanoTime();
+	    boolean completed = false;
+	    try {
+	        String spec;
+	        while (report.commands < limit && (spec = trace.readLine()) != null) {
+	            long due = rate > 0 ? start + (long) (report.commands * interval) : System.nanoTime();
+	            waitUntil(due);
+	            boolean more = run.exec(spec, counted);
+	            long latency = System.nanoTime() - due;
+	            int opcode = tokens.reset(spec);
+	            report.latencies[opcode].record(latency);
+	            report.all.record(latency);
+	            report.commands++;
+	            if (!more) {
+	                break;
+	            }
+	        }
+	        completed = true;
+	    } finally {
+	        run.end(completed ? counted : null);
+	    }
+	    report.wallNanos = System.nanoTime() - start;
+	    report.outputLines = lines[0];
+	    return report;
+	}
+
+
+
+   // Parks until the deadline, spinning for the last stretch where parking is too coarse
+   private static void waitUntil(long deadline) {
+	    long remaining;
+	    while ((remaining = deadline - System.nanoTime()) > 0) {
+	        if (remaining > 100_000) {
+	            LockSupport.parkNanos(remaining - 50_000);
+	        } else {
+	            Thread.onSpinWait();
+	        }
+	    }
+	}
+
+}
@@ -0,0 +1,82 @@
+package student;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// JMH throughput benchmark of the four execNSpecs variants on every workload of
+// SpellbookBenchmark. One operation replays the whole workload on a fresh
+// BuildSpellbook, so the score is in workload runs per second. main adds the GC
+// profiler, which reports the allocation rate (gc.alloc.rate, gc.alloc.rate.norm)
+// next to each score, the same as -prof gc does.
+//
+//    mvn -B package
+//    java -jar benchmarks/target/benchmarks.jar [-p size=100,1000] [-p workload=chain,dag] ...
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecNSpecsBenchmark {
+
+   @Param({ "100", "1000", "10000" })
+   public int                size;
+
+   @Param({ "chain", "fanout", "diamond", "dag", "cycle", "forget" })
+   public String             workload;
+
+   private Vector<String>    specs;
+
+   @Setup(Level.Trial)
+   public void buildWorkload() {
+	    specs = SpellbookBenchmark.workload(workload, size, 42);
+	}
+
+
+
+   @Benchmark
+   public Vector<String> execNSpecs() {
+	    return new BuildSpellbook().execNSpecs(specs, specs.size());
+	}
+
+
+
+   @Benchmark
+   public Vector<String> execNSpecswCheck() {
+	    return new BuildSpellbook().execNSpecswCheck(specs, specs.size());
+	}
+
+
+
+   @Benchmark
+   public Vector<String> execNSpecswCheckRecLarge() {
+	    return new BuildSpellbook().execNSpecswCheckRecLarge(specs, specs.size());
+	}
+
+
+
+   @Benchmark
+   public Vector<String> execNSpecswCheckRecSmall() {
+	    return new BuildSpellbook().execNSpecswCheckRecSmall(specs, specs.size());
+	}
+
+
+
+   public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+	    // Command line options of JMH still apply, the GC profiler is always on
+	    new Runner(new OptionsBuilder()
+	            .parent(new CommandLineOptions(args))
+	            .include(ExecNSpecsBenchmark.class.getSimpleName())
+	            .addProfiler(GCProfiler.class)
+	            .build()).run();
+	}
+
+}
@@ -0,0 +1,339 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class BuildSpellbookTest {
+
+   private static Vector<String> specs(String... lines) {
+	    return new Vector<>(Arrays.asList(lines));
+	}
+
+
+
+   private static List<String> run(String variant, String... lines) {
+	    return SpellbookBenchmark.run(variant, new BuildSpellbook(), specs(lines));
+	}
+
+
+
+   @Test
+   void learnsForgetsAndLists() {
+	    List<String> expected = List.of("PREREQ A B C", "PREREQ B D", "LEARN A",
+	            "   Learning D", "   Learning B", "   Learning C", "   Learning A",
+	            "ENUM", "   D", "   B", "   C", "   A",
+	            "REQUIRES A", "   B", "   C", "   D",
+	            "DEPENDENTS D", "   A", "   B",
+	            "FORGET A", "   Forgetting A", "   Forgetting C", "   Forgetting B", "   Forgetting D",
+	            "LEARN B", "   Learning D", "   Learning B",
+	            "FORGET D", "   D is still needed", "ENUM", "   D", "   B");
+	    for (String variant : SpellbookBenchmark.VARIANTS) {
+	        assertEquals(expected, run(variant, "PREREQ A B C", "PREREQ B D", "LEARN A", "ENUM", "REQUIRES A",
+	                "DEPENDENTS D", "FORGET A", "LEARN B", "FORGET D", "ENUM"), variant);
+	    }
+	}
+
+
+
+   @Test
+   void hasPrereqMatchesWholeNames() {
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.execNSpecs(specs("PREREQ Fireball Ash", "PREREQ Fire Spark", "PREREQ Fireball Smoke"), 3);
+	    assertEquals(0, book.hasPrereq("Fireball"));
+	    assertEquals(1, book.hasPrereq("Fire"));
+	    assertEquals(-1, book.hasPrereq("Fir"));
+	    assertEquals(-1, book.hasPrereq("Ash"));
+	}
+
+
+
+   @Test
+   void onlyTheFirstLineOfASpellIsFollowed() {
+	    assertEquals(List.of("PREREQ A B", "PREREQ A C", "LEARN A", "   Learning B", "   Learning A"),
+	            new BuildSpellbook().execNSpecs(specs("PREREQ A B", "PREREQ A C", "LEARN A"), 3));
+	}
+
+
+
+   @Test
+   void checkedVariantsStopLearningAfterACycle() {
+	    Vector<String> specs = specs("PREREQ A B", "PREREQ B C", "PREREQ C A", "LEARN A", "ENUM");
+	    assertEquals(List.of("PREREQ A B", "PREREQ B C", "PREREQ C A", "   Found cycle in prereqs", "LEARN A", "ENUM"),
+	            new BuildSpellbook().execNSpecswCheck(specs, specs.size()));
+	    assertEquals(List.of("PREREQ A B", "PREREQ B C", "PREREQ C A", "   Found cycle in prereqs",
+	            "   Suggest forgetting PREREQ C A", "LEARN A"),
+	            new BuildSpellbook().execNSpecswCheckRecLarge(specs, 4));
+	    assertEquals(List.of("PREREQ A B", "PREREQ B C", "PREREQ C A", "   Found cycle in prereqs",
+	            "   Suggest forgetting PREREQ C A", "LEARN A"),
+	            new BuildSpellbook().execNSpecswCheckRecSmall(specs, 4));
+	}
+
+
+
+   @Test
+   void unknownCommandEndsOnlyTheUncheckedRun() {
+	    Vector<String> specs = specs("PREREQ A B", "LEARN A", "BOGUS", "LEARN B");
+	    assertEquals(List.of("PREREQ A B", "LEARN A", "   Learning B", "   Learning A", "BOGUS"),
+	            new BuildSpellbook().execNSpecs(specs, specs.size()));
+	    assertEquals(List.of("PREREQ A B", "LEARN A", "   Learning B", "   Learning A", "BOGUS",
+	            "LEARN B", "   B is already learned"),
+	            new BuildSpellbook().execNSpecswCheck(specs, specs.size()));
+	}
+
+
+
+   @Test
+   void batchIsCheckedAtEnd() {
+	    assertEquals(List.of("PREREQ A B", "BEGIN", "PREREQ B C", "PREREQ C A", "END", "   Loaded 2 PREREQ lines",
+	            "   Found cycle in prereqs: 3 rules, closed by PREREQ C A", "LEARN A"),
+	            run("execNSpecswCheck", "PREREQ A B", "BEGIN", "PREREQ B C", "PREREQ C A", "END", "LEARN A"));
+	}
+
+
+
+   @Test
+   void batchOfOneSessionLeavesTheOthersChecked() {
+	    BuildSpellbook first = new BuildSpellbook();
+	    BuildSpellbook second = first.newSession();
+	    BuildSpellbook.Run batch = first.startRun(BuildSpellbook.CycleCheck.DETECT);
+	    List<String> ignored = new ArrayList<>();
+	    batch.exec("BEGIN", ignored::add);
+	    batch.exec("PREREQ Q R", ignored::add);
+
+	    BuildSpellbook.Run run = second.startRun(BuildSpellbook.CycleCheck.DETECT);
+	    List<String> output = new ArrayList<>();
+	    for (String spec : List.of("PREREQ X Y", "PREREQ Y X", "LEARN X")) {
+	        run.exec(spec, output::add);
+	    }
+	    run.end(output::add);
+	    assertEquals(List.of("PREREQ X Y", "PREREQ Y X", "   Found cycle in prereqs", "LEARN X"), output);
+	    batch.end(ignored::add);
+	}
+
+
+
+   @Test
+   void interleavedBatchesMeetAtTheFirstEnd() {
+	    BuildSpellbook first = new BuildSpellbook();
+	    BuildSpellbook second = first.newSession();
+	    BuildSpellbook third = first.newSession();
+	    BuildSpellbook.Run firstRun = first.startRun(BuildSpellbook.CycleCheck.DETECT);
+	    BuildSpellbook.Run secondRun = second.startRun(BuildSpellbook.CycleCheck.DETECT);
+	    BuildSpellbook.Run thirdRun = third.startRun(BuildSpellbook.CycleCheck.DETECT);
+	    List<String> firstOutput = new ArrayList<>();
+	    List<String> secondOutput = new ArrayList<>();
+	    List<String> thirdOutput = new ArrayList<>();
+	    firstRun.exec("BEGIN", firstOutput::add);
+	    firstRun.exec("PREREQ A B", firstOutput::add);
+	    secondRun.exec("BEGIN", secondOutput::add);
+	    secondRun.exec("PREREQ B C", secondOutput::add);
+
+	    // Lines still in a batch are rules every session sees, but they are not in the
+	    // detector, so C -> A closes nothing yet
+	    thirdRun.exec("PREREQ C A", thirdOutput::add);
+	    assertEquals(List.of("PREREQ C A"), thirdOutput);
+	    assertEquals(0, third.hasPrereq("A"));
+
+	    // The first END rebuilds the detector from every line, the open batch of the first
+	    // session included, and finds the cycle the three sessions made together
+	    firstRun.exec("PREREQ D E", firstOutput::add);
+	    secondRun.exec("END", secondOutput::add);
+	    assertEquals(List.of("BEGIN", "PREREQ B C", "END", "   Loaded 1 PREREQ lines",
+	            "   Found cycle in prereqs: 3 rules, closed by PREREQ C A"), secondOutput);
+	    thirdOutput.clear();
+	    thirdRun.exec("PREREQ F G", thirdOutput::add);
+	    assertEquals(List.of("PREREQ F G", "   Found cycle in prereqs"), thirdOutput);
+	    firstRun.exec("END", firstOutput::add);
+	    assertEquals(List.of("BEGIN", "PREREQ A B", "PREREQ D E", "END", "   Loaded 2 PREREQ lines",
+	            "   Found cycle in prereqs: 3 rules, closed by PREREQ C A"), firstOutput);
+	}
+
+
+
+   @Test
+   void loadPrereqsReportsCyclesOnce() throws IOException {
+	    BuildSpellbook book = new BuildSpellbook();
+	    List<String> output = new ArrayList<>();
+	    assertEquals(3, book.loadPrereqs(new StringReader("PREREQ A B\n\nPREREQ B A\nPREREQ C D\n"), output::add));
+	    assertEquals(List.of("   Loaded 3 PREREQ lines", "   Found cycle in prereqs: 2 rules, closed by PREREQ B A"),
+	            output);
+	    assertTrue(book.checkForCycle());
+	}
+
+
+
+   @Test
+   void streamingMatchesTheVectorRun() throws IOException {
+	    Vector<String> specs = SpellbookBenchmark.workload("dag", 300, 5);
+	    Vector<String> expected = new BuildSpellbook().execNSpecswCheck(specs, specs.size());
+	    List<String> streamed = new ArrayList<>();
+	    long count = new BuildSpellbook().execStream(new StringReader(String.join("\n", specs)), Long.MAX_VALUE,
+	            BuildSpellbook.CycleCheck.DETECT, streamed::add);
+	    assertEquals(specs.size(), count);
+	    assertEquals(expected, streamed);
+	}
+
+
+
+   @Test
+   void sessionsShareRulesButNotLearnedSpells() {
+	    BuildSpellbook first = new BuildSpellbook();
+	    BuildSpellbook second = first.newSession();
+	    first.execNSpecs(specs("PREREQ A B", "LEARN A"), 2);
+	    assertTrue(first.learnedSpell("A"));
+	    assertFalse(second.learnedSpell("A"));
+	    assertEquals(List.of("LEARN A", "   Learning B", "   Learning A"),
+	            second.execNSpecs(specs("LEARN A"), 1));
+	}
+
+
+
+   @Test
+   void mergedRulesAreRewritten() {
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.setMergePrereqs(true);
+	    List<String> output = book.execNSpecs(specs("PREREQ A B", "PREREQ A C", "REPLACE PREREQ A D",
+	            "REMOVE PREREQ B", "LEARN A"), 10);
+	    assertEquals(List.of("PREREQ A B", "PREREQ A C", "REPLACE PREREQ A D", "REMOVE PREREQ B", "LEARN A",
+	            "   Learning D", "   Learning A"), output);
+	}
+
+
+
+   @Test
+   void readViewKeepsItsAnswersAfterLaterCommands() {
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.setReadViews(true);
+	    book.execNSpecs(specs("PREREQ A B", "PREREQ C D", "LEARN A", "LEARN C"), 4);
+	    LearnedView view = book.readView();
+	    List<String> before = new ArrayList<>();
+	    view.dependents("B", before::add);
+	    assertEquals(List.of("   A"), before);
+
+	    // D now requires B, so C does too, and E is learned on top of it
+	    book.execNSpecs(specs("PREREQ D B", "PREREQ E C", "LEARN E"), 3);
+	    List<String> live = new ArrayList<>();
+	    book.dependents("B", live::add);
+	    assertEquals(List.of("   A", "   C", "   D", "   E"), live);
+
+	    List<String> after = new ArrayList<>();
+	    view.dependents("B", after::add);
+	    assertEquals(before, after);
+	    assertEquals(List.of("B", "A", "D", "C"), view.learnedSpells());
+	}
+
+
+
+   @Test
+   void forgettingStopsAtPrereqsStillShared() {
+	    BuildSpellbook book = new BuildSpellbook();
+	    List<String> output = book.execNSpecs(specs("PREREQ A C", "PREREQ B C D", "PREREQ C E", "LEARN A", "LEARN B",
+	            "FORGET A"), 6);
+	    assertEquals(List.of("PREREQ A C", "PREREQ B C D", "PREREQ C E", "LEARN A", "   Learning E", "   Learning C",
+	            "   Learning A", "LEARN B", "   Learning D", "   Learning B", "FORGET A", "   Forgetting A"), output);
+	    assertTrue(book.isPre("C"));
+	    assertTrue(book.isPre("E"));
+	    assertEquals(List.of("FORGET B", "   Forgetting B", "   Forgetting D", "   Forgetting C", "   Forgetting E",
+	            "ENUM"), book.execNSpecs(specs("FORGET B", "ENUM"), 2));
+	    assertFalse(book.isPre("C"));
+	    assertFalse(book.isPre("E"));
+	}
+
+
+
+   @Test
+   void rulesOfOtherSessionsAreCountedOnCatchingUp() {
+	    BuildSpellbook first = new BuildSpellbook();
+	    BuildSpellbook second = first.newSession();
+	    first.execNSpecs(specs("PREREQ A B", "LEARN A"), 2);
+	    assertFalse(first.isPre("C"));
+	    // B is learned in the first session, so the rule makes it a learned dependent of C
+	    // while C itself is not learned
+	    second.execNSpecs(specs("PREREQ B C"), 1);
+	    assertTrue(first.isPre("C"));
+	    assertFalse(second.isPre("C"));
+	    assertEquals(List.of("FORGET A", "   Forgetting A", "   Forgetting B", "ENUM"),
+	            first.execNSpecs(specs("FORGET A", "ENUM"), 2));
+	    assertFalse(first.isPre("C"));
+	}
+
+
+
+   @Test
+   void rewrittenRulesAreRecounted() {
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.setMergePrereqs(true);
+	    book.execNSpecs(specs("PREREQ A B", "PREREQ D B", "LEARN A", "REPLACE PREREQ A C"), 4);
+	    assertFalse(book.isPre("B"));
+	    assertTrue(book.isPre("C"));
+	    book.execNSpecs(specs("LEARN D"), 1);
+	    assertTrue(book.isPre("B"));
+	    book.execNSpecs(specs("REMOVE PREREQ D B"), 1);
+	    assertFalse(book.isPre("B"));
+	    // A's rule names C, which is not learned, so forgetting has to look below A
+	    assertEquals(List.of("FORGET B", "   Forgetting B", "FORGET A", "   Forgetting A", "ENUM", "   D"),
+	            book.execNSpecs(specs("FORGET B", "FORGET A", "ENUM"), 3));
+	    assertFalse(book.isPre("C"));
+	}
+
+
+
+   @Test
+   void sessionBehindTheRewriteLogRecountsEverything() {
+	    BuildSpellbook first = new BuildSpellbook();
+	    first.setMergePrereqs(true);
+	    BuildSpellbook second = first.newSession();
+	    first.execNSpecs(specs("PREREQ A B", "PREREQ C D", "LEARN A"), 3);
+	    // More rewrites than the graph keeps a log of
+	    Vector<String> rewrites = new Vector<>();
+	    for (int i = 0; i <= 300; i++) {
+	        rewrites.add(i % 2 == 0 ? "REPLACE PREREQ A D" : "REPLACE PREREQ A B");
+	    }
+	    second.execNSpecs(rewrites, rewrites.size());
+	    assertTrue(first.isPre("D"));
+	    assertFalse(first.isPre("B"));
+	    assertEquals(List.of("FORGET A", "   Forgetting A", "ENUM", "   B"),
+	            first.execNSpecs(specs("FORGET A", "ENUM"), 2));
+	    assertFalse(first.isPre("D"));
+	}
+
+
+
+   @Test
+   void deepChainIsWalkedWithoutRecursion() {
+	    // Deep enough to overflow the stack of any recursive walk
+	    int links = 200_000;
+	    List<String> specs = new ArrayList<>();
+	    for (int i = 0; i < links; i++) {
+	        specs.add("PREREQ S" + i + " S" + (i + 1));
+	    }
+	    specs.addAll(List.of("LEARN S0", "ENUM", "FORGET S0", "ENUM"));
+	    String[] lines = specs.toArray(new String[0]);
+
+	    List<String> expected = new ArrayList<>();
+	    expected.add("LEARN S0");
+	    for (int i = links; i >= 0; i--) {
+	        expected.add("   Learning S" + i);
+	    }
+	    expected.add("ENUM");
+	    for (int i = links; i >= 0; i--) {
+	        expected.add("   S" + i);
+	    }
+	    expected.add("FORGET S0");
+	    for (int i = 0; i <= links; i++) {
+	        expected.add("   Forgetting S" + i);
+	    }
+	    expected.add("ENUM");
+	    // The checked run also takes every line through the cycle detector
+	    for (String variant : new String[] { "execNSpecs", "execNSpecswCheck" }) {
+	        List<String> output = run(variant, lines);
+	        assertEquals(expected, output.subList(links, output.size()), variant);
+	    }
+	}
+
+}
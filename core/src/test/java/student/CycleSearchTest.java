@@ -0,0 +1,73 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+class CycleSearchTest {
+
+   // A cycle 0 -> 1 -> 2 -> 0, a self loop on 3 and a tail 4 -> 5 into the cycle
+   private static final int[][]     EDGES = { { 1 }, { 2 }, { 0 }, { 3 }, { 5 }, { 0 } };
+
+   @Test
+   void findsComponentsAndCycles() {
+	    CycleSearch search = new CycleSearch(EDGES);
+	    assertEquals(search.componentOf(0), search.componentOf(2));
+	    assertEquals(3, search.componentSize(1));
+	    assertTrue(search.onCycle(3));
+	    assertFalse(search.onCycle(4));
+	    assertEquals(2, search.cyclicComponents().size());
+	    assertArrayEquals(new int[] { 1, 2, 0 }, search.shortestCycleThrough(1, Integer.MAX_VALUE));
+	    assertNull(search.shortestCycleThrough(5, Integer.MAX_VALUE));
+	}
+
+
+
+   @Test
+   void longestCycleWithinBudget() {
+	    // Two cycles through 0: 0 -> 1 -> 0 and 0 -> 2 -> 3 -> 4 -> 0
+	    int[][] edges = { { 1, 2 }, { 0 }, { 3 }, { 4 }, { 0 } };
+	    CycleSearch.Result result = new CycleSearch(edges).longestCycle(new int[] { 0, 1, 2, 3, 4 },
+	            Long.MAX_VALUE, Long.MAX_VALUE);
+	    assertTrue(result.optimal);
+	    assertEquals(4, result.cycle.length);
+	}
+
+
+
+   @Test
+   void parallelComponentsMatchTarjan() {
+	    Random random = new Random(11);
+	    ForkJoinPool pool = new ForkJoinPool(4);
+	    try {
+	        for (int round = 0; round < 20; round++) {
+	            // Large enough that the sets are split on the pool before Tarjan takes over
+	            int n = ParallelComponents.SEQUENTIAL_SIZE * 3 + random.nextInt(1000);
+	            int[][] edges = new int[n][];
+	            for (int node = 0; node < n; node++) {
+	                edges[node] = new int[random.nextInt(3)];
+	                for (int i = 0; i < edges[node].length; i++) {
+	                    // Mostly forward edges, a few back ones make components of all sizes
+	                    edges[node][i] = random.nextInt(20) == 0 ? random.nextInt(n)
+	                            : Math.min(n - 1, node + 1 + random.nextInt(50));
+	                }
+	            }
+	            CycleSearch sequential = new CycleSearch(edges);
+	            CycleSearch parallel = new CycleSearch(edges, pool);
+	            for (int node = 0; node < n; node++) {
+	                assertEquals(sequential.componentSize(node), parallel.componentSize(node));
+	                assertEquals(sequential.onCycle(node), parallel.onCycle(node));
+	                int other = edges[node].length > 0 ? edges[node][0] : node;
+	                assertEquals(sequential.componentOf(node) == sequential.componentOf(other),
+	                        parallel.componentOf(node) == parallel.componentOf(other));
+	            }
+	        }
+	    } finally {
+	        pool.shutdown();
+	    }
+	}
+
+}
@@ -0,0 +1,96 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class EnumRendererTest {
+
+   private static List<String> render(EnumRenderer renderer, LearnedSet learned, SpellTable names) {
+	    List<String> lines = new ArrayList<>();
+	    renderer.render(learned, names, lines::add);
+	    return lines;
+	}
+
+
+
+   // What ENUM lists, built from scratch
+   private static List<String> fresh(LearnedSet learned, SpellTable names) {
+	    List<String> lines = new ArrayList<>();
+	    learned.forEach(spell -> lines.add("   " + names.name(spell)));
+	    return lines;
+	}
+
+
+
+   @Test
+   void listingFollowsEveryChangeWithoutRebuilding() {
+	    SpellTable names = new SpellTable();
+	    for (int i = 0; i < 200; i++) {
+	        names.id("S" + i);
+	    }
+	    LearnedSet learned = new LearnedSet();
+	    EnumRenderer renderer = new EnumRenderer();
+	    Random random = new Random(15);
+	    List<String> previous = render(renderer, learned, names);
+	    for (int step = 0; step < 5000; step++) {
+	        int spell = random.nextInt(200);
+	        // Mostly forgetting, so holes pile up and the listing is compacted
+	        boolean changed = random.nextInt(3) == 0 ? learned.add(spell, random.nextBoolean()) : learned.remove(spell);
+	        if (changed) {
+	            renderer.changed(spell, learned);
+	        }
+	        if (step % 7 == 0) {
+	            List<String> lines = render(renderer, learned, names);
+	            assertEquals(fresh(learned, names), lines, "step " + step);
+	            // A spell listed before gets the very same line again
+	            for (String line : lines) {
+	                for (String old : previous) {
+	                    if (old.equals(line)) {
+	                        assertSame(old, line);
+	                    }
+	                }
+	            }
+	            previous = lines;
+	        }
+	    }
+	    assertEquals(0, renderer.rebuilds());
+	}
+
+
+
+   @Test
+   void changeNotReportedIsRebuilt() {
+	    SpellTable names = new SpellTable();
+	    LearnedSet learned = new LearnedSet();
+	    EnumRenderer renderer = new EnumRenderer();
+	    learned.add(names.id("A"), false);
+	    renderer.changed(names.id("A"), learned);
+	    learned.add(names.id("B"), false);
+	    learned.remove(names.id("A"));
+	    learned.add(names.id("A"), false);
+	    assertEquals(List.of("   B", "   A"), render(renderer, learned, names));
+	    assertEquals(1, renderer.rebuilds());
+	    learned.remove(names.id("B"));
+	    renderer.changed(names.id("B"), learned);
+	    assertEquals(List.of("   A"), render(renderer, learned, names));
+	    assertEquals(1, renderer.rebuilds());
+	}
+
+
+
+   @Test
+   void enumMatchesAfterImplicitDrops() {
+	    List<String> expected = List.of("PREREQ A B C", "PREREQ B D", "LEARN A",
+	            "   Learning D", "   Learning B", "   Learning C", "   Learning A",
+	            "LEARN E", "   Learning E", "ENUM", "   D", "   B", "   C", "   A", "   E",
+	            "FORGET A", "   Forgetting A", "   Forgetting C", "   Forgetting B", "   Forgetting D",
+	            "ENUM", "   E",
+	            "LEARN B", "   Learning D", "   Learning B", "ENUM", "   E", "   D", "   B");
+	    assertEquals(expected, new BuildSpellbook().execNSpecs(new Vector<>(List.of("PREREQ A B C", "PREREQ B D",
+	            "LEARN A", "LEARN E", "ENUM", "FORGET A", "ENUM", "LEARN B", "ENUM")), 9));
+	}
+
+}
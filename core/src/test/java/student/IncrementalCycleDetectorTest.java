@@ -0,0 +1,92 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class IncrementalCycleDetectorTest {
+
+   @Test
+   void edgesAgainstTheOrderAreReordered() {
+	    IncrementalCycleDetector detector = new IncrementalCycleDetector();
+	    // Added bottom up, so every edge goes against the order found so far
+	    for (int spell = 100; spell > 0; spell--) {
+	        assertFalse(detector.addPrereqs(spell - 1, new int[] { spell }, 0, 1));
+	    }
+	    assertTrue(detector.addPrereqs(100, new int[] { 7, 0 }, 0, 2));
+	    assertTrue(detector.hasCycle());
+	}
+
+
+
+   @Test
+   void selfLoopIsACycle() {
+	    IncrementalCycleDetector detector = new IncrementalCycleDetector();
+	    assertTrue(detector.addPrereqs(3, new int[] { 3 }, 0, 1));
+	}
+
+
+
+   @Test
+   void removedEdgesNoLongerCloseACycle() {
+	    IncrementalCycleDetector detector = new IncrementalCycleDetector();
+	    detector.addPrereqs(0, new int[] { 1 }, 0, 1);
+	    detector.addPrereqs(1, new int[] { 2 }, 0, 1);
+	    detector.removePrereqs(0, new int[] { 1 }, 0, 1);
+	    assertFalse(detector.addPrereqs(2, new int[] { 0 }, 0, 1));
+	}
+
+
+
+   @Test
+   void agreesWithAFullSearchOnRandomGraphs() {
+	    Random random = new Random(7);
+	    for (int round = 0; round < 200; round++) {
+	        int spells = 2 + random.nextInt(30);
+	        IncrementalCycleDetector detector = new IncrementalCycleDetector();
+	        List<List<Integer>> edges = new ArrayList<>();
+	        for (int spell = 0; spell < spells; spell++) {
+	            edges.add(new ArrayList<>());
+	        }
+	        for (int edge = 0; edge < spells; edge++) {
+	            int from = random.nextInt(spells);
+	            int to = random.nextInt(spells);
+	            edges.get(from).add(to);
+	            boolean found = detector.addPrereqs(from, new int[] { to }, 0, 1);
+	            assertEquals(hasCycle(edges), found);
+	            if (found) {
+	                break;
+	            }
+	        }
+	    }
+	}
+
+
+
+   // Depth-first search with three colours
+   private static boolean hasCycle(List<List<Integer>> edges) {
+	    int[] state = new int[edges.size()];
+	    for (int spell = 0; spell < edges.size(); spell++) {
+	        if (state[spell] == 0 && reachesGrey(spell, edges, state)) {
+	            return true;
+	        }
+	    }
+	    return false;
+	}
+
+
+
+   private static boolean reachesGrey(int spell, List<List<Integer>> edges, int[] state) {
+	    state[spell] = 1;
+	    for (int next : edges.get(spell)) {
+	        if (state[next] == 1 || (state[next] == 0 && reachesGrey(next, edges, state))) {
+	            return true;
+	        }
+	    }
+	    state[spell] = 2;
+	    return false;
+	}
+
+}
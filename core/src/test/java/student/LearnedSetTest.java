@@ -0,0 +1,61 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class LearnedSetTest {
+
+   @Test
+   void keepsTheLearningOrder() {
+	    LearnedSet learned = new LearnedSet();
+	    learned.add(5, true);
+	    learned.add(2, false);
+	    learned.add(9, false);
+	    learned.remove(2);
+	    learned.add(2, true);
+	    assertArrayEquals(new int[] { 5, 9, 2 }, learned.toArray());
+	    assertTrue(learned.isImplicit(2));
+	    assertFalse(learned.isImplicit(9));
+	    assertEquals(3, learned.size());
+	}
+
+
+
+   @Test
+   void addingAgainOnlyUpdatesTheImplicitFlag() {
+	    LearnedSet learned = new LearnedSet();
+	    assertTrue(learned.add(1, true));
+	    long version = learned.version();
+	    assertFalse(learned.add(1, false));
+	    assertFalse(learned.isImplicit(1));
+	    assertEquals(1, learned.size());
+	    assertEquals(version, learned.version());
+	}
+
+
+
+   @Test
+   void snapshotsNeverChange() {
+	    LearnedSet learned = new LearnedSet();
+	    // Spread over several pages of the bitsets and of the order
+	    for (int spell = 0; spell < 20_000; spell += 3) {
+	        learned.add(spell, false);
+	    }
+	    LearnedSet.Version before = learned.snapshot();
+	    int[] order = before.toArray();
+	    for (int spell = 0; spell < 20_000; spell += 6) {
+	        learned.remove(spell);
+	    }
+	    learned.add(1, true);
+
+	    assertArrayEquals(order, before.toArray());
+	    assertTrue(before.contains(0));
+	    assertFalse(before.contains(1));
+	    assertFalse(learned.contains(0));
+	    assertTrue(learned.contains(1));
+	    assertEquals(learned.size(), learned.snapshot().size());
+	    assertArrayEquals(learned.toArray(), learned.snapshot().toArray());
+	}
+
+}
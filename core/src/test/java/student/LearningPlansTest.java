@@ -0,0 +1,143 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class LearningPlansTest {
+
+   private static int[] line(PrereqGraph graph, String... names) {
+	    int[] line = new int[names.length];
+	    for (int i = 0; i < names.length; i++) {
+	        line[i] = graph.spells().id(names[i]);
+	    }
+	    return line;
+	}
+
+
+
+   private static List<String> plan(PrereqGraph graph, PrereqGraph.View view, String spell) {
+	    List<String> names = new ArrayList<>();
+	    int position = view.firstLine(graph.spells().lookup(spell));
+	    for (int planned : graph.plans().plan(view, position).spells) {
+	        names.add(graph.spells().name(planned));
+	    }
+	    return names;
+	}
+
+
+
+   @Test
+   void newLineInTheClosureRebuildsThePlan() {
+	    PrereqGraph graph = new PrereqGraph();
+	    LearningPlans plans = graph.plans();
+	    PrereqGraph.View before = graph.add(line(graph, "A", "B", "C"));
+	    assertEquals(List.of("B", "C"), plan(graph, before, "A"));
+
+	    // A line for a spell outside the plan leaves it as it is
+	    PrereqGraph.View unrelated = graph.add(line(graph, "X", "Y"));
+	    assertEquals(List.of("B", "C"), plan(graph, unrelated, "A"));
+	    assertEquals(0, plans.rebuilds());
+
+	    // B had no line, now the walk goes through it
+	    PrereqGraph.View after = graph.add(line(graph, "B", "D"));
+	    assertEquals(List.of("D", "B", "C"), plan(graph, after, "A"));
+	    assertEquals(1, plans.rebuilds());
+	    assertEquals(List.of("D", "B", "C"), plan(graph, after, "A"));
+
+	    // A session still on the older view gets the plan of its own lines, and does not
+	    // take the newer one out of the cache
+	    assertEquals(List.of("B", "C"), plan(graph, before, "A"));
+	    long hits = plans.hits();
+	    assertEquals(List.of("D", "B", "C"), plan(graph, after, "A"));
+	    assertEquals(hits + 1, plans.hits());
+	}
+
+
+
+   @Test
+   void rewrittenLineInTheClosureRebuildsThePlan() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.setMerging(true);
+	    LearningPlans plans = graph.plans();
+	    graph.add(line(graph, "A", "B"));
+	    graph.add(line(graph, "B", "C"));
+	    PrereqGraph.View view = graph.add(line(graph, "E", "F"));
+	    assertEquals(List.of("C", "B"), plan(graph, view, "A"));
+
+	    // Rewriting a line the plan does not walk keeps it
+	    view = graph.replace(line(graph, "E", "G"), false);
+	    assertEquals(List.of("C", "B"), plan(graph, view, "A"));
+	    assertEquals(0, plans.rebuilds());
+
+	    view = graph.replace(line(graph, "B", "D"), false);
+	    assertEquals(List.of("D", "B"), plan(graph, view, "A"));
+	    assertEquals(1, plans.rebuilds());
+
+	    view = graph.remove(line(graph, "B", "D"), false);
+	    assertEquals(List.of("B"), plan(graph, view, "A"));
+	    assertEquals(2, plans.rebuilds());
+
+	    // The plan's own line
+	    view = graph.remove(line(graph, "A"), false);
+	    assertEquals(List.of(), plan(graph, view, "A"));
+	    assertEquals(3, plans.rebuilds());
+	}
+
+
+
+   @Test
+   void leastRecentlyUsedPlansAreEvicted() {
+	    PrereqGraph graph = new PrereqGraph();
+	    LearningPlans plans = graph.plans();
+	    graph.add(line(graph, "A", "A1"));
+	    graph.add(line(graph, "B", "B1", "B2"));
+	    PrereqGraph.View view = graph.add(line(graph, "C", "C1"));
+	    plans.setLimits(2, 100);
+	    plan(graph, view, "A");
+	    plan(graph, view, "B");
+	    plan(graph, view, "A");
+	    // C goes over two plans, B was used last longest ago
+	    plan(graph, view, "C");
+	    assertEquals(3, plans.misses());
+	    plan(graph, view, "A");
+	    plan(graph, view, "C");
+	    assertEquals(3, plans.misses());
+	    plan(graph, view, "B");
+	    assertEquals(4, plans.misses());
+
+	    // Three spells fit: B's two and one more
+	    plans.setLimits(10, 3);
+	    plan(graph, view, "B");
+	    assertEquals(4, plans.misses());
+	    plan(graph, view, "A");
+	    assertEquals(5, plans.misses());
+	    plan(graph, view, "B");
+	    assertEquals(5, plans.misses());
+	    plan(graph, view, "C");
+	    assertEquals(6, plans.misses());
+	}
+
+
+
+   @Test
+   void learnNeverReplaysAStalePlan() {
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.setMergePrereqs(true);
+	    List<String> specs = List.of("PREREQ A B", "LEARN A", "FORGET A",
+	            "PREREQ B C", "LEARN A", "FORGET A",
+	            "REPLACE PREREQ B D", "LEARN A", "FORGET A",
+	            "REMOVE PREREQ B D", "LEARN A");
+	    List<String> expected = List.of("PREREQ A B", "LEARN A", "   Learning B", "   Learning A",
+	            "FORGET A", "   Forgetting A", "   Forgetting B",
+	            "PREREQ B C", "LEARN A", "   Learning C", "   Learning B", "   Learning A",
+	            "FORGET A", "   Forgetting A", "   Forgetting B", "   Forgetting C",
+	            "REPLACE PREREQ B D", "LEARN A", "   Learning D", "   Learning B", "   Learning A",
+	            "FORGET A", "   Forgetting A", "   Forgetting B", "   Forgetting D",
+	            "REMOVE PREREQ B D", "LEARN A", "   Learning B", "   Learning A");
+	    assertEquals(expected, book.execNSpecs(new Vector<>(specs), specs.size()));
+	}
+
+}
@@ -0,0 +1,157 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class PrereqGraphTest {
+
+   private static int[] line(PrereqGraph graph, String... names) {
+	    int[] line = new int[names.length];
+	    for (int i = 0; i < names.length; i++) {
+	        line[i] = graph.spells().id(names[i]);
+	    }
+	    return line;
+	}
+
+
+
+   private static String text(PrereqGraph.View view, int position) {
+	    StringBuilder text = new StringBuilder(view.name(view.main(position)));
+	    for (int index = 0; index < view.prereqCount(position); index++) {
+	        text.append(' ').append(view.name(view.prereq(position, index)));
+	    }
+	    return text.toString();
+	}
+
+
+
+   @Test
+   void viewsNeverSeeLaterLines() {
+	    PrereqGraph graph = new PrereqGraph();
+	    PrereqGraph.View first = graph.add(line(graph, "A", "B"));
+	    // Enough lines to compact the delta buffer into the rows more than once
+	    for (int i = 0; i < 2000; i++) {
+	        graph.add(line(graph, "S" + i, "S" + (i + 1)));
+	    }
+	    PrereqGraph.View last = graph.view();
+	    assertEquals(1, first.size());
+	    assertEquals(2001, last.size());
+	    assertEquals("A B", text(first, 0));
+	    assertEquals("S1999 S2000", text(last, 2000));
+	    assertEquals(-1, first.firstLine(graph.spells().lookup("S0")));
+	    assertEquals(1, last.firstLine(graph.spells().lookup("S0")));
+	}
+
+
+
+   @Test
+   void prereqIndexIsCheckedAgainstTheLine() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.setMerging(true);
+	    // Compacted rows, a rewritten line and a line still in the delta buffer
+	    for (int i = 0; i < 300; i++) {
+	        graph.add(line(graph, "S" + i, "S" + (i + 1)));
+	    }
+	    graph.replace(line(graph, "S0", "X", "Y"), false);
+	    PrereqGraph.View view = graph.add(line(graph, "Z", "W"));
+	    for (int position : new int[] { 0, 1, view.size() - 1 }) {
+	        int count = view.prereqCount(position);
+	        view.prereq(position, count - 1);
+	        assertThrows(IndexOutOfBoundsException.class, () -> view.prereq(position, count));
+	        assertThrows(IndexOutOfBoundsException.class, () -> view.prereq(position, -1));
+	    }
+	}
+
+
+
+   @Test
+   void laterLinesOfASpellAreChained() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.add(line(graph, "A", "B"));
+	    graph.add(line(graph, "C", "D"));
+	    PrereqGraph.View view = graph.add(line(graph, "A", "E"));
+	    int a = graph.spells().lookup("A");
+	    assertEquals(0, view.firstLine(a));
+	    assertEquals(2, view.nextLine(0));
+	    assertEquals(-1, view.nextLine(2));
+	    assertEquals(2, view.mainSpells());
+	}
+
+
+
+   @Test
+   void incrementalDetectorFindsACycle() {
+	    PrereqGraph graph = new PrereqGraph();
+	    assertFalse(graph.add(line(graph, "A", "B")).hasCycle());
+	    assertFalse(graph.add(line(graph, "B", "C")).hasCycle());
+	    assertTrue(graph.add(line(graph, "C", "A")).hasCycle());
+	}
+
+
+
+   @Test
+   void batchedLinesWaitForEndBatch() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.add(line(graph, "A", "B"), true);
+	    assertFalse(graph.add(line(graph, "B", "A"), true).hasCycle());
+	    // Lines outside the batch are still checked as they come
+	    graph.add(line(graph, "X", "Y"));
+	    assertTrue(graph.add(line(graph, "Y", "X")).hasCycle());
+	    assertTrue(graph.endBatch().hasCycle());
+	}
+
+
+
+   @Test
+   void endBatchFindsTheCyclesOfTheBatch() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.add(line(graph, "A", "B"), true);
+	    graph.add(line(graph, "B", "A"), true);
+	    assertTrue(graph.endBatch().hasCycle());
+	}
+
+
+
+   @Test
+   void mergingKeepsOneLinePerSpell() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.setMerging(true);
+	    graph.add(line(graph, "A", "B"));
+	    PrereqGraph.View merged = graph.add(line(graph, "A", "B", "C"));
+	    assertEquals(1, merged.size());
+	    assertEquals("A B C", text(merged, 0));
+	    assertEquals(1, merged.rewrites());
+	    assertEquals(0, merged.rewritten(0));
+
+	    PrereqGraph.View replaced = graph.replace(line(graph, "A", "D"), false);
+	    PrereqGraph.View removed = graph.remove(line(graph, "A", "D"), false);
+	    // Every view keeps the contents it was published with
+	    assertEquals("A B C", text(merged, 0));
+	    assertEquals("A D", text(replaced, 0));
+	    assertEquals("A", text(removed, 0));
+	    assertEquals(3, removed.rewrites());
+	}
+
+
+
+   @Test
+   void removingTheClosingEdgeClearsTheCycle() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.setMerging(true);
+	    graph.add(line(graph, "A", "B"));
+	    assertTrue(graph.add(line(graph, "B", "A")).hasCycle());
+	    assertFalse(graph.remove(line(graph, "B", "A"), false).hasCycle());
+	}
+
+
+
+   @Test
+   void mergingIsChosenBeforeTheFirstLine() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.add(line(graph, "A", "B"));
+	    assertThrows(IllegalStateException.class, () -> graph.setMerging(true));
+	    assertThrows(IllegalStateException.class, () -> graph.replace(line(graph, "A", "C"), false));
+	}
+
+}
@@ -0,0 +1,151 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class ReachabilityIndexTest {
+
+   private static int[] line(PrereqGraph graph, String... names) {
+	    int[] line = new int[names.length];
+	    for (int i = 0; i < names.length; i++) {
+	        line[i] = graph.spells().id(names[i]);
+	    }
+	    return line;
+	}
+
+
+
+   private static List<String> required(PrereqGraph graph, PrereqGraph.View view, String spell) {
+	    List<String> names = new ArrayList<>();
+	    graph.reachability().forEachRequired(view, graph.spells().lookup(spell),
+	            required -> names.add(graph.spells().name(required)));
+	    return names;
+	}
+
+
+
+   private static List<String> dependents(PrereqGraph graph, PrereqGraph.View view, String spell,
+                                          LearnedSpells learned) {
+	    List<String> names = new ArrayList<>();
+	    graph.reachability().forEachDependent(view, graph.spells().lookup(spell), learned,
+	            dependent -> names.add(graph.spells().name(dependent)));
+	    return names;
+	}
+
+
+
+   private static boolean isKnown(PrereqGraph graph, String spell, boolean required) {
+	    return graph.reachability().isKnown(graph.spells().lookup(spell), required);
+	}
+
+
+
+   @Test
+   void closuresAreTransitive() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.add(line(graph, "A", "B", "C"));
+	    graph.add(line(graph, "B", "D"));
+	    graph.add(line(graph, "D", "E"));
+	    // Only the first line of A is followed
+	    graph.add(line(graph, "A", "X"));
+	    graph.add(line(graph, "F", "G"));
+	    PrereqGraph.View view = graph.add(line(graph, "G", "F", "E"));
+	    assertEquals(List.of("B", "C", "D", "E"), required(graph, view, "A"));
+	    assertEquals(List.of(), required(graph, view, "X"));
+	    // Both spells on the cycle reach themselves and share one closure
+	    assertEquals(List.of("E", "F", "G"), required(graph, view, "F"));
+	    assertEquals(List.of("E", "F", "G"), required(graph, view, "G"));
+
+	    LearnedSet learned = new LearnedSet();
+	    for (String spell : new String[] { "G", "B", "A", "C" }) {
+	        learned.add(graph.spells().lookup(spell), false);
+	    }
+	    assertEquals(List.of("A", "B", "G"), dependents(graph, view, "E", learned));
+	    assertEquals(List.of(), dependents(graph, view, "X", learned));
+	}
+
+
+
+   @Test
+   void catchingUpKeepsTheClosuresTheNewLinesDoNotChange() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.add(line(graph, "A", "B"));
+	    PrereqGraph.View before = graph.add(line(graph, "C", "D"));
+	    for (String spell : new String[] { "A", "C" }) {
+	        required(graph, before, spell);
+	    }
+	    for (String spell : new String[] { "B", "D" }) {
+	        dependents(graph, before, spell, new LearnedSet());
+	    }
+	    assertTrue(isKnown(graph, "A", true));
+
+	    // B -> E grows what A requires and what requires E, nothing else
+	    PrereqGraph.View after = graph.add(line(graph, "B", "E"));
+	    assertEquals(List.of("D"), required(graph, after, "C"));
+	    assertFalse(isKnown(graph, "A", true));
+	    assertTrue(isKnown(graph, "C", true));
+	    assertTrue(isKnown(graph, "B", false));
+	    assertTrue(isKnown(graph, "D", false));
+	    assertEquals(List.of("B", "E"), required(graph, after, "A"));
+
+	    // The older view still answers for its own lines
+	    assertEquals(List.of("B"), required(graph, before, "A"));
+	    assertTrue(isKnown(graph, "A", true));
+	}
+
+
+
+   @Test
+   void rewritesStartOver() {
+	    PrereqGraph graph = new PrereqGraph();
+	    graph.setMerging(true);
+	    graph.add(line(graph, "A", "B"));
+	    PrereqGraph.View before = graph.add(line(graph, "B", "C"));
+	    assertEquals(List.of("B", "C"), required(graph, before, "A"));
+
+	    // Replacing A's line takes edges away, which no kept closure could account for
+	    PrereqGraph.View after = graph.replace(line(graph, "A", "X"), false);
+	    assertEquals(before.rewrites() + 1, after.rewrites());
+	    assertEquals(List.of("X"), required(graph, after, "A"));
+	    assertFalse(isKnown(graph, "B", true));
+	    LearnedSet learned = new LearnedSet();
+	    learned.add(graph.spells().lookup("A"), false);
+	    assertEquals(List.of(), dependents(graph, after, "C", learned));
+
+	    // A view from before the rewrite keeps its answers
+	    assertEquals(List.of("B", "C"), required(graph, before, "A"));
+	    assertEquals(List.of("A"), dependents(graph, before, "C", learned));
+	}
+
+
+
+   @Test
+   void closuresOverTheLimitAreDropped() {
+	    PrereqGraph graph = new PrereqGraph();
+	    PrereqGraph.View view = null;
+	    for (int i = 0; i < 9; i++) {
+	        view = graph.add(line(graph, "S" + i, "S" + (i + 1)));
+	    }
+	    graph.reachability().setMaxSpells(5);
+
+	    // Nine spells are more than the limit on their own
+	    assertEquals(9, required(graph, view, "S0").size());
+	    assertFalse(isKnown(graph, "S0", true));
+
+	    assertEquals(List.of("S9"), required(graph, view, "S8"));
+	    assertEquals(List.of("S8", "S9"), required(graph, view, "S7"));
+	    assertTrue(isKnown(graph, "S8", true));
+	    assertTrue(isKnown(graph, "S7", true));
+
+	    // Three held and four more go over five, so all of them are dropped
+	    assertEquals(List.of("S6", "S7", "S8", "S9"), required(graph, view, "S5"));
+	    assertFalse(isKnown(graph, "S8", true));
+	    assertFalse(isKnown(graph, "S5", true));
+	    assertEquals(List.of("S8", "S9"), required(graph, view, "S7"));
+	    assertTrue(isKnown(graph, "S7", true));
+	}
+
+}
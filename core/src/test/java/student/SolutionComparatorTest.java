@@ -0,0 +1,74 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SolutionComparatorTest {
+
+   @TempDir
+   Path directory;
+
+   private Path write(String name, String... lines) throws IOException {
+	    return Files.write(directory.resolve(name), Arrays.asList(lines));
+	}
+
+
+
+   @Test
+   void matchingSolution() throws IOException {
+	    Path spec = write("spec.txt", "PREREQ A B", "LEARN A");
+	    Path soln = write("soln.txt", "PREREQ A B", "LEARN A", "   Learning B", "   Learning A");
+	    assertNull(SolutionComparator.compare(new BuildSpellbook(), spec, soln, 1000, BuildSpellbook.CycleCheck.NONE));
+	}
+
+
+
+   @Test
+   void reportsTheFirstDifference() throws IOException {
+	    Path spec = write("spec.txt", "PREREQ A B", "LEARN A", "ENUM");
+	    Path soln = write("soln.txt", "PREREQ A B", "LEARN A", "   Learning A", "ENUM");
+	    SolutionComparator.Mismatch mismatch = SolutionComparator.compare(new BuildSpellbook(), spec, soln, 1000,
+	            BuildSpellbook.CycleCheck.NONE);
+	    assertEquals(3, mismatch.lineNumber);
+	    assertEquals("LEARN A", mismatch.command);
+	    assertEquals("   Learning A", mismatch.expected);
+	    assertEquals("   Learning B", mismatch.actual);
+	}
+
+
+
+   @Test
+   void missingOutputIsAMismatch() throws IOException {
+	    Path spec = write("spec.txt", "PREREQ A B");
+	    Path soln = write("soln.txt", "PREREQ A B", "LEARN A");
+	    SolutionComparator.Mismatch mismatch = SolutionComparator.compare(new BuildSpellbook(), spec, soln, 1000,
+	            BuildSpellbook.CycleCheck.NONE);
+	    assertEquals("LEARN A", mismatch.expected);
+	    assertNull(mismatch.actual);
+	}
+
+
+
+   @Test
+   void commandStoppedByAMismatchIsStillRecorded() throws IOException {
+	    Path spec = write("spec.txt", "PREREQ A B", "LEARN A", "LEARN B");
+	    Path soln = write("soln.txt", "PREREQ A B", "LEARN A", "   Learning A");
+	    BuildSpellbook book = new BuildSpellbook();
+	    SpellbookMetrics metrics = new SpellbookMetrics();
+	    book.setMetrics(metrics);
+	    book.setReadViews(true);
+	    assertNotNull(SolutionComparator.compare(book, spec, soln, 1000, BuildSpellbook.CycleCheck.NONE));
+	    assertEquals(1, metrics.count("LEARN"));
+	    // B was learned before the mismatch stopped the command, and that was published
+	    assertTrue(book.readView().learnedSpell("B"));
+	    assertEquals(1, metrics.getLearnedSpells());
+	}
+
+}
@@ -0,0 +1,88 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class SpecGeneratorTest {
+
+   private static Vector<String> generate(SpecGenerator.Profile profile) {
+	    Vector<String> specs = new Vector<>();
+	    new SpecGenerator(profile).generate(specs::add);
+	    return specs;
+	}
+
+
+
+   private static SpecGenerator.Profile profile(int cycles) {
+	    SpecGenerator.Profile profile = new SpecGenerator.Profile();
+	    profile.spells = 2000;
+	    profile.depth = 10;
+	    profile.commands = 500;
+	    profile.interleave = 0.5;
+	    profile.cycles = cycles;
+	    return profile;
+	}
+
+
+
+   @Test
+   void sameProfileSameFile() {
+	    assertEquals(generate(profile(2)), generate(profile(2)));
+	}
+
+
+
+   @Test
+   void rulesOnlyRequireDeeperLevelsWithoutCycles() {
+	    Vector<String> specs = generate(profile(0));
+	    BuildSpellbook book = new BuildSpellbook();
+	    assertFalse(book.execNSpecswCheck(specs, specs.size()).contains("   Found cycle in prereqs"));
+	}
+
+
+
+   @Test
+   void cyclesLieInsideTheGeneratedGraph() {
+	    SpecGenerator.Profile profile = profile(3);
+	    profile.cycleLength = 4;
+	    Vector<String> specs = generate(profile);
+	    // Every rule is for one of the generated spells, no extra ones are made up
+	    long rules = specs.stream().filter(spec -> spec.startsWith("PREREQ ")).count();
+	    assertEquals(profile.spells, rules);
+	    for (String spec : specs) {
+	        for (String token : spec.split(" ")) {
+	            if (!token.equals("PREREQ") && !token.equals("LEARN") && !token.equals("FORGET") && !token.equals("ENUM")) {
+	                assertTrue(Integer.parseInt(token.substring(1)) < profile.spells, token);
+	            }
+	        }
+	    }
+
+	    // The first cycle is closed by the rule half way through
+	    Vector<String> output = new BuildSpellbook().execNSpecswCheck(specs, specs.size());
+	    int found = output.indexOf("   Found cycle in prereqs");
+	    assertTrue(found > 0);
+	    int closedAt = (int) output.subList(0, found).stream().filter(line -> line.startsWith("PREREQ ")).count();
+	    assertEquals(profile.spells / 2 + 1, closedAt);
+	}
+
+
+
+   @Test
+   void everyVariantFindsTheCycles() {
+	    SpecGenerator.Profile profile = profile(2);
+	    profile.cycleLength = 3;
+	    profile.cycleAt = 0.9;
+	    Vector<String> specs = generate(profile);
+	    for (String variant : SpellbookBenchmark.VARIANTS) {
+	        Vector<String> output = SpellbookBenchmark.run(variant, new BuildSpellbook(), specs);
+	        assertEquals(!variant.equals("execNSpecs"), output.contains("   Found cycle in prereqs"), variant);
+	    }
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.execNSpecs(specs, specs.size());
+	    assertTrue(book.checkForCycle());
+	}
+
+}
@@ -0,0 +1,54 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class SpecTokenizerTest {
+
+   @Test
+   void recognizesEveryCommand() {
+	    SpecTokenizer tokens = new SpecTokenizer();
+	    assertEquals(SpecTokenizer.PREREQ, tokens.reset("PREREQ A B"));
+	    assertEquals(SpecTokenizer.LEARN, tokens.reset("LEARN A"));
+	    assertEquals(SpecTokenizer.FORGET, tokens.reset("FORGET A"));
+	    assertEquals(SpecTokenizer.ENUM, tokens.reset("ENUM"));
+	    assertEquals(SpecTokenizer.REQUIRES, tokens.reset("REQUIRES A"));
+	    assertEquals(SpecTokenizer.DEPENDENTS, tokens.reset("DEPENDENTS A"));
+	    assertEquals(SpecTokenizer.BEGIN, tokens.reset("BEGIN"));
+	    assertEquals(SpecTokenizer.END, tokens.reset("END"));
+	    assertEquals(SpecTokenizer.REPLACE, tokens.reset("REPLACE PREREQ A B"));
+	    assertEquals(SpecTokenizer.REMOVE, tokens.reset("REMOVE PREREQ A B"));
+	    assertEquals(SpecTokenizer.UNKNOWN, tokens.reset("LEARNED A"));
+	    assertEquals(SpecTokenizer.UNKNOWN, tokens.reset(""));
+	}
+
+
+
+   @Test
+   void splitsOnSingleSpacesLikeSplit() {
+	    SpecTokenizer tokens = new SpecTokenizer();
+	    // Inner empty tokens are kept and trailing ones dropped, as " ".split does
+	    tokens.reset("PREREQ A  B   ");
+	    assertEquals("PREREQ A  B   ".split(" ").length, tokens.count());
+	    assertEquals("", tokens.text(2));
+	    assertEquals("B", tokens.text(3));
+	    assertTrue(tokens.matches(3, "B"));
+	    assertFalse(tokens.matches(3, "BB"));
+	}
+
+
+
+   @Test
+   void tokensBecomeIds() {
+	    SpellTable table = new SpellTable();
+	    SpecTokenizer tokens = new SpecTokenizer();
+	    tokens.reset("PREREQ A B A");
+	    assertEquals(-1, tokens.lookup(1, table));
+	    assertEquals(0, tokens.id(1, table));
+	    assertEquals(1, tokens.id(2, table));
+	    assertEquals(0, tokens.id(3, table));
+	    assertThrows(IndexOutOfBoundsException.class, () -> tokens.id(4, table));
+	}
+
+}
@@ -0,0 +1,45 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class SpellTableTest {
+
+   @Test
+   void idsAreDenseInFirstSeenOrder() {
+	    SpellTable table = new SpellTable();
+	    assertEquals(0, table.id("A"));
+	    assertEquals(1, table.id("B"));
+	    assertEquals(0, table.id("A"));
+	    assertEquals(2, table.size());
+	    assertEquals("B", table.name(1));
+	}
+
+
+
+   @Test
+   void lookupNeverAddsAName() {
+	    SpellTable table = new SpellTable();
+	    table.id("A");
+	    assertEquals(-1, table.lookup("B"));
+	    assertEquals(1, table.size());
+	    // A name inside a longer line is found by its characters alone
+	    assertEquals(0, table.lookup("LEARN A", 6, 7));
+	}
+
+
+
+   @Test
+   void growsPastTheFirstChunkAndTable() {
+	    SpellTable table = new SpellTable();
+	    for (int i = 0; i < 10_000; i++) {
+	        assertEquals(i, table.id("S" + i));
+	    }
+	    for (int i = 0; i < 10_000; i++) {
+	        assertEquals(i, table.lookup("S" + i));
+	        assertEquals("S" + i, table.name(i));
+	    }
+	}
+
+}
@@ -0,0 +1,49 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpellbookBatchTest {
+
+   @TempDir
+   Path directory;
+
+   private Path write(String name, String... lines) throws IOException {
+	    return Files.write(directory.resolve(name), Arrays.asList(lines));
+	}
+
+
+
+   @Test
+   void everyFileGetsItsOwnResult() throws IOException {
+	    Path spec = write("spec.txt", "PREREQ A B", "LEARN A");
+	    Path pass = write("pass.txt", "PREREQ A B", "LEARN A", "   Learning B", "   Learning A");
+	    Path fail = write("fail.txt", "PREREQ A B", "LEARN A", "   Learning A");
+	    // A path that throws an Error as soon as anything asks it, as a pathological job might
+	    Path broken = (Path) Proxy.newProxyInstance(Path.class.getClassLoader(), new Class<?>[] { Path.class },
+	            (proxy, method, args) -> {
+	                throw new StackOverflowError();
+	            });
+	    List<SpellbookBatch.Job> jobs = List.of(new SpellbookBatch.Job(spec, pass), new SpellbookBatch.Job(spec, fail),
+	            new SpellbookBatch.Job(directory.resolve("missing.txt"), pass), new SpellbookBatch.Job(spec, broken));
+
+	    SpellbookBatch.Report report = new SpellbookBatch(2, BuildSpellbook.CycleCheck.DETECT, 1000).run(jobs);
+	    assertEquals(4, report.results.size());
+	    assertEquals(1, report.passed);
+	    assertEquals(1, report.failed);
+	    assertEquals(2, report.errors);
+	    assertEquals("   Learning A", report.results.get(1).mismatch.expected);
+	    assertTrue(report.results.get(2).error instanceof IOException);
+	    assertTrue(report.results.get(3).error instanceof StackOverflowError);
+	    assertFalse(report.allPassed());
+	}
+
+}
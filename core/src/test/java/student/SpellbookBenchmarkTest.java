@@ -0,0 +1,45 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class SpellbookBenchmarkTest {
+
+   @Test
+   void everyWorkloadRunsOnEveryVariant() {
+	    for (String workload : SpellbookBenchmark.WORKLOADS) {
+	        Vector<String> specs = SpellbookBenchmark.workload(workload, 200, 42);
+	        for (String variant : SpellbookBenchmark.VARIANTS) {
+	            assertFalse(SpellbookBenchmark.run(variant, new BuildSpellbook(), specs).isEmpty(), variant);
+	        }
+	    }
+	}
+
+
+
+   @Test
+   void plantedCycleLiesInsideTheDag() {
+	    for (int size : new int[] { 2, 20, 200, 2000 }) {
+	        Vector<String> dag = SpellbookBenchmark.randomDag(size, 42);
+	        Vector<String> cyclic = SpellbookBenchmark.plantedCycle(size, 42);
+	        // Same commands, one rule of the graph has an extra prerequisite
+	        assertEquals(dag.size(), cyclic.size());
+	        int changed = 0;
+	        for (int i = 0; i < dag.size(); i++) {
+	            if (!dag.get(i).equals(cyclic.get(i))) {
+	                changed++;
+	                assertTrue(cyclic.get(i).startsWith(dag.get(i) + " S"));
+	            }
+	        }
+	        assertEquals(1, changed);
+
+	        BuildSpellbook book = new BuildSpellbook();
+	        book.execNSpecs(new Vector<>(cyclic.subList(0, size)), size);
+	        assertTrue(book.checkForCycle(), "size " + size);
+	    }
+	}
+
+}
@@ -0,0 +1,94 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+class SpellbookMetricsTest {
+
+   @Test
+   void smallValuesHaveABucketEach() {
+	    SpellbookMetrics.Histogram histogram = new SpellbookMetrics().traversalNodes();
+	    for (long value = 0; value < 32; value++) {
+	        histogram.record(value);
+	    }
+	    for (int value = 0; value < 32; value++) {
+	        assertEquals(value, histogram.percentile((value + 1) * 100.0 / 32));
+	    }
+	}
+
+
+
+   @Test
+   void largerValuesAreKnownToASixteenth() {
+	    SpellbookMetrics.Histogram histogram = new SpellbookMetrics().traversalNodes();
+	    for (long value = 1; value <= 100; value++) {
+	        histogram.record(value);
+	    }
+	    assertEquals(100, histogram.count());
+	    assertEquals(50.5, histogram.mean());
+	    assertEquals(100, histogram.max());
+	    // 50 is in the bucket 50..51, 99 in 96..99, and 100 in 100..103 but never above the max
+	    assertEquals(51, histogram.percentile(50));
+	    assertEquals(99, histogram.percentile(99));
+	    assertEquals(100, histogram.percentile(100));
+
+	    histogram.reset();
+	    assertEquals(0, histogram.count());
+	    assertEquals(0, histogram.percentile(50));
+	    histogram.record(-5);
+	    histogram.record(Long.MAX_VALUE);
+	    assertEquals(0, histogram.percentile(50));
+	    assertEquals(Long.MAX_VALUE, histogram.percentile(100));
+	    long million = 1_000_000;
+	    histogram.reset();
+	    histogram.record(million);
+	    long bound = histogram.percentile(100);
+	    assertTrue(bound >= million && bound - million <= million / 16, Long.toString(bound));
+	}
+
+
+
+   @Test
+   void countsEveryCommandByType() {
+	    SpellbookMetrics metrics = new SpellbookMetrics();
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.setMergePrereqs(true);
+	    book.setMetrics(metrics);
+	    List<String> specs = List.of("PREREQ A B C", "PREREQ B D", "LEARN A", "ENUM", "ENUM", "REQUIRES A",
+	            "DEPENDENTS D", "REPLACE PREREQ B E", "REMOVE PREREQ A C", "FORGET A", "BEGIN", "PREREQ X Y",
+	            "END", "LEARN X", "BOGUS");
+	    book.execNSpecswCheck(new Vector<>(specs), specs.size());
+
+	    Map<String, Long> expected = new LinkedHashMap<>();
+	    expected.put("UNKNOWN", 1L);
+	    expected.put("PREREQ", 3L);
+	    expected.put("LEARN", 2L);
+	    expected.put("FORGET", 1L);
+	    expected.put("ENUM", 2L);
+	    expected.put("REQUIRES", 1L);
+	    expected.put("DEPENDENTS", 1L);
+	    expected.put("BEGIN", 1L);
+	    expected.put("END", 1L);
+	    expected.put("REPLACE", 1L);
+	    expected.put("REMOVE", 1L);
+	    assertEquals(expected, metrics.getCommandCounts());
+	    assertEquals(expected.keySet(), metrics.getP99LatencyMicros().keySet());
+	    for (Map.Entry<String, Long> entry : expected.entrySet()) {
+	        assertEquals(entry.getValue(), metrics.latency(entry.getKey()).count(), entry.getKey());
+	        assertEquals(entry.getValue(), metrics.count(entry.getKey()), entry.getKey());
+	    }
+	    // One walk per LEARN and FORGET, and the graph as the last command left it: C and D
+	    // were off A's rule by the FORGET and stay learned next to X and Y
+	    assertEquals(3, metrics.getTraversals());
+	    assertEquals(3, metrics.getPrereqLines());
+	    assertEquals(4, metrics.getLearnedSpells());
+
+	    metrics.reset();
+	    assertEquals(0, metrics.count("PREREQ"));
+	    assertEquals(0, metrics.getTraversals());
+	}
+
+}
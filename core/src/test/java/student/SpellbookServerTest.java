@@ -0,0 +1,181 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SpellbookServerTest {
+
+   private SpellbookServer          server;
+   private InetSocketAddress        address;
+
+   @BeforeEach
+   void start() throws IOException {
+	    server = new SpellbookServer(new BuildSpellbook(), BuildSpellbook.CycleCheck.DETECT, 2);
+	    SocketAddress bound = server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	    address = (InetSocketAddress) bound;
+	}
+
+
+
+   @AfterEach
+   void stop() throws IOException {
+	    server.close();
+	}
+
+
+
+   // A client that sends one line at a time and reads its answer up to the empty line
+   private static final class Client implements Closeable {
+      private final Socket          socket;
+      private final BufferedReader  in;
+      private final Writer          out;
+
+      Client(InetSocketAddress address) throws IOException {
+         socket = new Socket(address.getAddress(), address.getPort());
+         in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+         out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+      }
+
+      List<String> send(String spec) throws IOException {
+	       out.write(spec + "\n");
+	       out.flush();
+	       return receive();
+	   }
+
+      // The answer to the next line, up to the empty line closing it
+      List<String> receive() throws IOException {
+	       List<String> answer = new ArrayList<>();
+	       String line;
+	       while ((line = in.readLine()) != null && !line.isEmpty()) {
+	           answer.add(line);
+	       }
+	       return answer;
+	   }
+
+      public void close() throws IOException {
+	       socket.close();
+	   }
+   }
+
+
+
+   @Test
+   void answersEveryLine() throws IOException {
+	    try (Client client = new Client(address)) {
+	        assertEquals(List.of("PREREQ A B"), client.send("PREREQ A B"));
+	        assertEquals(List.of("LEARN A", "   Learning B", "   Learning A"), client.send("LEARN A"));
+	        assertEquals(List.of("ENUM", "   B", "   A"), client.send("ENUM"));
+	    }
+	}
+
+
+
+   @Test
+   void clientsShareRulesButNotLearnedSpells() throws IOException {
+	    try (Client first = new Client(address); Client second = new Client(address)) {
+	        first.send("PREREQ A B");
+	        first.send("LEARN A");
+	        assertEquals(List.of("ENUM"), second.send("ENUM"));
+	        assertEquals(List.of("LEARN A", "   Learning B", "   Learning A"), second.send("LEARN A"));
+	    }
+	}
+
+
+
+   @Test
+   void openBatchOfOneClientLeavesTheOthersChecked() throws IOException {
+	    try (Client first = new Client(address); Client second = new Client(address)) {
+	        first.send("BEGIN");
+	        first.send("PREREQ Q R");
+	        second.send("PREREQ X Y");
+	        assertEquals(List.of("PREREQ Y X", "   Found cycle in prereqs"), second.send("PREREQ Y X"));
+	        assertEquals(List.of("LEARN X"), second.send("LEARN X"));
+	    }
+	}
+
+
+
+   @Test
+   void failingCommandIsAnsweredAndTheSessionGoesOn() throws IOException {
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.setMetrics(new SpellbookMetrics() {
+	        void command(int opcode, long nanos, long nodes, SpellbookCommandEvent event, String spec) {
+	            super.command(opcode, nanos, nodes, event, spec);
+	            if (spec.equals("ENUM")) {
+	                throw new IllegalStateException("broken metrics");
+	            }
+	        }
+	    });
+	    List<LogRecord> records = Collections.synchronizedList(new ArrayList<>());
+	    Handler handler = new Handler() {
+	        public void publish(LogRecord record) {
+	            records.add(record);
+	        }
+
+	        public void flush() {
+	        }
+
+	        public void close() {
+	        }
+	    };
+	    Logger log = Logger.getLogger(SpellbookServer.class.getName());
+	    log.addHandler(handler);
+	    // The expected failure is not printed to the console
+	    log.setUseParentHandlers(false);
+	    try (SpellbookServer failing = new SpellbookServer(book, BuildSpellbook.CycleCheck.DETECT, 1)) {
+	        InetSocketAddress bound = (InetSocketAddress) failing.bind(
+	                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	        try (Client client = new Client(bound)) {
+	            client.send("PREREQ A B");
+	            assertEquals(List.of("LEARN A", "   Learning B", "   Learning A"), client.send("LEARN A"));
+	            assertEquals(List.of("ENUM", "   B", "   A",
+	                    "   Command failed: java.lang.IllegalStateException: broken metrics"), client.send("ENUM"));
+	            assertEquals(List.of("FORGET A", "   Forgetting A", "   Forgetting B"), client.send("FORGET A"));
+	        }
+	    } finally {
+	        log.removeHandler(handler);
+	        log.setUseParentHandlers(true);
+	    }
+	    assertEquals(1, records.size());
+	    assertEquals("broken metrics", records.get(0).getThrown().getMessage());
+	}
+
+
+
+   @Test
+   void pipelinedLinesAreAnsweredPastMaxPending() throws IOException {
+	    try (Client client = new Client(address)) {
+	        StringBuilder rules = new StringBuilder("PREREQ Top");
+	        for (int i = 0; i < 100; i++) {
+	            rules.append(" Spell").append(i);
+	        }
+	        client.send(rules.toString());
+	        assertEquals(102, client.send("LEARN Top").size());
+	        // About 1.5 MB of answers, more than one round of MAX_PENDING
+	        int count = 2000;
+	        client.out.write("ENUM\n".repeat(count));
+	        client.out.flush();
+	        for (int i = 0; i < count; i++) {
+	            List<String> answer = client.receive();
+	            assertEquals(102, answer.size());
+	            assertEquals("   Top", answer.get(101));
+	        }
+	        assertEquals(List.of("ENUM", "   Spell0"), client.send("ENUM").subList(0, 2));
+	    }
+	}
+
+}
@@ -0,0 +1,99 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpellbookSnapshotTest {
+
+   @TempDir
+   Path directory;
+
+   private static Vector<String> specs(String... lines) {
+	    return new Vector<>(Arrays.asList(lines));
+	}
+
+
+
+   @Test
+   void restoresFromSnapshotAndLog() throws IOException {
+	    Path snapshot = directory.resolve("book.snap");
+	    Path log = directory.resolve("book.log");
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.openLog(log);
+	    book.execNSpecs(specs("PREREQ A B C", "PREREQ B D", "LEARN A", "FORGET C"), 10);
+	    book.checkpoint(snapshot);
+	    // Only these come from the log on restore
+	    book.execNSpecs(specs("PREREQ E F", "LEARN E", "FORGET B"), 10);
+	    book.closeLog();
+
+	    BuildSpellbook restored = BuildSpellbook.restore(snapshot, log);
+	    try {
+	        Vector<String> probe = specs("ENUM", "LEARN C", "ENUM");
+	        assertEquals(book.execNSpecs(probe, 10), restored.execNSpecs(probe, 10));
+	    } finally {
+	        restored.closeLog();
+	    }
+	}
+
+
+
+   @Test
+   void snapshotPastTheEndOfTheLogIsRejected() throws IOException {
+	    Path snapshot = directory.resolve("book.snap");
+	    Path log = directory.resolve("book.log");
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.openLog(log);
+	    book.execNSpecs(specs("PREREQ A B", "LEARN A"), 10);
+	    book.checkpoint(snapshot);
+	    book.closeLog();
+
+	    // A log cut short, then one replaced by another that has no record end there
+	    Files.write(log, "PREREQ A B\n".getBytes(StandardCharsets.UTF_8));
+	    IOException truncated = assertThrows(IOException.class, () -> BuildSpellbook.restore(snapshot, log));
+	    assertTrue(truncated.getMessage().contains("truncated or replaced"), truncated.getMessage());
+	    Files.write(log, "PREREQ LONGER NAMES\nLEARN LONGER\n".getBytes(StandardCharsets.UTF_8));
+	    IOException replaced = assertThrows(IOException.class, () -> BuildSpellbook.restore(snapshot, log));
+	    assertTrue(replaced.getMessage().contains("no record of the log ends there"), replaced.getMessage());
+	}
+
+
+
+   @Test
+   void logAloneReplaysEverything() throws IOException {
+	    Path log = directory.resolve("only.log");
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.openLog(log);
+	    book.execNSpecs(specs("PREREQ A B", "LEARN A", "PREREQ C A", "LEARN C", "FORGET A"), 10);
+	    book.closeLog();
+
+	    BuildSpellbook restored = BuildSpellbook.restore(directory.resolve("missing.snap"), log);
+	    restored.closeLog();
+	    assertEquals(book.execNSpecs(specs("ENUM"), 1), restored.execNSpecs(specs("ENUM"), 1));
+	}
+
+
+
+   @Test
+   void snapshotRemembersMerging() throws IOException {
+	    Path snapshot = directory.resolve("merged.snap");
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.setMergePrereqs(true);
+	    book.execNSpecs(specs("PREREQ A B", "PREREQ A C"), 10);
+	    book.checkpoint(snapshot);
+
+	    BuildSpellbook restored = BuildSpellbook.restore(snapshot, null);
+	    assertTrue(restored.isMergePrereqs());
+	    assertEquals(List.of("LEARN A", "   Learning B", "   Learning C", "   Learning A"),
+	            restored.execNSpecs(specs("LEARN A"), 1));
+	    assertTrue(Files.size(snapshot) > 0);
+	}
+
+}
@@ -0,0 +1,96 @@
+package student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TraceReplayTest {
+
+   @TempDir
+   Path directory;
+
+   private static Vector<String> specs(String... lines) {
+	    return new Vector<>(Arrays.asList(lines));
+	}
+
+
+
+   @Test
+   void recordedLogReplaysLikeExecNSpecs() throws IOException {
+	    Path log = directory.resolve("book.log");
+	    BuildSpellbook book = new BuildSpellbook();
+	    book.openLog(log);
+	    book.execNSpecs(specs("PREREQ A B C", "PREREQ B D", "LEARN A", "ENUM", "FORGET C", "PREREQ D A",
+	            "PREREQ E F", "LEARN E", "REQUIRES A", "FORGET A", "LEARN B"), 11);
+	    book.closeLog();
+	    // Only the commands that change the book are recorded
+	    Vector<String> recorded = new Vector<>(Files.readAllLines(log, Charset.defaultCharset()));
+	    assertEquals(specs("PREREQ A B C", "PREREQ B D", "LEARN A", "FORGET C", "PREREQ D A", "PREREQ E F",
+	            "LEARN E", "FORGET A", "LEARN B"), recorded);
+
+	    // The checked run stops learning once PREREQ D A closes a cycle
+	    for (String variant : new String[] { "execNSpecs", "execNSpecswCheck" }) {
+	        List<String> output = new ArrayList<>();
+	        TraceReplay.Report report = new TraceReplay(SpellbookBatch.checkOf(variant), 0, Long.MAX_VALUE)
+	                .replay(log, new BuildSpellbook(), output::add);
+	        assertEquals(SpellbookBenchmark.run(variant, new BuildSpellbook(), recorded), output, variant);
+	        assertEquals(recorded.size(), report.commands);
+	        assertEquals(output.size(), report.outputLines);
+	        assertEquals(4, report.latencies[SpecTokenizer.PREREQ].count());
+	        assertEquals(3, report.latencies[SpecTokenizer.LEARN].count());
+	        assertEquals(recorded.size(), report.all.count());
+	    }
+	}
+
+
+
+   @Test
+   void generatedSpecReplaysLikeEveryVariant() throws IOException {
+	    SpecGenerator.Profile profile = new SpecGenerator.Profile();
+	    profile.spells = 500;
+	    profile.depth = 8;
+	    profile.commands = 300;
+	    profile.interleave = 0.5;
+	    profile.enumWeight = 5;
+	    profile.cycles = 1;
+	    Vector<String> specs = new Vector<>();
+	    new SpecGenerator(profile).generate(specs::add);
+	    Path trace = directory.resolve("specs.txt");
+	    Files.write(trace, specs, Charset.defaultCharset());
+
+	    for (String variant : SpellbookBenchmark.VARIANTS) {
+	        List<String> output = new ArrayList<>();
+	        new TraceReplay(SpellbookBatch.checkOf(variant), 0, Long.MAX_VALUE)
+	                .replay(trace, new BuildSpellbook(), output::add);
+	        assertEquals(SpellbookBenchmark.run(variant, new BuildSpellbook(), specs), output, variant);
+	    }
+	}
+
+
+
+   @Test
+   void replayStopsWhereTheRunEnds() throws IOException {
+	    String trace = "PREREQ A B\nLEARN A\nBOGUS\nLEARN B\n";
+	    List<String> output = new ArrayList<>();
+	    TraceReplay.Report report = new TraceReplay(BuildSpellbook.CycleCheck.NONE, 0, Long.MAX_VALUE)
+	            .replay(new BufferedReader(new StringReader(trace)), new BuildSpellbook(), output::add);
+	    assertEquals(new BuildSpellbook().execNSpecs(specs("PREREQ A B", "LEARN A", "BOGUS", "LEARN B"), 4), output);
+	    assertEquals(3, report.commands);
+
+	    output.clear();
+	    report = new TraceReplay(BuildSpellbook.CycleCheck.NONE, 0, 2)
+	            .replay(new BufferedReader(new StringReader(trace)), new BuildSpellbook(), output::add);
+	    assertEquals(List.of("PREREQ A B", "LEARN A", "   Learning B", "   Learning A"), output);
+	    assertEquals(2, report.commands);
+	}
+
+}